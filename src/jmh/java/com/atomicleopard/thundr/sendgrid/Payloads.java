@@ -0,0 +1,49 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fixed test data for benchmarks
+ */
+public class Payloads {
+    public static final String Body = "<html><body><h1>Hello -name-</h1><p>Thanks for signing up, here is your receipt.</p></body></html>";
+
+    /**
+     * @return the given number of random, and therefore incompressible, bytes which are the same on every run
+     */
+    public static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the given number of recipients, keyed by email address
+     */
+    public static Map<String, String> recipients(int count) {
+        Map<String, String> recipients = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            recipients.put("recipient-" + i + "@mail.com", "Recipient " + i);
+        }
+        return recipients;
+    }
+}
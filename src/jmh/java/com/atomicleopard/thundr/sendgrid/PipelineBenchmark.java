@@ -0,0 +1,159 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atomicleopard.thundr.sendgrid.cache.AttachmentCache;
+import com.atomicleopard.thundr.sendgrid.cache.EncodedAttachment;
+import com.atomicleopard.thundr.sendgrid.cache.RenderedContent;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Personalization;
+import com.threewks.thundr.mail.Attachment;
+import com.threewks.thundr.request.ThreadLocalRequestContainer;
+import com.threewks.thundr.util.Encoder;
+import com.threewks.thundr.view.ViewResolverRegistry;
+import com.threewks.thundr.view.file.Disposition;
+import com.threewks.thundr.view.file.FileView;
+import com.threewks.thundr.view.file.FileViewResolver;
+import com.threewks.thundr.view.string.StringView;
+import com.threewks.thundr.view.string.StringViewResolver;
+
+/**
+ * Measures each stage of building an email in isolation, with no network involved. Run with <code>-prof gc</code>, the
+ * default for the benchmark profile, to see the allocation rate of each stage.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Mailer {
+        SendGridMailer mailer;
+        StringView body = new StringView(Payloads.Body);
+
+        @Setup(Level.Trial)
+        public void setup() {
+            ViewResolverRegistry viewResolverRegistry = new ViewResolverRegistry();
+            viewResolverRegistry.addResolver(StringView.class, new StringViewResolver());
+            viewResolverRegistry.addResolver(FileView.class, new FileViewResolver());
+            mailer = new SendGridMailer(viewResolverRegistry, new ThreadLocalRequestContainer(), "apiKey");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Attachments {
+        @Param({ "10240", "1048576", "10485760" })
+        public int size;
+
+        Attachment attachment;
+        Mail mail;
+        RenderedContent rendered;
+        AttachmentCache attachmentCache;
+
+        @Setup(Level.Trial)
+        public void setup(Mailer mailer) {
+            attachment = new Attachment("file.bin", new FileView("file.bin", Payloads.bytes(size), "application/octet-stream"), Disposition.Attachment);
+            // a separate copy of the content, as each render of an attachment produces
+            rendered = new RenderedContent(Payloads.bytes(size), "application/octet-stream", null);
+            attachmentCache = new AttachmentCache(AttachmentCache.DefaultMaxBytes * 2);
+            attachmentCache.encode(new RenderedContent(Payloads.bytes(size), "application/octet-stream", null));
+            mail = new Mail();
+            mail.setFrom(new Email("sender@mail.com"));
+            mail.setSubject("Benchmark");
+            mailer.mailer.addBody(mailer.body, mail);
+            Personalization personalization = new Personalization();
+            personalization.addTo(new Email("someone@mail.com"));
+            mail.addPersonalization(personalization);
+            mailer.mailer.addAttachment(mail, attachment);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recipients {
+        @Param({ "10", "1000" })
+        public int count;
+
+        Map<String, String> recipients;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            recipients = Payloads.recipients(count);
+        }
+    }
+
+    @Benchmark
+    public Mail addBody(Mailer mailer) {
+        Mail mail = new Mail();
+        mailer.mailer.addBody(mailer.body, mail);
+        return mail;
+    }
+
+    @Benchmark
+    public Mail addAttachment(Mailer mailer, Attachments attachments) {
+        Mail mail = new Mail();
+        mailer.mailer.addAttachment(mail, attachments.attachment);
+        return mail;
+    }
+
+    @Benchmark
+    public String encodeAttachment(Attachments attachments) {
+        return new Encoder(attachments.rendered.getBodyAsBytes()).base64().string();
+    }
+
+    /**
+     * A cache hit on identical content rendered again, compared to {@link #encodeAttachment(Attachments)}
+     */
+    @Benchmark
+    public EncodedAttachment encodeCachedAttachment(Attachments attachments) {
+        return attachments.attachmentCache.encode(attachments.rendered);
+    }
+
+    @Benchmark
+    public String build(Attachments attachments) throws IOException {
+        return attachments.mail.build();
+    }
+
+    @Benchmark
+    public Personalization addRecipients(Mailer mailer, Recipients recipients) {
+        Personalization personalization = new Personalization();
+        mailer.mailer.addTo(recipients.recipients, personalization);
+        mailer.mailer.addCc(recipients.recipients, personalization);
+        mailer.mailer.addBcc(recipients.recipients, personalization);
+        return personalization;
+    }
+}
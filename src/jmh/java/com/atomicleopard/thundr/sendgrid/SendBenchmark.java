@@ -0,0 +1,121 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atomicleopard.thundr.sendgrid.fake.FakeSendGridServer;
+import com.atomicleopard.thundr.sendgrid.transport.HttpPoolConfig;
+import com.atomicleopard.thundr.sendgrid.transport.MailTransport;
+import com.atomicleopard.thundr.sendgrid.transport.PooledHttpTransport;
+import com.atomicleopard.thundr.sendgrid.transport.SendGridApiTransport;
+import com.atomicleopard.thundr.sendgrid.transport.StreamingHttpTransport;
+import com.threewks.thundr.mail.MailBuilder;
+import com.threewks.thundr.request.ThreadLocalRequestContainer;
+import com.threewks.thundr.view.ViewResolverRegistry;
+import com.threewks.thundr.view.file.Disposition;
+import com.threewks.thundr.view.file.FileView;
+import com.threewks.thundr.view.file.FileViewResolver;
+import com.threewks.thundr.view.string.StringView;
+import com.threewks.thundr.view.string.StringViewResolver;
+
+/**
+ * Sends emails end to end, from {@link com.threewks.thundr.mail.Mailer#mail()} through rendering, serialization and
+ * the HTTP request, against a local {@link FakeSendGridServer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class SendBenchmark {
+    @Param({ "default", "pooled", "streaming" })
+    public String transport;
+
+    @Param({ "0", "10240" })
+    public int attachmentSize;
+
+    private FakeSendGridServer server;
+    private SendGridMailer mailer;
+    private MailTransport mailTransport;
+    private byte[] attachment;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new FakeSendGridServer().recording(false);
+        ViewResolverRegistry viewResolverRegistry = new ViewResolverRegistry();
+        viewResolverRegistry.addResolver(StringView.class, new StringViewResolver());
+        viewResolverRegistry.addResolver(FileView.class, new FileViewResolver());
+        mailer = new SendGridMailer(viewResolverRegistry, new ThreadLocalRequestContainer(), "apiKey");
+        mailer.setTransport(mailTransport = transport(server.getBaseUrl()));
+        attachment = Payloads.bytes(attachmentSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (mailTransport instanceof Closeable) {
+            ((Closeable) mailTransport).close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public void send() {
+        // @formatter:off
+		MailBuilder builder = mailer.mail()
+			.from("sender@mail.com", "Sender")
+			.to("someone@mail.com", "Someone")
+			.subject("Benchmark")
+			.body(new StringView(Payloads.Body));
+		// @formatter:on
+        if (attachment.length > 0) {
+            builder.attach("file.bin", new FileView("file.bin", attachment, "application/octet-stream"), Disposition.Attachment);
+        }
+        builder.send();
+    }
+
+    private MailTransport transport(String baseUrl) {
+        switch (transport) {
+        case "pooled":
+            return new PooledHttpTransport("apiKey", baseUrl, new HttpPoolConfig());
+        case "streaming":
+            return new StreamingHttpTransport("apiKey", baseUrl, new HttpPoolConfig());
+        default:
+            return new SendGridApiTransport("apiKey", baseUrl);
+        }
+    }
+}
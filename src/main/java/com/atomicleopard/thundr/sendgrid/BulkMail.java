@@ -0,0 +1,132 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.threewks.thundr.mail.Attachment;
+import com.threewks.thundr.view.file.Disposition;
+
+/**
+ * One subject, body and set of attachments sent to many recipients. Each recipient receives their own copy of the email,
+ * recipients never see each other.
+ *
+ * <pre>
+ * <code>
+ * mailer.sendBulk(new BulkMail()
+ * 	.from("news@mail.com")
+ * 	.subject("Hello -name-")
+ * 	.body(new StringView("Our latest news, just for you -name-"))
+ * 	.to("someone@mail.com", "Someone", substitutions));
+ * </code>
+ * </pre>
+ *
+ * @see SendGridMailer#sendBulk(BulkMail)
+ */
+public class BulkMail {
+    private Entry<String, String> from;
+    private Entry<String, String> replyTo;
+    private String subject;
+    private Object body;
+    private List<Attachment> attachments = new ArrayList<>();
+    private List<Recipient> recipients = new ArrayList<>();
+
+    public BulkMail from(String email) {
+        return from(email, null);
+    }
+
+    public BulkMail from(String email, String name) {
+        this.from = new SimpleImmutableEntry<>(email, name);
+        return this;
+    }
+
+    public BulkMail replyTo(String email) {
+        return replyTo(email, null);
+    }
+
+    public BulkMail replyTo(String email, String name) {
+        this.replyTo = new SimpleImmutableEntry<>(email, name);
+        return this;
+    }
+
+    public BulkMail subject(String subject) {
+        this.subject = subject;
+        return this;
+    }
+
+    public BulkMail body(Object body) {
+        this.body = body;
+        return this;
+    }
+
+    public BulkMail attach(String name, Object view, Disposition disposition) {
+        this.attachments.add(new Attachment(name, view, disposition));
+        return this;
+    }
+
+    public BulkMail to(String email) {
+        return to(new Recipient(email));
+    }
+
+    public BulkMail to(String email, String name) {
+        return to(new Recipient(email, name));
+    }
+
+    public BulkMail to(String email, String name, Map<String, String> substitutions) {
+        return to(new Recipient(email, name, substitutions));
+    }
+
+    public BulkMail to(Recipient recipient) {
+        this.recipients.add(recipient);
+        return this;
+    }
+
+    public BulkMail to(Collection<Recipient> recipients) {
+        this.recipients.addAll(recipients);
+        return this;
+    }
+
+    public Entry<String, String> from() {
+        return from;
+    }
+
+    public Entry<String, String> replyTo() {
+        return replyTo;
+    }
+
+    public String subject() {
+        return subject;
+    }
+
+    public Object body() {
+        return body;
+    }
+
+    public List<Attachment> attachments() {
+        return attachments;
+    }
+
+    public List<Recipient> recipients() {
+        return recipients;
+    }
+}
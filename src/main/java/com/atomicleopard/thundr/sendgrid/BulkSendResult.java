@@ -0,0 +1,105 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a {@link SendGridMailer#sendBulk(BulkMail)}. Recipients are sent in batches, each batch either
+ * succeeds or fails as a whole.
+ */
+public class BulkSendResult {
+    private int requests;
+    private int sent;
+    private int suppressed;
+    private List<Failure> failures = new ArrayList<>();
+
+    void success(int recipients) {
+        requests++;
+        sent += recipients;
+    }
+
+    void suppressed(int recipients) {
+        suppressed += recipients;
+    }
+
+    void failure(List<Recipient> recipients, Throwable cause) {
+        requests++;
+        failures.add(new Failure(recipients, cause));
+    }
+
+    /**
+     * @return the number of SendGrid API calls made
+     */
+    public int getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of recipients accepted by SendGrid
+     */
+    public int getSent() {
+        return sent;
+    }
+
+    /**
+     * @return the number of recipients dropped because their address is suppressed
+     */
+    public int getSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * @return the number of recipients in failed batches
+     */
+    public int getFailed() {
+        int failed = 0;
+        for (Failure failure : failures) {
+            failed += failure.getRecipients().size();
+        }
+        return failed;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    public static class Failure {
+        private final List<Recipient> recipients;
+        private final Throwable cause;
+
+        Failure(List<Recipient> recipients, Throwable cause) {
+            this.recipients = recipients;
+            this.cause = cause;
+        }
+
+        public List<Recipient> getRecipients() {
+            return recipients;
+        }
+
+        public Throwable getCause() {
+            return cause;
+        }
+    }
+}
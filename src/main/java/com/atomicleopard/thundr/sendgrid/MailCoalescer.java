@@ -0,0 +1,317 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.atomicleopard.thundr.sendgrid.transport.StreamingAttachments;
+import com.sendgrid.Attachments;
+import com.sendgrid.Content;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Personalization;
+import com.sendgrid.Response;
+
+/**
+ * Merges emails with identical sender, subject, content and attachments which are sent within a short window of each
+ * other into a single SendGrid request, giving each its own {@link Personalization}. A batch is sent when the window
+ * elapses after its first email, or as soon as it holds {@link #getMaxBatchSize()} emails. A batch never holds more than
+ * {@value #MaxRecipients} to, cc and bcc recipients in total, SendGrid's limit for a single request.
+ *
+ * Every caller receives the outcome of the request their email was sent in. If SendGrid rejects a merged request as
+ * invalid, each of its emails is sent again on its own, so that only the callers of the invalid emails see the failure.
+ */
+public class MailCoalescer {
+    public static final long DefaultWindowMillis = 50;
+    public static final int MaxRecipients = 1000;
+
+    protected final long windowMillis;
+    protected final int maxBatchSize;
+    protected final ScheduledExecutorService scheduler;
+    private final ConcurrentHashMap<Key, Batch> pending = new ConcurrentHashMap<>();
+
+    public MailCoalescer() {
+        this(DefaultWindowMillis, SendGridMailer.MaxPersonalizations);
+    }
+
+    public MailCoalescer(long windowMillis, int maxBatchSize) {
+        if (maxBatchSize < 1 || maxBatchSize > SendGridMailer.MaxPersonalizations) {
+            throw new IllegalArgumentException(String.format("maxBatchSize must be between 1 and %s, was %s", SendGridMailer.MaxPersonalizations, maxBatchSize));
+        }
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new SendGridExecutor.DaemonThreadFactory("sendgrid-coalescer-"));
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Queues the given email to be sent with any identical emails submitted within the window. Emails which cannot be
+     * merged are sent immediately.
+     *
+     * @param sender sends the merged email
+     */
+    public CompletableFuture<Response> submit(Mail mail, Function<Mail, CompletableFuture<Response>> sender) {
+        if (!canCoalesce(mail)) {
+            return sender.apply(mail);
+        }
+        int recipients = recipients(mail.getPersonalization().get(0));
+        if (recipients > MaxRecipients) {
+            return sender.apply(mail);
+        }
+        // the key is hashed here, and only compared against emails with the same hash while their batch is locked
+        Key key = new Key(mail);
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        List<Batch> full = new ArrayList<>(2);
+        pending.compute(key, (k, batch) -> {
+            if (batch != null && batch.recipients + recipients > MaxRecipients) {
+                full.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(key, sender);
+                final Batch scheduled = batch;
+                scheduler.schedule(() -> flush(scheduled), windowMillis, TimeUnit.MILLISECONDS);
+            }
+            batch.add(mail, recipients, response);
+            if (batch.size() >= maxBatchSize || batch.recipients >= MaxRecipients) {
+                full.add(batch);
+                return null;
+            }
+            return batch;
+        });
+        for (Batch batch : full) {
+            batch.send();
+        }
+        return response;
+    }
+
+    /**
+     * Sends all pending batches and stops the window timer
+     */
+    public void shutdown() {
+        for (Batch batch : new ArrayList<>(pending.values())) {
+            if (pending.remove(batch.key, batch)) {
+                batch.send();
+            }
+        }
+        scheduler.shutdown();
+    }
+
+    protected void flush(Batch batch) {
+        if (pending.remove(batch.key, batch)) {
+            batch.send();
+        }
+    }
+
+    /**
+     * Only emails with a single personalization and no settings beyond sender, reply to, subject, content and
+     * attachments are merged, as anything else would change what recipients receive.
+     */
+    protected boolean canCoalesce(Mail mail) {
+        return mail.getPersonalization() != null && mail.getPersonalization().size() == 1
+                && mail.getTemplateId() == null && mail.getSections() == null && mail.getHeaders() == null
+                && mail.getCategories() == null && mail.getCustomArgs() == null && mail.sendAt() == 0
+                && mail.getBatchId() == null && mail.getASM() == null && mail.getIpPoolId() == null
+                && mail.getMailSettings() == null && mail.getTrackingSettings() == null;
+    }
+
+    private static int recipients(Personalization personalization) {
+        return size(personalization.getTos()) + size(personalization.getCcs()) + size(personalization.getBccs());
+    }
+
+    private static int size(List<Email> emails) {
+        return emails == null ? 0 : emails.size();
+    }
+
+    protected static class Batch {
+        private final Key key;
+        private final Function<Mail, CompletableFuture<Response>> sender;
+        private final List<Mail> mails = new ArrayList<>();
+        private final List<CompletableFuture<Response>> responses = new ArrayList<>();
+        private int recipients;
+
+        Batch(Key key, Function<Mail, CompletableFuture<Response>> sender) {
+            this.key = key;
+            this.sender = sender;
+        }
+
+        void add(Mail mail, int recipients, CompletableFuture<Response> response) {
+            mails.add(mail);
+            responses.add(response);
+            this.recipients += recipients;
+        }
+
+        int size() {
+            return mails.size();
+        }
+
+        /**
+         * The first email in the batch carries the personalizations of the rest. The attachments of the rest are
+         * identical to its own, so their pooled buffers are released once the merged email is accepted. Until then the
+         * first email's attachments are retained too, so every email can still be sent on its own.
+         */
+        void send() {
+            Mail merged = mails.get(0);
+            if (mails.size() == 1) {
+                send(merged, responses.get(0));
+                return;
+            }
+            retain(merged);
+            for (Mail mail : mails.subList(1, mails.size())) {
+                merged.addPersonalization(mail.getPersonalization().get(0));
+            }
+            try {
+                sender.apply(merged).whenComplete((response, e) -> complete(response, e));
+            } catch (Throwable e) {
+                complete(null, e);
+            }
+        }
+
+        private void send(Mail mail, CompletableFuture<Response> future) {
+            try {
+                sender.apply(mail).whenComplete((response, e) -> {
+                    if (e == null) {
+                        future.complete(response);
+                    } else {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        private static void retain(Mail mail) {
+            if (mail.getAttachments() != null) {
+                for (Attachments attachments : mail.getAttachments()) {
+                    if (attachments instanceof StreamingAttachments) {
+                        ((StreamingAttachments) attachments).retain();
+                    }
+                }
+            }
+        }
+
+        private static void release(Mail mail) {
+            if (mail.getAttachments() != null) {
+                for (Attachments attachments : mail.getAttachments()) {
+                    if (attachments instanceof StreamingAttachments) {
+                        ((StreamingAttachments) attachments).release();
+                    }
+                }
+            }
+        }
+
+        private void complete(Response response, Throwable e) {
+            Mail merged = mails.get(0);
+            release(merged);
+            if (e != null && isRejected(e)) {
+                List<Personalization> personalizations = merged.getPersonalization();
+                personalizations.subList(1, personalizations.size()).clear();
+                for (int i = 0; i < mails.size(); i++) {
+                    send(mails.get(i), responses.get(i));
+                }
+                return;
+            }
+            for (Mail mail : mails.subList(1, mails.size())) {
+                release(mail);
+            }
+            for (CompletableFuture<Response> future : responses) {
+                if (e == null) {
+                    future.complete(response);
+                } else {
+                    future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if SendGrid rejected the request itself as invalid, rather than refusing the account or being
+     *         unavailable
+     */
+    protected static boolean isRejected(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (!(cause instanceof SendGridException)) {
+            return false;
+        }
+        int statusCode = ((SendGridException) cause).getStatusCode();
+        return statusCode >= 400 && statusCode < 500 && statusCode != 401 && statusCode != 403 && statusCode != 429;
+    }
+
+    /**
+     * Identifies emails whose shared parts are identical
+     */
+    protected static class Key {
+        private final List<Object> parts;
+        private final int hashCode;
+
+        Key(Mail mail) {
+            List<Object> parts = new ArrayList<>();
+            addEmail(parts, mail.from);
+            addEmail(parts, mail.getReplyto());
+            parts.add(mail.getSubject());
+            if (mail.getContent() != null) {
+                for (Content content : mail.getContent()) {
+                    parts.add(Arrays.asList(content.getType(), content.getValue()));
+                }
+            }
+            parts.add(null);
+            if (mail.getAttachments() != null) {
+                for (Attachments attachments : mail.getAttachments()) {
+                    parts.add(Arrays.asList(attachments.getFilename(), attachments.getContentId(), attachments.getDisposition(), attachments.getType(), content(attachments)));
+                }
+            }
+            this.parts = parts;
+            this.hashCode = parts.hashCode();
+        }
+
+        private static Object content(Attachments attachments) {
+            return attachments instanceof StreamingAttachments ? ((StreamingAttachments) attachments).getBuffer() : attachments.getContent();
+        }
+
+        private static void addEmail(List<Object> parts, Email email) {
+            parts.add(email == null ? null : Arrays.asList(email.getEmail(), email.getName()));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && hashCode == ((Key) obj).hashCode && parts.equals(((Key) obj).parts);
+        }
+    }
+}
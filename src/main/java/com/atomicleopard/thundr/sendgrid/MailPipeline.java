@@ -0,0 +1,262 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import com.sendgrid.Mail;
+import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.mail.MailBuilder;
+import com.threewks.thundr.mail.MailException;
+
+/**
+ * Sends a stream of emails, such as one per recipient of a nightly job, as a pipeline. Emails are read from the stream
+ * on the calling thread, rendered on {@link #getRenderThreads()} threads and sent on {@link #getSendThreads()} threads.
+ * Each stage hands emails to the next through a queue holding at most {@link #getQueueSize()} emails. When SendGrid
+ * slows down the queues fill and reading slows to match, so memory use stays bounded however long the stream is.
+ *
+ * <pre>
+ * <code>
+ * StreamSendResult result = new MailPipeline(mailer)
+ * 	.renderThreads(4)
+ * 	.sendThreads(32)
+ * 	.send(users.stream().map(user -&gt; mailer.mail()
+ * 		.from("news@mail.com")
+ * 		.to(user.getEmail())
+ * 		.subject("Your weekly summary")
+ * 		.body(new StringView("Your summary, " + user.getName()))));
+ * </code>
+ * </pre>
+ *
+ * Emails are sent like {@link SendGridMailer#send(MailBuilder)}, with the mailer's suppression index, duplicate
+ * suppressor, rate limiter, retry policy, circuit breaker and outbox all applied. Each send waits for SendGrid to
+ * accept the email, so the mailer's executor is not used and every failure is reported in the result.
+ */
+public class MailPipeline {
+    public static final int DefaultSendThreads = 16;
+    public static final int DefaultQueueSize = 1000;
+    public static final int DefaultMaxFailures = 10000;
+
+    private static final Item End = new Item(-1, null);
+
+    protected final SendGridMailer mailer;
+    protected int renderThreads = Runtime.getRuntime().availableProcessors();
+    protected int sendThreads = DefaultSendThreads;
+    protected int queueSize = DefaultQueueSize;
+    protected int maxFailures = DefaultMaxFailures;
+
+    public MailPipeline(SendGridMailer mailer) {
+        this.mailer = mailer;
+    }
+
+    public MailPipeline renderThreads(int renderThreads) {
+        this.renderThreads = atLeast("renderThreads", renderThreads, 1);
+        return this;
+    }
+
+    public MailPipeline sendThreads(int sendThreads) {
+        this.sendThreads = atLeast("sendThreads", sendThreads, 1);
+        return this;
+    }
+
+    public MailPipeline queueSize(int queueSize) {
+        this.queueSize = atLeast("queueSize", queueSize, 1);
+        return this;
+    }
+
+    public MailPipeline maxFailures(int maxFailures) {
+        this.maxFailures = atLeast("maxFailures", maxFailures, 0);
+        return this;
+    }
+
+    public int getRenderThreads() {
+        return renderThreads;
+    }
+
+    public int getSendThreads() {
+        return sendThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    public StreamSendResult send(Stream<? extends MailBuilder> messages) {
+        return send(messages.iterator());
+    }
+
+    /**
+     * Sends every email of the given iterator, returning once they have all been sent or failed
+     *
+     * @throws MailException if the calling thread is interrupted, after the emails already read have been sent
+     */
+    public StreamSendResult send(Iterator<? extends MailBuilder> messages) {
+        StreamSendResult result = new StreamSendResult(maxFailures);
+        BlockingQueue<Item> rendering = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Item> sending = new ArrayBlockingQueue<>(queueSize);
+        ParallelRenderer renderer = new ParallelRenderer(renderThreads);
+        ExecutorService senders = Executors.newFixedThreadPool(sendThreads, new SendGridExecutor.DaemonThreadFactory("sendgrid-pipeline-"));
+        List<CompletableFuture<Void>> stages = new ArrayList<>();
+        for (int i = 0; i < renderThreads; i++) {
+            stages.add(renderer.submit(() -> render(rendering, sending, result), mailer.getRequestContainer()));
+        }
+        for (int i = 0; i < sendThreads; i++) {
+            stages.add(CompletableFuture.runAsync(() -> send(sending, result), senders));
+        }
+        long start = System.nanoTime();
+        long read = 0;
+        try {
+            while (messages.hasNext()) {
+                rendering.put(new Item(read, messages.next()));
+                read++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailException(e, "Interrupted while sending emails through Sendgrid, %s emails were read", read);
+        } finally {
+            finish(rendering, renderThreads, stages.subList(0, renderThreads));
+            finish(sending, sendThreads, stages.subList(renderThreads, stages.size()));
+            renderer.shutdown();
+            senders.shutdown();
+        }
+        Logger.info("Sent %s emails through Sendgrid in %sms: %s sent, %s suppressed, %s failed", read, (System.nanoTime() - start) / 1000000, result.getSent(), result.getSuppressed(),
+                result.getFailed());
+        return result;
+    }
+
+    /**
+     * Renders emails until the end of the stream, handing them to the send stage
+     */
+    protected Void render(BlockingQueue<Item> rendering, BlockingQueue<Item> sending, StreamSendResult result) {
+        for (Item item = take(rendering); item != End; item = take(rendering)) {
+            try {
+                if (mailer.sendThroughFallback(item.message)) {
+                    result.sent();
+                    continue;
+                }
+                Mail mail = mailer.prepare(item.message);
+                if (mail == null) {
+                    result.suppressed();
+                } else {
+                    put(sending, new Item(item.index, item.message, mail));
+                }
+            } catch (Exception e) {
+                result.failure(item.index, item.message, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends emails until the end of the stream
+     */
+    protected void send(BlockingQueue<Item> sending, StreamSendResult result) {
+        for (Item item = take(sending); item != End; item = take(sending)) {
+            try {
+                if (mailer.send(item.mail, true)) {
+                    result.sent();
+                } else {
+                    result.suppressed();
+                }
+            } catch (Exception e) {
+                result.failure(item.index, item.message, e);
+            }
+        }
+    }
+
+    /**
+     * Tells each thread of a stage that the stream has ended, then waits for them to finish
+     */
+    private void finish(BlockingQueue<Item> queue, int threads, List<CompletableFuture<Void>> stage) {
+        for (int i = 0; i < threads; i++) {
+            put(queue, End);
+        }
+        CompletableFuture.allOf(stage.toArray(new CompletableFuture<?>[stage.size()])).join();
+    }
+
+    /**
+     * The stages only stop once they reach the end of the stream, so they wait through interrupts rather than leave
+     * the stages either side of them blocked
+     */
+    private static void put(BlockingQueue<Item> queue, Item item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Item take(BlockingQueue<Item> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int atLeast(String name, int value, int minimum) {
+        if (value < minimum) {
+            throw new IllegalArgumentException(String.format("%s must be at least %s, was %s", name, minimum, value));
+        }
+        return value;
+    }
+
+    protected static class Item {
+        private final long index;
+        private final MailBuilder message;
+        private final Mail mail;
+
+        Item(long index, MailBuilder message) {
+            this(index, message, null);
+        }
+
+        Item(long index, MailBuilder message, Mail mail) {
+            this.index = index;
+            this.message = message;
+            this.mail = mail;
+        }
+    }
+}
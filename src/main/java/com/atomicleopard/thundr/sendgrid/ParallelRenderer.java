@@ -0,0 +1,101 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import com.threewks.thundr.request.MutableRequestContainer;
+import com.threewks.thundr.request.Request;
+import com.threewks.thundr.request.RequestContainer;
+import com.threewks.thundr.request.Response;
+
+/**
+ * Renders the body and attachments of an email concurrently, so that an email with several attachments takes as long
+ * to render as its slowest part rather than all of them together.
+ *
+ * Views are rendered in the context of the request sending the email. When the {@link RequestContainer} is a
+ * {@link MutableRequestContainer}, the sending thread's request and response are made current on the rendering thread
+ * for the duration of the render.
+ */
+public class ParallelRenderer {
+    protected final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * Renders on the common fork join pool
+     */
+    public ParallelRenderer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Renders on a pool of the given number of daemon threads, which is shut down by {@link #shutdown()}
+     */
+    public ParallelRenderer(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        }
+        this.ownedExecutor = Executors.newFixedThreadPool(threads, new SendGridExecutor.DaemonThreadFactory("sendgrid-render-"));
+        this.executor = ownedExecutor;
+    }
+
+    public ParallelRenderer(Executor executor) {
+        this.executor = executor;
+        this.ownedExecutor = null;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs the given render on the executor with the current request of the given container
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> render, RequestContainer requestContainer) {
+        if (!(requestContainer instanceof MutableRequestContainer)) {
+            return CompletableFuture.supplyAsync(render, executor);
+        }
+        MutableRequestContainer container = (MutableRequestContainer) requestContainer;
+        Request request = requestContainer.getRequest();
+        Response response = requestContainer.getResponse();
+        return CompletableFuture.supplyAsync(() -> {
+            Request previousRequest = requestContainer.getRequest();
+            Response previousResponse = requestContainer.getResponse();
+            container.set(request, response);
+            try {
+                return render.get();
+            } finally {
+                container.set(previousRequest, previousResponse);
+            }
+        }, executor);
+    }
+
+    /**
+     * Shuts down the thread pool if this renderer created it
+     */
+    public void shutdown() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+}
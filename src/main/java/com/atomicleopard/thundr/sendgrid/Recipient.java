@@ -0,0 +1,73 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single recipient of a {@link BulkMail} or {@link TemplateMail}, with optional substitutions which SendGrid applies
+ * to the shared subject and body, and optional dynamic template data, for this recipient only.
+ */
+public class Recipient {
+    private final String email;
+    private final String name;
+    private final Map<String, String> substitutions;
+    private final Map<String, Object> templateData;
+
+    public Recipient(String email) {
+        this(email, null);
+    }
+
+    public Recipient(String email, String name) {
+        this(email, name, Collections.<String, String> emptyMap());
+    }
+
+    public Recipient(String email, String name, Map<String, String> substitutions) {
+        this(email, name, substitutions, null);
+    }
+
+    public Recipient(String email, String name, Map<String, String> substitutions, Map<String, ?> templateData) {
+        this.email = email;
+        this.name = name;
+        this.substitutions = substitutions == null ? Collections.<String, String> emptyMap() : new LinkedHashMap<>(substitutions);
+        this.templateData = templateData == null ? Collections.<String, Object> emptyMap() : new LinkedHashMap<String, Object>(templateData);
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getSubstitutions() {
+        return Collections.unmodifiableMap(substitutions);
+    }
+
+    public Map<String, Object> getTemplateData() {
+        return Collections.unmodifiableMap(templateData);
+    }
+
+    @Override
+    public String toString() {
+        return email;
+    }
+}
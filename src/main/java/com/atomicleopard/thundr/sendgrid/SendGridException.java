@@ -0,0 +1,67 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import com.threewks.thundr.mail.MailException;
+
+/**
+ * Thrown when SendGrid does not accept an email, either because it responded with an unsuccessful status or because
+ * the request could not be completed.
+ */
+public class SendGridException extends MailException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The status code of a request which could not be completed, such as when SendGrid was unreachable
+     */
+    public static final int NoResponse = -1;
+
+    private final int statusCode;
+
+    public SendGridException(int statusCode, String format, Object... args) {
+        super(format, args);
+        this.statusCode = statusCode;
+    }
+
+    public SendGridException(Throwable cause, String format, Object... args) {
+        super(cause, format, args);
+        this.statusCode = NoResponse;
+    }
+
+    /**
+     * @return the status code SendGrid responded with, or {@link #NoResponse}
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return true if sending the same email again may succeed: SendGrid could not be reached, was rate limiting or
+     *         failed to process the request
+     */
+    public boolean isTransient() {
+        return isTransient(statusCode);
+    }
+
+    /**
+     * @see #isTransient()
+     */
+    public static boolean isTransient(int statusCode) {
+        return statusCode == NoResponse || statusCode == 429 || statusCode >= 500;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.mail.MailException;
+
+/**
+ * Runs SendGrid API calls off the calling thread, allowing at most {@link #getMaxInFlight()} calls to be in flight at
+ * once. When the limit is reached, {@link #submit(Callable)} blocks the caller until a slot frees up.
+ *
+ * By default calls run on virtual threads when the JVM supports them, and on a cached pool of daemon threads otherwise.
+ */
+public class SendGridExecutor {
+    public static final int DefaultMaxInFlight = 64;
+
+    protected final ExecutorService executorService;
+    protected final Semaphore permits;
+    protected final int maxInFlight;
+
+    public SendGridExecutor() {
+        this(DefaultMaxInFlight);
+    }
+
+    public SendGridExecutor(int maxInFlight) {
+        this(createExecutorService(), maxInFlight);
+    }
+
+    public SendGridExecutor(ExecutorService executorService, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, was " + maxInFlight);
+        }
+        this.executorService = executorService;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        acquire();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executorService.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            future.completeExceptionally(new MailException(e, "Failed to schedule SendGrid call: %s", e.getMessage()));
+        }
+        return future;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(30, TimeUnit.SECONDS)) {
+                Logger.warn("Timed out waiting for %s in flight SendGrid calls to complete", getInFlight());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void acquire() {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailException(e, "Interrupted waiting to send email through Sendgrid");
+        }
+    }
+
+    /**
+     * @return a virtual thread per task executor if the running JVM supports it, otherwise a cached pool of daemon
+     *         threads
+     */
+    protected static ExecutorService createExecutorService() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool(new DaemonThreadFactory("sendgrid-"));
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that background sending never prevents the JVM from exiting
+     */
+    public static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
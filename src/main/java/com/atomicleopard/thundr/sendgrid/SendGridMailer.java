@@ -18,19 +18,47 @@
 package com.atomicleopard.thundr.sendgrid;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.atomicleopard.thundr.sendgrid.buffer.BufferPool;
+import com.atomicleopard.thundr.sendgrid.buffer.PooledResponse;
+import com.atomicleopard.thundr.sendgrid.cache.AttachmentCache;
+import com.atomicleopard.thundr.sendgrid.cache.CacheableView;
+import com.atomicleopard.thundr.sendgrid.cache.CachedView;
+import com.atomicleopard.thundr.sendgrid.cache.EncodedAttachment;
+import com.atomicleopard.thundr.sendgrid.cache.RenderCache;
+import com.atomicleopard.thundr.sendgrid.cache.RenderedContent;
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitBreaker;
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitOpenException;
+import com.atomicleopard.thundr.sendgrid.dedupe.DuplicateSuppressor;
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.atomicleopard.thundr.sendgrid.metrics.Stage;
+import com.atomicleopard.thundr.sendgrid.outbox.MailOutbox;
+import com.atomicleopard.thundr.sendgrid.ratelimit.AdaptiveConcurrencyLimiter;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimiter;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RetryPolicy;
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionIndex;
+import com.atomicleopard.thundr.sendgrid.transport.MailEntity;
+import com.atomicleopard.thundr.sendgrid.transport.MailTransport;
+import com.atomicleopard.thundr.sendgrid.transport.SendGridApiTransport;
+import com.atomicleopard.thundr.sendgrid.transport.StreamingAttachments;
 import com.sendgrid.Attachments;
 import com.sendgrid.Content;
 import com.sendgrid.Email;
 import com.sendgrid.Mail;
-import com.sendgrid.Method;
 import com.sendgrid.Personalization;
-import com.sendgrid.Request;
 import com.sendgrid.Response;
 import com.sendgrid.SendGrid;
 import com.threewks.thundr.http.ContentType;
@@ -38,57 +66,842 @@ import com.threewks.thundr.http.StatusCode;
 import com.threewks.thundr.logger.Logger;
 import com.threewks.thundr.mail.Attachment;
 import com.threewks.thundr.mail.BaseMailer;
+import com.threewks.thundr.mail.MailBuilder;
 import com.threewks.thundr.mail.MailException;
-import com.threewks.thundr.request.InMemoryResponse;
+import com.threewks.thundr.mail.Mailer;
 import com.threewks.thundr.request.RequestContainer;
 import com.threewks.thundr.util.Encoder;
 import com.threewks.thundr.view.ViewResolverRegistry;
 
 public class SendGridMailer extends BaseMailer {
+    /**
+     * The maximum number of personalizations SendGrid accepts in a single mail/send request
+     */
+    public static final int MaxPersonalizations = 1000;
+    public static final int DefaultWarmUpConnections = 4;
 
-    protected SendGrid sendgrid;
+    protected final String sendgridApiKey;
+    protected volatile SendGrid sendgrid;
+    protected volatile MailTransport transport;
+    protected SendGridExecutor executor;
+    protected MailCoalescer coalescer;
+    protected RenderCache renderCache;
+    protected AttachmentCache attachmentCache;
+    protected RateLimiter rateLimiter;
+    protected AdaptiveConcurrencyLimiter concurrencyLimiter;
+    protected RetryPolicy retryPolicy;
+    protected MailOutbox outbox;
+    protected CircuitBreaker circuitBreaker;
+    protected BufferPool bufferPool;
+    protected ParallelRenderer parallelRenderer;
+    protected DuplicateSuppressor duplicateSuppressor;
+    protected SuppressionIndex suppressionIndex;
+    protected SendGridMetrics metrics = SendGridMetrics.NoOp;
+    private volatile SendGridExecutor defaultExecutor;
+    private SendGridExecutor createdExecutor;
 
     public SendGridMailer(ViewResolverRegistry viewResolverRegistry, RequestContainer requestContainer, String sendgridApiKey) {
         super(viewResolverRegistry, requestContainer);
-        this.sendgrid = new SendGrid(sendgridApiKey);
+        this.sendgridApiKey = sendgridApiKey;
     }
 
+    /**
+     * The SendGrid client is created when first used, so applications which rarely send, or which send through another
+     * transport, do not pay for it
+     */
     public SendGrid getSendgrid() {
+        SendGrid sendgrid = this.sendgrid;
+        if (sendgrid == null) {
+            synchronized (this) {
+                if (this.sendgrid == null) {
+                    this.sendgrid = new SendGrid(sendgridApiKey);
+                }
+                sendgrid = this.sendgrid;
+            }
+        }
         return sendgrid;
     }
 
+    /**
+     * @return the transport set, or by default one which sends through {@link #getSendgrid()}, created when first used
+     */
+    public MailTransport getTransport() {
+        MailTransport transport = this.transport;
+        if (transport == null) {
+            synchronized (this) {
+                if (this.transport == null) {
+                    MailTransport created = new SendGridApiTransport(getSendgrid());
+                    created.setMetrics(metrics);
+                    this.transport = created;
+                }
+                transport = this.transport;
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Replaces the default transport, which sends through {@link #getSendgrid()}
+     */
+    public synchronized void setTransport(MailTransport transport) {
+        transport.setMetrics(metrics);
+        this.transport = transport;
+    }
+
+    public SendGridExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Setting an executor makes {@link #send(Mail)}, and therefore {@link com.threewks.thundr.mail.Mailer#send}, fire-and-forget.
+     * Failures are logged rather than thrown. Use {@link #sendAsync(Mail)} to observe the outcome of a send.
+     */
+    public void setExecutor(SendGridExecutor executor) {
+        this.executor = executor;
+    }
+
+    public SendGridExecutor getDefaultExecutor() {
+        return defaultExecutor;
+    }
+
+    /**
+     * Sets the executor for sends which callers wait on, such as coalesced batches, when no {@link #setExecutor
+     * executor} is set. Its owner shuts it down. Without one, the mailer creates its own on first use, see
+     * {@link #shutdown()}.
+     */
+    public void setDefaultExecutor(SendGridExecutor defaultExecutor) {
+        this.defaultExecutor = defaultExecutor;
+    }
+
+    public MailCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Setting a coalescer merges identical emails sent through {@link #send(Mail)} within its window into a single
+     * SendGrid request. Unless an executor is also set, callers still block until their email has been sent.
+     */
+    public void setCoalescer(MailCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    /**
+     * Setting a render cache reuses the rendered output of bodies and attachments which implement
+     * {@link CacheableView}, rather than rendering them for every email.
+     */
+    public void setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
+    }
+
+    public AttachmentCache getAttachmentCache() {
+        return attachmentCache;
+    }
+
+    /**
+     * Setting an attachment cache reuses the base64 encoding of identical attachments, and skips rendering attachments
+     * which implement {@link CacheableView} entirely once they have been encoded.
+     */
+    public void setAttachmentCache(AttachmentCache attachmentCache) {
+        this.attachmentCache = attachmentCache;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Setting a rate limiter paces requests to SendGrid, blocking senders until the limiter allows another request.
+     * The limiter learns SendGrid's limits from each response. When sending through a
+     * {@link com.atomicleopard.thundr.sendgrid.transport.ShardedTransport}, give each shard its own rate limiter
+     * instead.
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Limits the number of requests in flight to SendGrid to a limit which adapts to SendGrid's latency and errors
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Setting a retry policy retries requests which SendGrid rate limited or failed to process, rather than failing
+     * them immediately.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public MailOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Setting an outbox makes {@link #send(Mail)} store each email in the outbox and return without waiting for
+     * SendGrid. The outbox delivers stored emails using {@link #sendPayload(byte[])} once it has been started.
+     */
+    public void setOutbox(MailOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets a circuit breaker which stops sending to SendGrid while it is failing or slow, diverting emails to the
+     * breaker's fallbacks or failing fast with a {@link CircuitOpenException}
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets a pool of direct buffers which attachments are rendered into when the transport streams requests, so large
+     * attachments are held off heap and their memory is reused
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public ParallelRenderer getParallelRenderer() {
+        return parallelRenderer;
+    }
+
+    /**
+     * Setting a parallel renderer renders the body and attachments of each email concurrently
+     */
+    public void setParallelRenderer(ParallelRenderer parallelRenderer) {
+        this.parallelRenderer = parallelRenderer;
+    }
+
+    public DuplicateSuppressor getDuplicateSuppressor() {
+        return duplicateSuppressor;
+    }
+
+    /**
+     * Setting a duplicate suppressor enables {@link #sendOnce(String, MailBuilder)}, and if it matches content, drops
+     * any email identical to one sent within its window
+     */
+    public void setDuplicateSuppressor(DuplicateSuppressor duplicateSuppressor) {
+        this.duplicateSuppressor = duplicateSuppressor;
+    }
+
+    public SuppressionIndex getSuppressionIndex() {
+        return suppressionIndex;
+    }
+
+    /**
+     * Setting a suppression index drops suppressed recipients before an email is rendered. An email with no
+     * unsuppressed to address is not sent at all.
+     */
+    public void setSuppressionIndex(SuppressionIndex suppressionIndex) {
+        this.suppressionIndex = suppressionIndex;
+    }
+
+    protected RequestContainer getRequestContainer() {
+        return requestContainer;
+    }
+
+    public SendGridMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Setting metrics records the latency of rendering, encoding, serializing and sending emails, along with payload
+     * sizes, response statuses and requests in flight. By default measurements are discarded.
+     */
+    public synchronized void setMetrics(SendGridMetrics metrics) {
+        this.metrics = metrics == null ? SendGridMetrics.NoOp : metrics;
+        if (transport != null) {
+            transport.setMetrics(this.metrics);
+        }
+    }
+
+    /**
+     * Prepares for the first send, so that it is as fast as those which follow. A sample email with an attachment is
+     * built and serialized, and the transport is warmed up, which may resolve the SendGrid host and open up to the
+     * given number of connections. Nothing is sent.
+     */
+    public void warmUp(int connections) {
+        long start = System.nanoTime();
+        MailTransport transport = getTransport();
+        Mail sample = createMail();
+        sample.setFrom(email("warm-up@example.com", null));
+        sample.setSubject("Warm up");
+        sample.addContent(new Content(ContentType.TextHtml.value(), "<p>Warm up</p>"));
+        Attachments attachments = transport.isStreaming() ? new StreamingAttachments(new byte[64]) : new Attachments();
+        if (!transport.isStreaming()) {
+            attachments.setContent(new Encoder(new byte[64]).base64()
+                                                            .string());
+        }
+        attachments.setFilename("warm-up.txt");
+        attachments.setType(ContentType.TextPlain.value());
+        attach(sample, attachments);
+        sample.addPersonalization(personalization(new Recipient("warm-up@example.com")));
+        try {
+            transport.warmUp(sample, connections);
+        } catch (IOException e) {
+            throw new MailException(e, "Failed to warm up Sendgrid: %s", e.getMessage());
+        }
+        if (duplicateSuppressor != null && duplicateSuppressor.isMatchContent()) {
+            DuplicateSuppressor.fingerprint(sample);
+        }
+        Logger.info("Warmed up Sendgrid in %sms", (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * While the circuit breaker refuses sends, sends through its fallback mailer if it has one
+     */
+    @Override
+    public void send(MailBuilder mailBuilder) {
+        if (!sendThroughFallback(mailBuilder)) {
+            super.send(mailBuilder);
+        }
+    }
+
+    /**
+     * Sends the given emails through a {@link MailPipeline} with its default settings, returning once they have all
+     * been sent or failed
+     */
+    public StreamSendResult sendStream(Stream<? extends MailBuilder> messages) {
+        return new MailPipeline(this).send(messages);
+    }
+
+    public StreamSendResult sendStream(Iterator<? extends MailBuilder> messages) {
+        return new MailPipeline(this).send(messages);
+    }
+
+    /**
+     * @return true if the circuit breaker refuses sends and the email was sent through its fallback mailer
+     */
+    protected boolean sendThroughFallback(MailBuilder mailBuilder) {
+        Mailer fallback = circuitBreaker == null ? null : circuitBreaker.getFallback();
+        if (fallback == null || !circuitBreaker.wouldRefuse()) {
+            return false;
+        }
+        Logger.warn("Sendgrid circuit is open, sending email through %s", fallback.getClass().getSimpleName());
+        fallback.send(mailBuilder);
+        return true;
+    }
+
+    /**
+     * Sends the given email unless an email with the same idempotency key has been sent within the duplicate
+     * suppressor's window. The email is neither rendered nor sent when it is a duplicate. If sending fails the key is
+     * forgotten, so that a retry can send it.
+     * 
+     * @return true if the email was sent, false if it was dropped as a duplicate
+     */
+    public boolean sendOnce(String idempotencyKey, MailBuilder mailBuilder) {
+        if (duplicateSuppressor == null) {
+            throw new MailException("No duplicate suppressor has been set, emails cannot be sent once");
+        }
+        long fingerprint = DuplicateSuppressor.fingerprint(idempotencyKey);
+        if (!duplicateSuppressor.claim(fingerprint)) {
+            Logger.info("Not sending duplicate email '%s' through Sendgrid", idempotencyKey);
+            return false;
+        }
+        Runnable forget = () -> duplicateSuppressor.forget(fingerprint);
+        try {
+            if (!sendThroughFallback(mailBuilder)) {
+                Mail mail = prepare(mailBuilder);
+                if (mail != null) {
+                    send(mail, executor == null, forget);
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            forget.run();
+            throw e;
+        }
+    }
+
     @Override
     protected void sendInternal(Entry<String, String> from, Entry<String, String> replyTo, Map<String, String> to, Map<String, String> cc, Map<String, String> bcc, String subject, Object body,
             List<Attachment> attachments) {
-        Mail mail = createMail();
-        mail.setSubject(subject);
-        mail.setFrom(email(from));
+        Mail mail = prepare(from, replyTo, to, cc, bcc, subject, body, attachments);
+        if (mail != null) {
+            send(mail);
+        }
+    }
+
+    /**
+     * Validates and renders the given email, ready to be sent
+     * 
+     * @return the email, or null if every to address is suppressed
+     */
+    protected Mail prepare(MailBuilder mailBuilder) {
+        validateFrom(mailBuilder.from());
+        validateRecipients(mailBuilder.to(), mailBuilder.cc(), mailBuilder.bcc());
+        return prepare(mailBuilder.from(), mailBuilder.replyTo(), mailBuilder.to(), mailBuilder.cc(), mailBuilder.bcc(), mailBuilder.subject(), mailBuilder.body(), mailBuilder.attachments());
+    }
+
+    protected Mail prepare(Entry<String, String> from, Entry<String, String> replyTo, Map<String, String> to, Map<String, String> cc, Map<String, String> bcc, String subject, Object body,
+            List<Attachment> attachments) {
+        if (suppressionIndex != null) {
+            to = unsuppressed(to);
+            cc = unsuppressed(cc);
+            bcc = unsuppressed(bcc);
+            if (to.isEmpty()) {
+                Logger.info("Not sending email '%s' through Sendgrid, every to address is suppressed", subject);
+                return null;
+            }
+        }
+        Mail mail = createMail(from, replyTo, subject, body, attachments);
 
         Personalization personalization = new Personalization();
         mail.addPersonalization(personalization);
 
-        addReplyTo(replyTo, mail);
-        addBody(body, mail);
         addTo(to, personalization);
         addCc(cc, personalization);
         addBcc(bcc, personalization);
-        addAttachments(attachments, mail);
-        send(mail);
+        return mail;
+    }
+
+    /**
+     * Sends the same subject, body and attachments to every recipient of the given {@link BulkMail}. The body and
+     * attachments are rendered once, and recipients are packed {@value #MaxPersonalizations} to a request with each
+     * recipient in their own personalization. Requests are sent in parallel using {@link #sendAsync(Mail)}, this method
+     * returns once they have all completed.
+     */
+    public BulkSendResult sendBulk(BulkMail bulk) {
+        validateFrom(bulk.from());
+        if (bulk.recipients().isEmpty()) {
+            throw new MailException("No recipients have been set for this bulk email");
+        }
+        List<Recipient> recipients = unsuppressed(bulk.recipients());
+        if (recipients.isEmpty()) {
+            return suppressed(new BulkSendResult(), bulk.recipients(), recipients);
+        }
+        Mail template = createMail(bulk.from(), bulk.replyTo(), bulk.subject(), bulk.body(), bulk.attachments());
+        return suppressed(sendBatches(template, recipients, "bulk"), bulk.recipients(), recipients);
+    }
+
+    /**
+     * Sends a SendGrid template to every recipient of the given {@link TemplateMail}, each with their own template data.
+     * Nothing is rendered locally. Recipients are packed {@value #MaxPersonalizations} to a request and sent in
+     * parallel like {@link #sendBulk(BulkMail)}.
+     */
+    public BulkSendResult sendTemplate(TemplateMail templateMail) {
+        if (StringUtils.isBlank(templateMail.templateId())) {
+            throw new MailException("No template id has been set for this template email");
+        }
+        validateFrom(templateMail.from());
+        if (templateMail.recipients().isEmpty()) {
+            throw new MailException("No recipients have been set for this template email");
+        }
+        List<Recipient> recipients = unsuppressed(templateMail.recipients());
+        if (recipients.isEmpty()) {
+            return suppressed(new BulkSendResult(), templateMail.recipients(), recipients);
+        }
+        Mail template = createMail();
+        template.setTemplateId(templateMail.templateId());
+        template.setFrom(email(templateMail.from()));
+        template.setSubject(templateMail.subject());
+        addReplyTo(templateMail.replyTo(), template);
+        return suppressed(sendBatches(template, recipients, "template"), templateMail.recipients(), recipients);
+    }
+
+    /**
+     * @return the given receivers other than those whose address is suppressed
+     */
+    protected Map<String, String> unsuppressed(Map<String, String> receivers) {
+        if (suppressionIndex == null || receivers.isEmpty()) {
+            return receivers;
+        }
+        Map<String, String> unsuppressed = new LinkedHashMap<>();
+        for (Map.Entry<String, String> receiver : receivers.entrySet()) {
+            if (!suppressionIndex.contains(receiver.getKey())) {
+                unsuppressed.put(receiver.getKey(), receiver.getValue());
+            }
+        }
+        return unsuppressed;
+    }
+
+    protected List<Recipient> unsuppressed(List<Recipient> recipients) {
+        if (suppressionIndex == null) {
+            return recipients;
+        }
+        List<Recipient> unsuppressed = new ArrayList<>(recipients.size());
+        for (Recipient recipient : recipients) {
+            if (!suppressionIndex.contains(recipient.getEmail())) {
+                unsuppressed.add(recipient);
+            }
+        }
+        return unsuppressed;
+    }
+
+    private BulkSendResult suppressed(BulkSendResult result, List<Recipient> recipients, List<Recipient> unsuppressed) {
+        result.suppressed(recipients.size() - unsuppressed.size());
+        return result;
+    }
+
+    /**
+     * Sends a copy of the given email to each batch of recipients, in parallel, and waits for them all
+     */
+    protected BulkSendResult sendBatches(Mail template, List<Recipient> recipients, String description) {
+        List<List<Recipient>> batches = new ArrayList<>();
+        List<CompletableFuture<Response>> responses = new ArrayList<>();
+        for (int i = 0; i < recipients.size(); i += MaxPersonalizations) {
+            List<Recipient> batch = recipients.subList(i, Math.min(i + MaxPersonalizations, recipients.size()));
+            Mail mail = copyMail(template);
+            for (Recipient recipient : batch) {
+                mail.addPersonalization(personalization(recipient));
+            }
+            batches.add(batch);
+            responses.add(sendAsync(mail));
+        }
+        release(template);
+
+        BulkSendResult result = new BulkSendResult();
+        for (int i = 0; i < batches.size(); i++) {
+            List<Recipient> batch = batches.get(i);
+            try {
+                responses.get(i).join();
+                result.success(batch.size());
+            } catch (CompletionException e) {
+                Logger.error(e.getCause(), "Failed to send %s email to %s recipients through Sendgrid: %s", description, batch.size(), e.getCause().getMessage());
+                result.failure(batch, e.getCause());
+            }
+        }
+        return result;
+    }
+
+    protected Mail createMail(Entry<String, String> from, Entry<String, String> replyTo, String subject, Object body, List<Attachment> attachments) {
+        Mail mail = createMail();
+        mail.setSubject(subject);
+        mail.setFrom(email(from));
+
+        addReplyTo(replyTo, mail);
+        if (parallelRenderer != null && !attachments.isEmpty()) {
+            addRenderedInParallel(body, attachments, mail);
+        } else {
+            addBody(body, mail);
+            addAttachments(attachments, mail);
+        }
+        return mail;
+    }
+
+    /**
+     * Renders the body and attachments concurrently using the parallel renderer, then adds them in order. Once every
+     * render has finished, the failure of the body, or otherwise of the first failed attachment, is thrown just as if
+     * they had been rendered one after another.
+     */
+    protected void addRenderedInParallel(final Object body, List<Attachment> attachments, Mail email) {
+        if (body == null) {
+            throw new MailException("No email body supplied");
+        }
+        CompletableFuture<Content> content = parallelRenderer.submit(() -> renderBody(body), requestContainer);
+        List<CompletableFuture<Attachments>> rendered = new ArrayList<>();
+        for (final Attachment attachment : attachments) {
+            rendered.add(parallelRenderer.submit(() -> {
+                try {
+                    return renderAttachment(attachment);
+                } catch (Exception e) {
+                    throw attachmentFailure(attachment, e);
+                }
+            }, requestContainer));
+        }
+
+        RuntimeException failure = null;
+        Content renderedContent = null;
+        List<Attachments> renderedAttachments = new ArrayList<>();
+        try {
+            renderedContent = content.join();
+        } catch (CompletionException e) {
+            failure = renderFailure(e);
+        }
+        for (CompletableFuture<Attachments> future : rendered) {
+            try {
+                renderedAttachments.add(future.join());
+            } catch (CompletionException e) {
+                failure = failure == null ? renderFailure(e) : failure;
+            }
+        }
+        if (failure != null) {
+            for (Attachments attachment : renderedAttachments) {
+                if (attachment instanceof StreamingAttachments) {
+                    ((StreamingAttachments) attachment).release();
+                }
+            }
+            throw failure;
+        }
+        email.addContent(renderedContent);
+        for (Attachments attachment : renderedAttachments) {
+            attach(email, attachment);
+        }
+    }
+
+    protected RuntimeException renderFailure(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new MailException(cause, "Failed to render SendGrid email: %s", cause.getMessage());
+    }
+
+    /**
+     * @return a new {@link Mail} sharing the sender, subject, content and attachments of the given mail, but with no
+     *         personalizations
+     */
+    protected Mail copyMail(Mail template) {
+        Mail mail = createMail();
+        mail.setFrom(template.from);
+        mail.setSubject(template.getSubject());
+        mail.setTemplateId(template.getTemplateId());
+        if (template.getReplyto() != null) {
+            mail.setReplyTo(template.getReplyto());
+        }
+        if (template.getContent() != null) {
+            for (Content content : template.getContent()) {
+                mail.addContent(content);
+            }
+        }
+        if (template.getAttachments() != null) {
+            for (Attachments attachments : template.getAttachments()) {
+                attach(mail, attachments instanceof StreamingAttachments ? ((StreamingAttachments) attachments).retain() : attachments);
+            }
+        }
+        return mail;
+    }
+
+    protected Personalization personalization(Recipient recipient) {
+        Personalization personalization = new Personalization();
+        if (!recipient.getTemplateData().isEmpty()) {
+            TemplatePersonalization templatePersonalization = new TemplatePersonalization();
+            templatePersonalization.addTemplateData(recipient.getTemplateData());
+            personalization = templatePersonalization;
+        }
+        personalization.addTo(email(recipient.getEmail(), recipient.getName()));
+        for (Map.Entry<String, String> substitution : recipient.getSubstitutions().entrySet()) {
+            personalization.addSubstitution(substitution.getKey(), substitution.getValue());
+        }
+        return personalization;
     }
 
     protected void send(Mail email) {
+        send(email, executor == null);
+    }
+
+    /**
+     * @param await if true, wait for SendGrid to accept the email even if an executor has been set
+     * @return false if the email was dropped as a duplicate
+     */
+    protected boolean send(Mail email, boolean await) {
+        return send(email, await, () -> {
+        });
+    }
+
+    /**
+     * @param onFailure run if the email could not be sent, whether the failure is thrown or reported asynchronously
+     */
+    protected boolean send(Mail email, boolean await, Runnable onFailure) {
+        if (duplicateSuppressor == null || !duplicateSuppressor.isMatchContent()) {
+            submit(email, await, onFailure);
+            return true;
+        }
+        long fingerprint = DuplicateSuppressor.fingerprint(email);
+        if (!duplicateSuppressor.claim(fingerprint)) {
+            Logger.info("Not sending duplicate email '%s' through Sendgrid", email.getSubject());
+            release(email);
+            return false;
+        }
+        submit(email, await, () -> {
+            duplicateSuppressor.forget(fingerprint);
+            onFailure.run();
+        });
+        return true;
+    }
+
+    /**
+     * Stores, queues or sends the given email
+     * 
+     * @param await if true, wait for SendGrid to accept the email rather than reporting failures asynchronously
+     * @param onFailure run if the email could not be sent, whether the failure is thrown or reported asynchronously
+     */
+    protected void submit(Mail email, boolean await, Runnable onFailure) {
         try {
-            Request request = new Request();
-            request.method = Method.POST;
-            request.endpoint = "mail/send";
-            request.body = email.build();
-            Response response = sendgrid.api(request);
-            Logger.info("Sendgrid response: %s %s", response.statusCode, response.body);
-            if (!StatusCode.OK.isInFamily(response.statusCode)) {
-                throw new MailException("Failed to send email through Sendgrid (%s): %s", response.statusCode, response.body);
+            if (outbox != null) {
+                store(outbox, email);
+                return;
+            }
+            if (circuitBreaker != null && circuitBreaker.getFallbackOutbox() != null && circuitBreaker.wouldRefuse()) {
+                store(circuitBreaker.getFallbackOutbox(), email);
+                return;
+            }
+            if ((await || executor == null) && coalescer == null) {
+                dispatch(email);
+                return;
+            }
+            CompletableFuture<Response> response = coalescer == null ? sendAsync(email) : coalescer.submit(email, this::sendAsync);
+            if (await) {
+                await(response);
+            } else {
+                response.whenComplete((result, e) -> {
+                    if (e != null) {
+                        onFailure.run();
+                        Logger.error(e, "Failed to send email through Sendgrid: %s", e.getMessage());
+                    }
+                });
             }
+        } catch (RuntimeException e) {
+            onFailure.run();
+            throw e;
+        }
+    }
+
+    protected void store(MailOutbox outbox, Mail email) {
+        try {
+            outbox.append(email.build()
+                               .getBytes(StandardCharsets.UTF_8));
         } catch (IOException e) {
-            throw new MailException("Failed to send email through Sendgrid: %s", e.getMessage());
+            throw new MailException(e, "Failed to store email in the Sendgrid outbox: %s", e.getMessage());
+        } finally {
+            release(email);
+        }
+    }
+
+    /**
+     * Sends the given email without blocking the caller, other than to wait for an in flight slot on the executor.
+     * 
+     * @return a future completed with the SendGrid response, or completed exceptionally with a {@link MailException}
+     */
+    public CompletableFuture<Response> sendAsync(final Mail email) {
+        return asyncExecutor().submit(() -> dispatch(email));
+    }
+
+    protected Response dispatch(final Mail email) {
+        try {
+            return dispatch(Request.of(() -> getTransport().send(email), MailEntity.estimateLength(email)));
+        } finally {
+            release(email);
+        }
+    }
+
+    /**
+     * Returns the pooled buffers of the given email's attachments once it will not be sent again
+     */
+    protected void release(Mail email) {
+        if (email.getAttachments() != null) {
+            for (Attachments attachments : email.getAttachments()) {
+                if (attachments instanceof StreamingAttachments) {
+                    ((StreamingAttachments) attachments).release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a request body which has already been serialized, applying the rate limiter and retry policy like any other
+     * send. This is how a {@link MailOutbox} delivers the emails it has stored.
+     * 
+     * @throws SendGridException if SendGrid did not accept the email
+     */
+    public Response sendPayload(final byte[] payload) {
+        return dispatch(Request.of(() -> getTransport().send(payload), payload.length));
+    }
+
+    protected Response dispatch(Request request) {
+        if (circuitBreaker == null) {
+            return deliver(request);
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            throw new CircuitOpenException("Not sending email through Sendgrid while the circuit is open");
+        }
+        AtomicLong sendNanos = new AtomicLong();
+        boolean failed = false;
+        try {
+            return deliver(request, sendNanos);
+        } catch (SendGridException e) {
+            failed = e.isTransient();
+            throw e;
+        } finally {
+            circuitBreaker.record(failed, sendNanos.get());
+        }
+    }
+
+    protected Response deliver(Request request) {
+        return deliver(request, new AtomicLong());
+    }
+
+    /**
+     * @param sendNanos accumulates the time spent waiting on SendGrid, leaving out rate limiter waits and retry
+     *            back-off
+     */
+    protected Response deliver(Request request, AtomicLong sendNanos) {
+        metrics.incrementInFlight();
+        try {
+            for (int retries = 0;; retries++) {
+                if (rateLimiter != null) {
+                    rateLimiter.acquire();
+                }
+                Response response = attempt(request, sendNanos);
+                if (rateLimiter != null) {
+                    rateLimiter.update(response);
+                }
+                if (StatusCode.OK.isInFamily(response.statusCode)) {
+                    return response;
+                }
+                if (retryPolicy == null || !retryPolicy.shouldRetry(response, retries)) {
+                    throw new SendGridException(response.statusCode, "Failed to send email through Sendgrid (%s): %s", response.statusCode, response.body);
+                }
+                long delay = retryPolicy.delay(response, retries);
+                Logger.warn("Sendgrid responded %s, retrying in %sms", response.statusCode, delay);
+                sleep(delay);
+            }
+        } finally {
+            metrics.decrementInFlight();
+        }
+    }
+
+    protected Response attempt(Request request, AtomicLong sendNanos) {
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiter;
+        long acquired = limiter == null ? 0 : limiter.acquire();
+        long start = System.nanoTime();
+        int status = SendGridException.NoResponse;
+        try {
+            Response response = request.send();
+            status = response.statusCode;
+            metrics.recordLatency(Stage.Send, System.nanoTime() - start);
+            metrics.recordStatus(response.statusCode);
+            Logger.info("Sendgrid response: %s %s", response.statusCode, response.body);
+            return response;
+        } catch (IOException e) {
+            metrics.recordLatency(Stage.Send, System.nanoTime() - start);
+            metrics.recordStatus(SendGridException.NoResponse);
+            throw new SendGridException(e, "Failed to send email through Sendgrid: %s", e.getMessage());
+        } finally {
+            sendNanos.addAndGet(System.nanoTime() - start);
+            if (limiter != null) {
+                limiter.release(acquired, SendGridException.isTransient(status), request.payloadBytes());
+            }
+        }
+    }
+
+    protected void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailException("Interrupted while waiting to retry email through Sendgrid");
         }
     }
 
@@ -96,12 +909,16 @@ public class SendGridMailer extends BaseMailer {
         if (body == null) {
             throw new MailException("No email body supplied");
         }
-        InMemoryResponse renderedResult = render(body);
+        email.addContent(renderBody(body));
+    }
+
+    protected Content renderBody(Object body) {
+        RenderedContent renderedResult = renderContent(body);
         String content = renderedResult.getBodyAsString();
         String contentType = ContentType.cleanContentType(renderedResult.getContentTypeString());
         contentType = StringUtils.isBlank(contentType) ? ContentType.TextHtml.value() : contentType;
 
-        email.addContent(new Content(contentType, content));
+        return new Content(contentType, content);
     }
 
     protected void addReplyTo(Entry<String, String> replyTo, Mail email) {
@@ -110,9 +927,18 @@ public class SendGridMailer extends BaseMailer {
         }
     }
 
+    /**
+     * Adds each attachment in turn. If one fails, the email will not be sent, so the pooled buffers of those already
+     * added are released.
+     */
     protected void addAttachments(List<Attachment> attachments, Mail email) {
-        for (Attachment attachment : attachments) {
-            addAttachment(email, attachment);
+        try {
+            for (Attachment attachment : attachments) {
+                addAttachment(email, attachment);
+            }
+        } catch (RuntimeException e) {
+            release(email);
+            throw e;
         }
     }
 
@@ -136,20 +962,137 @@ public class SendGridMailer extends BaseMailer {
 
     protected void addAttachment(Mail email, Attachment attachment) {
         try {
-            InMemoryResponse renderedAttachment = render(attachment.view());
-            Attachments attachments = new Attachments();
-            // SendGrid handles wrapping the name in content id tags - (< and >) for us
-            attachments.setContentId(attachment.name());
-            attachments.setDisposition(attachment.disposition()
-                                                 .value());
-            attachments.setFilename(attachment.name());
-            attachments.setContent(new Encoder(renderedAttachment.getBodyAsBytes()).base64()
-                                                                                   .string());
-            attachments.setType(renderedAttachment.getContentTypeString());
-            email.addAttachments(attachments);
+            attach(email, renderAttachment(attachment));
         } catch (Exception e) {
-            throw new MailException(e, "Failed to add attachment '%s' to SendGrid email: %s", attachment.name(), e.getMessage());
+            throw attachmentFailure(attachment, e);
+        }
+    }
+
+    /**
+     * Renders the given attachment, ready to be added to an email
+     */
+    protected Attachments renderAttachment(Attachment attachment) {
+        Attachments attachments = createAttachments(attachment.view());
+        // SendGrid handles wrapping the name in content id tags - (< and >) for us
+        attachments.setContentId(attachment.name());
+        attachments.setDisposition(attachment.disposition()
+                                             .value());
+        attachments.setFilename(attachment.name());
+        return attachments;
+    }
+
+    protected MailException attachmentFailure(Attachment attachment, Exception e) {
+        return new MailException(e, "Failed to add attachment '%s' to SendGrid email: %s", attachment.name(), e.getMessage());
+    }
+
+    /**
+     * Renders the given view, using the render cache if one is set and the view supplies a cache key
+     */
+    protected RenderedContent renderContent(Object view) {
+        String cacheKey = renderCache == null || !(view instanceof CacheableView) ? null : ((CacheableView) view).cacheKey();
+        Object target = view instanceof CachedView ? ((CachedView) view).view() : view;
+        if (cacheKey == null) {
+            return renderUncached(target);
+        }
+        RenderedContent content = renderCache.get(cacheKey);
+        if (content == null) {
+            content = renderUncached(target);
+            renderCache.put(cacheKey, content);
+        }
+        return content;
+    }
+
+    protected RenderedContent renderUncached(Object view) {
+        long start = System.nanoTime();
+        RenderedContent content = RenderedContent.from(render(view));
+        metrics.recordLatency(Stage.Render, System.nanoTime() - start);
+        return content;
+    }
+
+    /**
+     * Renders the given view like {@link #render(Object)}, but into a buffer from the buffer pool
+     */
+    protected PooledResponse renderPooled(Object view) {
+        PooledResponse response = new PooledResponse(getTransformerManager(), bufferPool);
+        try {
+            viewResolverRegistry.resolve(requestContainer.getRequest(), response, view);
+            return response;
+        } catch (Exception e) {
+            response.release();
+            throw new MailException(e, "Failed to render email part: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * {@link Mail#addAttachments(Attachments)} adds a copy of the given attachments, which would encode the content of
+     * {@link StreamingAttachments}, so they are added as is.
+     */
+    protected void attach(Mail email, Attachments attachments) {
+        if (attachments instanceof StreamingAttachments) {
+            if (email.attachments == null) {
+                email.attachments = new ArrayList<>();
+            }
+            email.attachments.add(attachments);
+        } else {
+            email.addAttachments(attachments);
+        }
+    }
+
+    /**
+     * Renders the given attachment view. When the transport streams requests and there is no attachment cache, the
+     * rendered content is held as is and encoded as the request is written.
+     */
+    protected Attachments createAttachments(Object view) {
+        if (attachmentCache == null && getTransport().isStreaming() && bufferPool != null && !(renderCache != null && view instanceof CacheableView)) {
+            Object target = view instanceof CachedView ? ((CachedView) view).view() : view;
+            long start = System.nanoTime();
+            PooledResponse rendered = renderPooled(target);
+            metrics.recordLatency(Stage.Render, System.nanoTime() - start);
+            StreamingAttachments attachments = new StreamingAttachments(rendered.detachBody(), bufferPool);
+            attachments.setType(rendered.getContentTypeString());
+            metrics.recordAttachmentBytes((attachments.getLength() + 2) / 3 * 4L);
+            return attachments;
+        }
+        if (attachmentCache == null && getTransport().isStreaming()) {
+            RenderedContent rendered = renderContent(view);
+            Attachments attachments = new StreamingAttachments(rendered.getBodyAsBytes());
+            attachments.setType(rendered.getContentTypeString());
+            metrics.recordAttachmentBytes((rendered.getBodyAsBytes().length + 2) / 3 * 4L);
+            return attachments;
+        }
+        EncodedAttachment encoded = encodeAttachment(view);
+        metrics.recordAttachmentBytes(encoded.getContent()
+                                             .length());
+        Attachments attachments = new Attachments();
+        attachments.setContent(encoded.getContent());
+        attachments.setType(encoded.getContentType());
+        return attachments;
+    }
+
+    /**
+     * Renders and base64 encodes the given attachment view, using the attachment cache if one is set
+     */
+    protected EncodedAttachment encodeAttachment(Object view) {
+        if (attachmentCache == null) {
+            RenderedContent rendered = renderContent(view);
+            long start = System.nanoTime();
+            String content = new Encoder(rendered.getBodyAsBytes()).base64()
+                                                                   .string();
+            metrics.recordLatency(Stage.Attachment, System.nanoTime() - start);
+            return new EncodedAttachment(content, rendered.getContentTypeString());
         }
+        String viewKey = view instanceof CacheableView ? ((CacheableView) view).cacheKey() : null;
+        EncodedAttachment encoded = viewKey == null ? null : attachmentCache.get(viewKey);
+        if (encoded == null) {
+            RenderedContent rendered = renderContent(view);
+            long start = System.nanoTime();
+            encoded = attachmentCache.encode(rendered);
+            metrics.recordLatency(Stage.Attachment, System.nanoTime() - start);
+            if (viewKey != null) {
+                attachmentCache.put(viewKey, encoded);
+            }
+        }
+        return encoded;
     }
 
     protected String determineName(Map.Entry<String, String> receiver) {
@@ -160,7 +1103,77 @@ public class SendGridMailer extends BaseMailer {
         return new Email(receiver.getKey(), determineName(receiver));
     }
 
+    protected Email email(String address, String name) {
+        return new Email(address, StringUtils.isBlank(name) ? address : name);
+    }
+
     protected Mail createMail() {
         return new Mail();
     }
+
+    protected Response await(CompletableFuture<Response> response) {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MailException) {
+                throw (MailException) cause;
+            }
+            throw new MailException(cause, "Failed to send email through Sendgrid: %s", cause.getMessage());
+        }
+    }
+
+    protected SendGridExecutor asyncExecutor() {
+        if (executor != null) {
+            return executor;
+        }
+        SendGridExecutor async = defaultExecutor;
+        if (async == null) {
+            synchronized (this) {
+                async = defaultExecutor;
+                if (async == null) {
+                    defaultExecutor = async = createdExecutor = new SendGridExecutor();
+                }
+            }
+        }
+        return async;
+    }
+
+    /**
+     * Waits for in flight asynchronous sends and stops the executor this mailer created for them, if it created one.
+     * Executors which were set on the mailer are left to their owners.
+     */
+    public synchronized void shutdown() {
+        if (createdExecutor != null) {
+            createdExecutor.shutdown();
+        }
+    }
+
+    /**
+     * A single attempt to send a request through the transport
+     */
+    protected interface Request {
+        Response send() throws IOException;
+
+        /**
+         * @return the size of the request body in bytes, or 0 if it is not known
+         */
+        default long payloadBytes() {
+            return 0;
+        }
+
+        static Request of(Request request, long payloadBytes) {
+            return new Request() {
+                @Override
+                public Response send() throws IOException {
+                    return request.send();
+                }
+
+                @Override
+                public long payloadBytes() {
+                    return payloadBytes;
+                }
+            };
+        }
+    }
 }
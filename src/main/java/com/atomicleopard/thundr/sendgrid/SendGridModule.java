@@ -17,10 +17,46 @@
  */
 package com.atomicleopard.thundr.sendgrid;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+import com.atomicleopard.thundr.sendgrid.buffer.BufferPool;
+import com.atomicleopard.thundr.sendgrid.cache.AttachmentCache;
+import com.atomicleopard.thundr.sendgrid.cache.LruRenderCache;
+import com.atomicleopard.thundr.sendgrid.cache.RenderCache;
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitBreaker;
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitBreakerConfig;
+import com.atomicleopard.thundr.sendgrid.dedupe.DuplicateSuppressor;
+import com.atomicleopard.thundr.sendgrid.metrics.InMemoryMetrics;
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.atomicleopard.thundr.sendgrid.outbox.MailOutbox;
+import com.atomicleopard.thundr.sendgrid.ratelimit.AdaptiveConcurrencyLimiter;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimiter;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RetryPolicy;
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionIndex;
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionRefresher;
+import com.atomicleopard.thundr.sendgrid.transport.HttpPoolConfig;
+import com.atomicleopard.thundr.sendgrid.transport.MailTransport;
+import com.atomicleopard.thundr.sendgrid.transport.PooledHttpTransport;
+import com.atomicleopard.thundr.sendgrid.transport.SendGridApiTransport;
+import com.atomicleopard.thundr.sendgrid.transport.Shard;
+import com.atomicleopard.thundr.sendgrid.transport.ShardedTransport;
+import com.atomicleopard.thundr.sendgrid.transport.ShardedTransport.Routing;
+import com.atomicleopard.thundr.sendgrid.transport.StreamingHttpTransport;
+import com.atomicleopard.thundr.sendgrid.webhook.SendGridEventDispatcher;
+import com.atomicleopard.thundr.sendgrid.webhook.SendGridWebhookController;
+import com.atomicleopard.thundr.sendgrid.webhook.SuppressionListener;
 import com.threewks.thundr.injection.BaseModule;
+import com.threewks.thundr.injection.InjectionContext;
 import com.threewks.thundr.injection.UpdatableInjectionContext;
+import com.threewks.thundr.logger.Logger;
 import com.threewks.thundr.mail.Mailer;
 import com.threewks.thundr.module.DependencyRegistry;
+import com.threewks.thundr.route.Router;
 
 /**
  * Module class for thundr-contrib-sendgrid. Add it to the {@link DependencyRegistry} in your ApplicationModule
@@ -39,6 +75,78 @@ import com.threewks.thundr.module.DependencyRegistry;
  * This module provides the following features:
  * <ul>
  * <li>Integration with SendGrid using the SendGrid published java client</li>
+ * <li>Optional fire-and-forget sending, enabled with the property <code>sendgridAsync=true</code>. The number of
+ * concurrent SendGrid calls is capped by <code>sendgridMaxInFlight</code> (default 64)</li>
+ * <li>Optional merging of identical emails sent within a short window into a single SendGrid request, enabled by
+ * setting <code>sendgridCoalesceWindow</code> to the window in milliseconds. Batches are limited to
+ * <code>sendgridCoalesceMaxBatch</code> emails (default 1000)</li>
+ * <li>Optional caching of rendered bodies and attachments which implement
+ * {@link com.atomicleopard.thundr.sendgrid.cache.CacheableView}, enabled by setting <code>sendgridRenderCacheSize</code>
+ * to the cache size in bytes. Entries expire after <code>sendgridRenderCacheTtl</code> milliseconds if set</li>
+ * <li>Optional caching of base64 encoded attachments, enabled by setting <code>sendgridAttachmentCacheSize</code> to the
+ * cache size in bytes</li>
+ * <li>Optional streaming of requests to SendGrid, enabled with <code>sendgridStreaming=true</code>. Requests are written
+ * directly to the connection and attachments are encoded as they are written, rather than building the whole request
+ * in memory</li>
+ * <li>Optional pooling of direct buffers for streamed attachments, enabled by setting <code>sendgridBufferPoolSize</code>
+ * to the maximum number of bytes of idle buffers to keep. Attachments are rendered into these buffers and encoded
+ * from them as the request is written</li>
+ * <li>Optional concurrent rendering of the body and attachments of each email, enabled with
+ * <code>sendgridParallelRendering=true</code>. Views are rendered on the common fork join pool, or on a pool of
+ * <code>sendgridRenderThreads</code> threads if set</li>
+ * <li>Optional gzip compression of request bodies of at least <code>sendgridCompressionThreshold</code> bytes. Bodies
+ * are compressed as they are streamed, so setting this also enables streaming</li>
+ * <li>Optional pooled keep-alive connections to SendGrid, enabled with <code>sendgridHttpPool=true</code>. Pooled
+ * requests are also streamed. The pool holds up to <code>sendgridMaxConnections</code> connections (default 50),
+ * closing those idle for <code>sendgridIdleTimeout</code> milliseconds (default 30000). Requests time out after
+ * <code>sendgridConnectTimeout</code> (default 5000) and <code>sendgridReadTimeout</code> (default 30000)
+ * milliseconds</li>
+ * <li>Optional client side rate limiting, enabled with <code>sendgridRateLimiting=true</code>. Requests are paced to
+ * the limits SendGrid reports in its responses, starting at <code>sendgridRateLimit</code> requests per second if
+ * set. When sharding, each api key is limited separately</li>
+ * <li>Optional adaptive concurrency limiting, enabled with <code>sendgridAdaptiveConcurrency=true</code>. The number of
+ * requests in flight starts at <code>sendgridConcurrencyLimit</code> (default 10) and adapts to SendGrid's latency and
+ * errors, up to <code>sendgridMaxConcurrency</code> (default 200)</li>
+ * <li>Optional retries of rate limited (429) and failed (5xx) requests, enabled by setting <code>sendgridRetries</code>
+ * to the maximum number of retries. Retries back off exponentially from <code>sendgridRetryBaseDelay</code> (default
+ * 100) up to <code>sendgridRetryMaxDelay</code> (default 30000) milliseconds</li>
+ * <li>Optional durable outbox, enabled by setting <code>sendgridOutbox</code> to a directory. Emails are stored in a
+ * journal in that directory and delivered by <code>sendgridOutboxWorkers</code> (default 4) background workers,
+ * including any left undelivered when the application last stopped</li>
+ * <li>Optional in memory metrics, enabled with <code>sendgridMetrics=true</code>, which records the latency of each
+ * stage of sending, payload sizes and response statuses. The {@link InMemoryMetrics} can be retrieved from the
+ * injection context as a {@link SendGridMetrics}</li>
+ * <li>Sending to a SendGrid compatible API other than <code>https://api.sendgrid.com/v3/</code>, such as a local
+ * stand in for load testing, by setting <code>sendgridBaseUrl</code></li>
+ * <li>Optional sharding of sends across several SendGrid accounts or subusers, enabled by setting
+ * <code>sendgridApiKeys</code> to a comma separated list of api keys, each optionally followed by <code>:weight</code>.
+ * Sends are routed by <code>sendgridShardRouting</code>, one of <code>RoundRobin</code> (default),
+ * <code>LeastInFlight</code> or <code>ShardKey</code>. Rate limited or failing keys are taken out of rotation for
+ * <code>sendgridShardCooldown</code> milliseconds (default 30000)</li>
+ * <li>Optional circuit breaker, enabled with <code>sendgridCircuitBreaker=true</code>. Sending stops for
+ * <code>sendgridCircuitOpenDuration</code> milliseconds (default 30000) once <code>sendgridCircuitFailureRate</code>
+ * (default 0.5) of recent sends have failed, or <code>sendgridCircuitSlowCallRate</code> (default 0.5) have taken
+ * longer than <code>sendgridCircuitSlowCall</code> milliseconds (default 5000). Meanwhile emails are stored in
+ * <code>sendgridCircuitOutbox</code> if it is set to a directory, otherwise sending fails fast. A fallback
+ * {@link Mailer} can be set on the {@link CircuitBreaker}</li>
+ * <li>Optional warm up when the application starts, enabled with <code>sendgridWarmUp=true</code>. In the background, a
+ * sample email is serialized, the SendGrid host is resolved and, for pooled connections, up to
+ * <code>sendgridWarmUpConnections</code> (default 4) connections are opened, so the first send is as fast as those
+ * which follow. Otherwise the SendGrid client is created when first used</li>
+ * <li>Optional suppression of duplicate emails, enabled by setting <code>sendgridDuplicateWindow</code> to the window in
+ * milliseconds. {@link SendGridMailer#sendOnce(String, com.threewks.thundr.mail.MailBuilder)} drops emails whose key
+ * was sent within the window, and with <code>sendgridDuplicateMatchContent=true</code> every email identical to one
+ * sent within the window is dropped. At most <code>sendgridDuplicateMaxEntries</code> (default 100000) emails are
+ * remembered</li>
+ * <li>Optional suppression of recipients before emails are rendered, enabled by setting
+ * <code>sendgridSuppressionSnapshot</code> to a file of suppressed addresses, either a CSV export or one written by
+ * {@link SuppressionIndex#save(java.io.File)}, and or <code>sendgridSuppressionChanges</code> to a file of changes
+ * which is applied every <code>sendgridSuppressionRefresh</code> milliseconds (default 60000)</li>
+ * <li>Optional receipt of SendGrid event webhook batches, enabled by setting <code>sendgridWebhookPath</code> to the path
+ * to post them to. Requests must carry <code>sendgridWebhookToken</code> as their <code>token</code> parameter if it is
+ * set. Events are queued, at most <code>sendgridWebhookQueueSize</code> (default 10000) at a time, and handed to the
+ * listeners of the {@link SendGridEventDispatcher} in batches of up to <code>sendgridWebhookBatchSize</code> (default
+ * 500). Bounces, spam reports and unsubscribes are added to the suppression index if there is one</li>
  * </ul>
  * 
  */
@@ -46,7 +154,279 @@ public class SendGridModule extends BaseModule {
 
 	@Override
 	public void configure(UpdatableInjectionContext injectionContext) {
+		int maxInFlight = Integer.parseInt(property(injectionContext, "sendgridMaxInFlight", String.valueOf(SendGridExecutor.DefaultMaxInFlight)));
+		if (Boolean.parseBoolean(property(injectionContext, "sendgridAsync", "false"))) {
+			injectionContext.inject(new SendGridExecutor(maxInFlight)).as(SendGridExecutor.class);
+		} else {
+			// runs the sends which callers wait on, such as coalesced batches, and is shut down with the module
+			injectionContext.inject(new SendGridExecutor(maxInFlight)).named("defaultExecutor").as(SendGridExecutor.class);
+		}
+		String coalesceWindow = property(injectionContext, "sendgridCoalesceWindow", null);
+		if (coalesceWindow != null) {
+			int maxBatch = Integer.parseInt(property(injectionContext, "sendgridCoalesceMaxBatch", String.valueOf(SendGridMailer.MaxPersonalizations)));
+			injectionContext.inject(new MailCoalescer(Long.parseLong(coalesceWindow), maxBatch)).as(MailCoalescer.class);
+		}
+		String renderCacheSize = property(injectionContext, "sendgridRenderCacheSize", null);
+		if (renderCacheSize != null) {
+			long ttl = Long.parseLong(property(injectionContext, "sendgridRenderCacheTtl", "0"));
+			injectionContext.inject(new LruRenderCache(Long.parseLong(renderCacheSize), ttl)).as(RenderCache.class);
+		}
+		String attachmentCacheSize = property(injectionContext, "sendgridAttachmentCacheSize", null);
+		if (attachmentCacheSize != null) {
+			injectionContext.inject(new AttachmentCache(Long.parseLong(attachmentCacheSize))).as(AttachmentCache.class);
+		}
+		if (Boolean.parseBoolean(property(injectionContext, "sendgridAdaptiveConcurrency", "false"))) {
+			int initialLimit = Integer.parseInt(property(injectionContext, "sendgridConcurrencyLimit", String.valueOf(AdaptiveConcurrencyLimiter.DefaultInitialLimit)));
+			int maxLimit = Integer.parseInt(property(injectionContext, "sendgridMaxConcurrency", String.valueOf(AdaptiveConcurrencyLimiter.DefaultMaxLimit)));
+			injectionContext.inject(new AdaptiveConcurrencyLimiter(initialLimit, maxLimit)).as(AdaptiveConcurrencyLimiter.class);
+		}
+		String apiKeys = property(injectionContext, "sendgridApiKeys", null);
+		RateLimiter rateLimiter = rateLimiter(injectionContext);
+		if (rateLimiter != null && apiKeys == null) {
+			// sharded transports limit each api key separately
+			injectionContext.inject(rateLimiter).as(RateLimiter.class);
+		}
+		String retries = property(injectionContext, "sendgridRetries", null);
+		if (retries != null) {
+			long baseDelay = Long.parseLong(property(injectionContext, "sendgridRetryBaseDelay", String.valueOf(RetryPolicy.DefaultBaseDelayMillis)));
+			long maxDelay = Long.parseLong(property(injectionContext, "sendgridRetryMaxDelay", String.valueOf(RetryPolicy.DefaultMaxDelayMillis)));
+			injectionContext.inject(new RetryPolicy(Integer.parseInt(retries), baseDelay, maxDelay)).as(RetryPolicy.class);
+		}
+		if (apiKeys != null) {
+			injectionContext.inject(shardedTransport(injectionContext, apiKeys)).as(MailTransport.class);
+		} else if (customTransport(injectionContext)) {
+			injectionContext.inject(transport(injectionContext, property(injectionContext, "sendgridApiKey", null))).as(MailTransport.class);
+		}
+		String bufferPoolSize = property(injectionContext, "sendgridBufferPoolSize", null);
+		if (bufferPoolSize != null) {
+			injectionContext.inject(new BufferPool(Long.parseLong(bufferPoolSize))).as(BufferPool.class);
+		}
+		if (Boolean.parseBoolean(property(injectionContext, "sendgridParallelRendering", "false"))) {
+			String renderThreads = property(injectionContext, "sendgridRenderThreads", null);
+			injectionContext.inject(renderThreads == null ? new ParallelRenderer() : new ParallelRenderer(Integer.parseInt(renderThreads))).as(ParallelRenderer.class);
+		}
+		String duplicateWindow = property(injectionContext, "sendgridDuplicateWindow", null);
+		if (duplicateWindow != null) {
+			int maxEntries = Integer.parseInt(property(injectionContext, "sendgridDuplicateMaxEntries", String.valueOf(DuplicateSuppressor.DefaultMaxEntries)));
+			boolean matchContent = Boolean.parseBoolean(property(injectionContext, "sendgridDuplicateMatchContent", "false"));
+			injectionContext.inject(new DuplicateSuppressor(Long.parseLong(duplicateWindow), maxEntries).matchContent(matchContent)).as(DuplicateSuppressor.class);
+		}
+		String suppressionSnapshot = property(injectionContext, "sendgridSuppressionSnapshot", null);
+		String suppressionChanges = property(injectionContext, "sendgridSuppressionChanges", null);
+		if (suppressionSnapshot != null || suppressionChanges != null) {
+			SuppressionIndex index = suppressionIndex(suppressionSnapshot);
+			injectionContext.inject(index).as(SuppressionIndex.class);
+			if (suppressionChanges != null) {
+				long interval = Long.parseLong(property(injectionContext, "sendgridSuppressionRefresh", String.valueOf(SuppressionRefresher.DefaultIntervalMillis)));
+				injectionContext.inject(new SuppressionRefresher(index, new File(suppressionChanges), interval)).as(SuppressionRefresher.class);
+			}
+		}
+		if (property(injectionContext, "sendgridWebhookPath", null) != null) {
+			int queueSize = Integer.parseInt(property(injectionContext, "sendgridWebhookQueueSize", String.valueOf(SendGridEventDispatcher.DefaultQueueSize)));
+			int batchSize = Integer.parseInt(property(injectionContext, "sendgridWebhookBatchSize", String.valueOf(SendGridEventDispatcher.DefaultBatchSize)));
+			SendGridEventDispatcher dispatcher = new SendGridEventDispatcher(queueSize, batchSize, SendGridEventDispatcher.DefaultOfferTimeoutMillis);
+			if (injectionContext.contains(SuppressionIndex.class)) {
+				dispatcher.addListener(new SuppressionListener(injectionContext.get(SuppressionIndex.class)));
+			}
+			injectionContext.inject(dispatcher).as(SendGridEventDispatcher.class);
+			String token = property(injectionContext, "sendgridWebhookToken", null);
+			injectionContext.inject(new SendGridWebhookController(dispatcher, token)).as(SendGridWebhookController.class);
+		}
+		if (Boolean.parseBoolean(property(injectionContext, "sendgridMetrics", "false"))) {
+			injectionContext.inject(new InMemoryMetrics()).as(SendGridMetrics.class);
+		}
+		String outbox = property(injectionContext, "sendgridOutbox", null);
+		if (outbox != null) {
+			int workers = Integer.parseInt(property(injectionContext, "sendgridOutboxWorkers", String.valueOf(MailOutbox.DefaultWorkers)));
+			injectionContext.inject(new MailOutbox(new File(outbox), workers)).as(MailOutbox.class);
+		}
+		if (Boolean.parseBoolean(property(injectionContext, "sendgridCircuitBreaker", "false"))) {
+			CircuitBreaker circuitBreaker = new CircuitBreaker(circuitBreakerConfig(injectionContext));
+			String circuitOutbox = property(injectionContext, "sendgridCircuitOutbox", null);
+			if (circuitOutbox != null) {
+				circuitBreaker.setFallbackOutbox(new MailOutbox(new File(circuitOutbox), 1));
+			}
+			injectionContext.inject(circuitBreaker).as(CircuitBreaker.class);
+		}
 		injectionContext.inject(SendGridMailer.class).as(Mailer.class);
 		injectionContext.inject(SendGridMailer.class).as(SendGridMailer.class);
 	}
+
+	@Override
+	public void start(UpdatableInjectionContext injectionContext) {
+		if (injectionContext.contains(MailOutbox.class)) {
+			SendGridMailer mailer = injectionContext.get(SendGridMailer.class);
+			injectionContext.get(MailOutbox.class).start(mailer::sendPayload);
+		}
+		MailOutbox circuitOutbox = circuitOutbox(injectionContext);
+		if (circuitOutbox != null) {
+			circuitOutbox.start(injectionContext.get(SendGridMailer.class)::sendPayload);
+		}
+		if (injectionContext.contains(SuppressionRefresher.class)) {
+			injectionContext.get(SuppressionRefresher.class).start();
+		}
+		if (injectionContext.contains(SendGridEventDispatcher.class)) {
+			injectionContext.get(SendGridEventDispatcher.class).start();
+			String path = property(injectionContext, "sendgridWebhookPath", null);
+			injectionContext.get(Router.class).post(path, SendGridWebhookController.class, "events");
+		}
+		if (Boolean.parseBoolean(property(injectionContext, "sendgridWarmUp", "false"))) {
+			int connections = Integer.parseInt(property(injectionContext, "sendgridWarmUpConnections", String.valueOf(SendGridMailer.DefaultWarmUpConnections)));
+			SendGridMailer mailer = injectionContext.get(SendGridMailer.class);
+			new SendGridExecutor.DaemonThreadFactory("sendgrid-warm-up-").newThread(() -> warmUp(mailer, connections)).start();
+		}
+	}
+
+	/**
+	 * Warms up the mailer off the startup thread, a failure only means the first send is slower
+	 */
+	protected void warmUp(SendGridMailer mailer, int connections) {
+		try {
+			mailer.warmUp(connections);
+		} catch (Exception e) {
+			Logger.warn("Failed to warm up Sendgrid: %s", e.getMessage());
+		}
+	}
+
+	@Override
+	public void stop(InjectionContext injectionContext) {
+		if (injectionContext.contains(MailOutbox.class)) {
+			close(injectionContext.get(MailOutbox.class));
+		}
+		MailOutbox circuitOutbox = circuitOutbox(injectionContext);
+		if (circuitOutbox != null) {
+			close(circuitOutbox);
+		}
+		// pending batches and in flight sends still need the transport, so it is closed once they are done
+		if (injectionContext.contains(MailCoalescer.class)) {
+			injectionContext.get(MailCoalescer.class).shutdown();
+		}
+		if (injectionContext.contains(SendGridExecutor.class)) {
+			injectionContext.get(SendGridExecutor.class).shutdown();
+		}
+		if (injectionContext.contains(SendGridExecutor.class, "defaultExecutor")) {
+			injectionContext.get(SendGridExecutor.class, "defaultExecutor").shutdown();
+		}
+		if (injectionContext.contains(MailTransport.class)) {
+			MailTransport transport = injectionContext.get(MailTransport.class);
+			if (transport instanceof Closeable) {
+				close((Closeable) transport);
+			}
+		}
+		if (injectionContext.contains(SuppressionRefresher.class)) {
+			injectionContext.get(SuppressionRefresher.class).close();
+		}
+		if (injectionContext.contains(SendGridEventDispatcher.class)) {
+			injectionContext.get(SendGridEventDispatcher.class).close();
+		}
+		if (injectionContext.contains(ParallelRenderer.class)) {
+			injectionContext.get(ParallelRenderer.class).shutdown();
+		}
+	}
+
+	protected SuppressionIndex suppressionIndex(String snapshot) {
+		if (snapshot == null || !new File(snapshot).exists()) {
+			if (snapshot != null) {
+				Logger.warn("Sendgrid suppression snapshot %s does not exist, starting with no suppressed addresses", snapshot);
+			}
+			return new SuppressionIndex();
+		}
+		try {
+			SuppressionIndex index = SuppressionIndex.load(new File(snapshot));
+			Logger.info("Loaded %s suppressed addresses from %s", index.size(), snapshot);
+			return index;
+		} catch (IOException e) {
+			throw new IllegalStateException(String.format("Failed to load Sendgrid suppression snapshot %s: %s", snapshot, e.getMessage()), e);
+		}
+	}
+
+	protected void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			Logger.warn("Failed to close %s: %s", closeable.getClass().getSimpleName(), e.getMessage());
+		}
+	}
+
+	protected boolean customTransport(InjectionContext injectionContext) {
+		// @formatter:off
+		return Boolean.parseBoolean(property(injectionContext, "sendgridHttpPool", "false"))
+				|| Boolean.parseBoolean(property(injectionContext, "sendgridStreaming", "false"))
+				|| property(injectionContext, "sendgridCompressionThreshold", null) != null
+				|| property(injectionContext, "sendgridBaseUrl", null) != null;
+		// @formatter:on
+	}
+
+	protected MailTransport transport(InjectionContext injectionContext, String apiKey) {
+		String baseUrl = property(injectionContext, "sendgridBaseUrl", StreamingHttpTransport.DefaultBaseUrl);
+		String compressionThreshold = property(injectionContext, "sendgridCompressionThreshold", null);
+		StreamingHttpTransport transport;
+		if (Boolean.parseBoolean(property(injectionContext, "sendgridHttpPool", "false"))) {
+			transport = new PooledHttpTransport(apiKey, baseUrl, httpPoolConfig(injectionContext));
+		} else if (Boolean.parseBoolean(property(injectionContext, "sendgridStreaming", "false")) || compressionThreshold != null) {
+			transport = new StreamingHttpTransport(apiKey, baseUrl, httpPoolConfig(injectionContext));
+		} else {
+			return new SendGridApiTransport(apiKey, baseUrl);
+		}
+		if (compressionThreshold != null) {
+			transport.setCompressionThreshold(Long.parseLong(compressionThreshold));
+		}
+		return transport;
+	}
+
+	/**
+	 * @param apiKeys comma separated api keys, each optionally followed by <code>:weight</code>
+	 */
+	protected ShardedTransport shardedTransport(InjectionContext injectionContext, String apiKeys) {
+		List<Shard> shards = new ArrayList<>();
+		for (String apiKey : apiKeys.split(",")) {
+			String[] parts = apiKey.trim().split(":");
+			int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+			shards.add(new Shard("shard-" + (shards.size() + 1), transport(injectionContext, parts[0].trim()), weight, rateLimiter(injectionContext)));
+		}
+		Routing routing = Routing.valueOf(property(injectionContext, "sendgridShardRouting", Routing.RoundRobin.name()));
+		long cooldown = Long.parseLong(property(injectionContext, "sendgridShardCooldown", String.valueOf(ShardedTransport.DefaultCooldownMillis)));
+		return new ShardedTransport(shards, routing, cooldown);
+	}
+
+	/**
+	 * @return a new rate limiter if rate limiting is enabled, otherwise null
+	 */
+	protected RateLimiter rateLimiter(InjectionContext injectionContext) {
+		if (!Boolean.parseBoolean(property(injectionContext, "sendgridRateLimiting", "false"))) {
+			return null;
+		}
+		String rateLimit = property(injectionContext, "sendgridRateLimit", null);
+		return rateLimit == null ? new RateLimiter() : new RateLimiter(Double.parseDouble(rateLimit));
+	}
+
+	private MailOutbox circuitOutbox(InjectionContext injectionContext) {
+		return injectionContext.contains(CircuitBreaker.class) ? injectionContext.get(CircuitBreaker.class).getFallbackOutbox() : null;
+	}
+
+	protected CircuitBreakerConfig circuitBreakerConfig(InjectionContext injectionContext) {
+		CircuitBreakerConfig config = new CircuitBreakerConfig();
+		// @formatter:off
+		return config
+				.failureRate(Double.parseDouble(property(injectionContext, "sendgridCircuitFailureRate", String.valueOf(config.failureRate()))))
+				.slowCallRate(Double.parseDouble(property(injectionContext, "sendgridCircuitSlowCallRate", String.valueOf(config.slowCallRate()))))
+				.slowCall(Long.parseLong(property(injectionContext, "sendgridCircuitSlowCall", String.valueOf(config.slowCall()))))
+				.openDuration(Long.parseLong(property(injectionContext, "sendgridCircuitOpenDuration", String.valueOf(config.openDuration()))));
+		// @formatter:on
+	}
+
+	protected HttpPoolConfig httpPoolConfig(InjectionContext injectionContext) {
+		HttpPoolConfig config = new HttpPoolConfig();
+		// @formatter:off
+		return config
+				.maxConnections(Integer.parseInt(property(injectionContext, "sendgridMaxConnections", String.valueOf(config.maxConnections()))))
+				.connectTimeout(Integer.parseInt(property(injectionContext, "sendgridConnectTimeout", String.valueOf(config.connectTimeout()))))
+				.readTimeout(Integer.parseInt(property(injectionContext, "sendgridReadTimeout", String.valueOf(config.readTimeout()))))
+				.idleTimeout(Integer.parseInt(property(injectionContext, "sendgridIdleTimeout", String.valueOf(config.idleTimeout()))));
+		// @formatter:on
+	}
+
+	protected String property(InjectionContext injectionContext, String name, String defaultValue) {
+		return injectionContext.contains(String.class, name) ? injectionContext.get(String.class, name) : defaultValue;
+	}
 }
@@ -0,0 +1,123 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.threewks.thundr.mail.MailBuilder;
+
+/**
+ * The outcome of sending a stream of emails through a {@link MailPipeline}. Each email succeeds or fails on its own.
+ *
+ * Only the first {@link MailPipeline#getMaxFailures()} failures are kept, so that sending millions of emails while
+ * SendGrid is unavailable does not hold millions of emails in memory. Every failure is counted.
+ */
+public class StreamSendResult {
+    private final int maxFailures;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final List<Failure> failures = new ArrayList<>();
+
+    StreamSendResult(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    void sent() {
+        sent.incrementAndGet();
+    }
+
+    void suppressed() {
+        suppressed.incrementAndGet();
+    }
+
+    void failure(long index, MailBuilder message, Throwable cause) {
+        failed.incrementAndGet();
+        synchronized (failures) {
+            if (failures.size() < maxFailures) {
+                failures.add(new Failure(index, message, cause));
+            }
+        }
+    }
+
+    /**
+     * @return the number of emails accepted by SendGrid, or stored in the outbox
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return the number of emails not sent because every to address is suppressed, or because they are duplicates
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * @return the number of emails which could not be rendered or sent
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the kept failures, in the order their emails were read from the stream
+     */
+    public List<Failure> getFailures() {
+        synchronized (failures) {
+            List<Failure> sorted = new ArrayList<>(failures);
+            sorted.sort(Comparator.comparingLong(Failure::getIndex));
+            return sorted;
+        }
+    }
+
+    public boolean isSuccess() {
+        return failed.get() == 0;
+    }
+
+    public static class Failure {
+        private final long index;
+        private final MailBuilder message;
+        private final Throwable cause;
+
+        Failure(long index, MailBuilder message, Throwable cause) {
+            this.index = index;
+            this.message = message;
+            this.cause = cause;
+        }
+
+        /**
+         * @return the position of the email in the stream, starting from 0
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        public MailBuilder getMessage() {
+            return message;
+        }
+
+        public Throwable getCause() {
+            return cause;
+        }
+    }
+}
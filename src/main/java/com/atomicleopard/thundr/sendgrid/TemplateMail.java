@@ -0,0 +1,122 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An email whose content is a SendGrid template, sent to many recipients with data for each. Nothing is rendered
+ * locally, the request carries only the template id and each recipient's data.
+ *
+ * <pre>
+ * <code>
+ * mailer.sendTemplate(new TemplateMail("d-0123456789abcdef")
+ * 	.from("orders@mail.com")
+ * 	.to("someone@mail.com", "Someone", Collections.singletonMap("order", order)));
+ * </code>
+ * </pre>
+ *
+ * Data is serialized as JSON, so values can be strings, numbers, lists, maps or beans. Legacy templates which use
+ * substitution tags can be given substitutions through {@link #to(Recipient)} instead.
+ *
+ * @see SendGridMailer#sendTemplate(TemplateMail)
+ */
+public class TemplateMail {
+    private final String templateId;
+    private Entry<String, String> from;
+    private Entry<String, String> replyTo;
+    private String subject;
+    private List<Recipient> recipients = new ArrayList<>();
+
+    public TemplateMail(String templateId) {
+        this.templateId = templateId;
+    }
+
+    public TemplateMail from(String email) {
+        return from(email, null);
+    }
+
+    public TemplateMail from(String email, String name) {
+        this.from = new SimpleImmutableEntry<>(email, name);
+        return this;
+    }
+
+    public TemplateMail replyTo(String email) {
+        return replyTo(email, null);
+    }
+
+    public TemplateMail replyTo(String email, String name) {
+        this.replyTo = new SimpleImmutableEntry<>(email, name);
+        return this;
+    }
+
+    /**
+     * Overrides the subject defined by the template
+     */
+    public TemplateMail subject(String subject) {
+        this.subject = subject;
+        return this;
+    }
+
+    public TemplateMail to(String email) {
+        return to(new Recipient(email));
+    }
+
+    public TemplateMail to(String email, String name) {
+        return to(new Recipient(email, name));
+    }
+
+    public TemplateMail to(String email, String name, Map<String, ?> templateData) {
+        return to(new Recipient(email, name, null, templateData));
+    }
+
+    public TemplateMail to(Recipient recipient) {
+        this.recipients.add(recipient);
+        return this;
+    }
+
+    public TemplateMail to(Collection<Recipient> recipients) {
+        this.recipients.addAll(recipients);
+        return this;
+    }
+
+    public String templateId() {
+        return templateId;
+    }
+
+    public Entry<String, String> from() {
+        return from;
+    }
+
+    public Entry<String, String> replyTo() {
+        return replyTo;
+    }
+
+    public String subject() {
+        return subject;
+    }
+
+    public List<Recipient> recipients() {
+        return recipients;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sendgrid.Personalization;
+
+/**
+ * A {@link Personalization} carrying the data SendGrid merges into a dynamic template for its recipients, which the
+ * published java client does not support.
+ */
+public class TemplatePersonalization extends Personalization {
+    @JsonProperty("dynamic_template_data")
+    @JsonInclude(Include.NON_EMPTY)
+    private Map<String, Object> templateData = new LinkedHashMap<>();
+
+    @JsonProperty("dynamic_template_data")
+    public Map<String, Object> getTemplateData() {
+        return templateData;
+    }
+
+    public void addTemplateData(String key, Object value) {
+        templateData.put(key, value);
+    }
+
+    public void addTemplateData(Map<String, ?> data) {
+        templateData.putAll(data);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct {@link ByteBuffer}s for rendered attachments, so large attachments are held off heap and the same
+ * memory is reused from one email to the next rather than allocated and collected each time.
+ *
+ * Buffers come in power of two sizes from {@link #MinBufferSize} up to the maximum buffer size. Larger requests are
+ * served from the heap and not pooled. Released buffers are kept until the pool holds its maximum number of bytes,
+ * beyond which they are left for the garbage collector. A buffer which is never released is simply collected.
+ */
+public class BufferPool {
+    public static final int MinBufferSize = 64 * 1024;
+    public static final int DefaultMaxBufferSize = 32 * 1024 * 1024;
+
+    private final long maxPooledBytes;
+    private final int maxBufferSize;
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> pools;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder reuses = new LongAdder();
+
+    /**
+     * @param maxPooledBytes the maximum number of bytes held by idle buffers
+     */
+    public BufferPool(long maxPooledBytes) {
+        this(maxPooledBytes, DefaultMaxBufferSize);
+    }
+
+    /**
+     * @param maxPooledBytes the maximum number of bytes held by idle buffers
+     * @param maxBufferSize the largest buffer to pool, rounded up to a power of two
+     */
+    public BufferPool(long maxPooledBytes, int maxBufferSize) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.maxBufferSize = sizeClass(Math.max(maxBufferSize, MinBufferSize));
+        int sizeClasses = index(this.maxBufferSize) + 1;
+        this.pools = new ArrayList<>(sizeClasses);
+        for (int i = 0; i < sizeClasses; i++) {
+            pools.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * @return an empty buffer with at least the given capacity, direct unless it is larger than the maximum buffer size
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity > maxBufferSize) {
+            allocations.increment();
+            return ByteBuffer.allocate(capacity);
+        }
+        int size = sizeClass(Math.max(capacity, MinBufferSize));
+        ByteBuffer buffer = pools.get(index(size)).poll();
+        if (buffer == null) {
+            allocations.increment();
+            return ByteBuffer.allocateDirect(size);
+        }
+        pooledBytes.addAndGet(-size);
+        reuses.increment();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer from {@link #acquire(int)} to the pool. The caller must not use the buffer, or any view of it,
+     * afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        int size = buffer.capacity();
+        if (!buffer.isDirect() || size > maxBufferSize || size != sizeClass(size)) {
+            return;
+        }
+        if (pooledBytes.addAndGet(size) > maxPooledBytes) {
+            pooledBytes.addAndGet(-size);
+            return;
+        }
+        pools.get(index(size)).offer(buffer);
+    }
+
+    /**
+     * @return the number of bytes held by idle buffers
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * @return the number of buffers which had to be allocated
+     */
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    /**
+     * @return the number of buffers which were served from the pool
+     */
+    public long getReuses() {
+        return reuses.sum();
+    }
+
+    static int sizeClass(int capacity) {
+        return capacity <= MinBufferSize ? MinBufferSize : Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    private static int index(int sizeClass) {
+        return Integer.numberOfTrailingZeros(sizeClass) - Integer.numberOfTrailingZeros(MinBufferSize);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link ByteArrayOutputStream} which writes to a buffer from a {@link BufferPool} rather than a growing heap array,
+ * moving to a larger pooled buffer when it fills. It extends {@link ByteArrayOutputStream} so it can stand in for the
+ * output of a {@link com.threewks.thundr.request.InMemoryResponse}.
+ */
+public class PooledOutputStream extends ByteArrayOutputStream {
+    private final BufferPool pool;
+    private ByteBuffer buffer;
+
+    public PooledOutputStream(BufferPool pool) {
+        super(0);
+        this.pool = pool;
+        this.buffer = pool.acquire(BufferPool.MinBufferSize);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        buffer.put(b, off, len);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer content = content();
+        byte[] chunk = new byte[Math.min(content.remaining(), 8192)];
+        while (content.hasRemaining()) {
+            int length = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    @Override
+    public void reset() {
+        buffer.clear();
+    }
+
+    @Override
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Copies the content to the heap, prefer {@link #detach()}
+     */
+    @Override
+    public byte[] toByteArray() {
+        ByteBuffer content = content();
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return new String(toByteArray(), Charset.defaultCharset());
+    }
+
+    @Override
+    public String toString(String charsetName) throws UnsupportedEncodingException {
+        return new String(toByteArray(), charsetName);
+    }
+
+    /**
+     * Hands over the buffer written to, positioned at the start of the content. The caller becomes responsible for
+     * releasing it to the pool, and this stream must not be written to again.
+     */
+    public ByteBuffer detach() {
+        ByteBuffer detached = buffer;
+        buffer = null;
+        detached.flip();
+        return detached;
+    }
+
+    /**
+     * Releases the buffer written to back to the pool, discarding the content
+     */
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private ByteBuffer content() {
+        ByteBuffer content = buffer.duplicate();
+        content.flip();
+        return content;
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        long required = (long) buffer.position() + length;
+        if (required > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Rendered content is larger than the maximum buffer size");
+        }
+        ByteBuffer larger = pool.acquire((int) Math.max(required, Math.min(Integer.MAX_VALUE, buffer.capacity() * 2L)));
+        buffer.flip();
+        larger.put(buffer);
+        pool.release(buffer);
+        buffer = larger;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.buffer;
+
+import java.nio.ByteBuffer;
+
+import com.threewks.thundr.request.InMemoryResponse;
+import com.threewks.thundr.transformer.TransformerManager;
+
+/**
+ * An {@link InMemoryResponse} which renders into a pooled direct buffer, for attachments which are streamed to
+ * SendGrid straight from that buffer.
+ */
+public class PooledResponse extends InMemoryResponse {
+    public PooledResponse(TransformerManager transformerManager, BufferPool pool) {
+        super(transformerManager);
+        this.output = new PooledOutputStream(pool);
+    }
+
+    /**
+     * @see PooledOutputStream#detach()
+     */
+    public ByteBuffer detachBody() {
+        return ((PooledOutputStream) output).detach();
+    }
+
+    /**
+     * @see PooledOutputStream#release()
+     */
+    public void release() {
+        ((PooledOutputStream) output).release();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+import java.util.Arrays;
+
+import com.threewks.thundr.util.Encoder;
+
+/**
+ * Caches base64 encoded attachments so that the same logo, terms and conditions or inline image is not encoded again
+ * for every email.
+ * 
+ * Encoded content is cached by its length, content type and a hash of a fixed sample of its bytes, so that finding an
+ * entry does not read the whole attachment. A match is confirmed by comparing the rendered bytes with those the entry
+ * was encoded from, which is skipped when they are the same array, so identical attachments share an entry however
+ * they were produced. Attachments whose view implements {@link CacheableView} are also cached by their cache key,
+ * which skips rendering as well as encoding.
+ * 
+ * Memory is bounded by the total size of the content held, evicting the least recently used entries first. Entries
+ * found by content hold the rendered bytes as well as their encoding.
+ */
+public class AttachmentCache {
+    public static final long DefaultMaxBytes = 32 * 1024 * 1024;
+    private static final int Samples = 64;
+    private static final int TrailingBytes = 16;
+
+    protected final LruCache<Object, EncodedAttachment> cache;
+
+    public AttachmentCache() {
+        this(DefaultMaxBytes);
+    }
+
+    public AttachmentCache(long maxBytes) {
+        this.cache = new LruCache<>(maxBytes, 0, EncodedAttachment::getSize);
+    }
+
+    /**
+     * @return the encoded attachment previously stored for the given view cache key, or null if there is none
+     */
+    public EncodedAttachment get(String viewKey) {
+        return cache.get("view:" + viewKey);
+    }
+
+    public void put(String viewKey, EncodedAttachment attachment) {
+        // the view key entry shares the encoding, but not the rendered bytes kept to confirm content matches
+        EncodedAttachment encoded = attachment instanceof SourcedAttachment ? new EncodedAttachment(attachment.getContent(), attachment.getContentType()) : attachment;
+        cache.put("view:" + viewKey, encoded);
+    }
+
+    /**
+     * @return the given rendered attachment base64 encoded, reusing a previous encoding of identical content if there is
+     *         one
+     */
+    public EncodedAttachment encode(RenderedContent rendered) {
+        byte[] data = rendered.getBodyAsBytes();
+        ContentKey key = new ContentKey(data, rendered.getContentTypeString());
+        EncodedAttachment cached = cache.get(key);
+        if (cached instanceof SourcedAttachment && ((SourcedAttachment) cached).matches(data)) {
+            return cached;
+        }
+        SourcedAttachment encoded = new SourcedAttachment(new Encoder(data).base64().string(), rendered.getContentTypeString(), data);
+        cache.put(key, encoded);
+        return encoded;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * @return a hash of the length, {@value #Samples} evenly spaced bytes and the last {@value #TrailingBytes} bytes of
+     *         the given content, where file formats tend to keep checksums
+     */
+    static int sampleHash(byte[] data) {
+        int hash = data.length;
+        int step = Math.max(1, data.length / Samples);
+        for (int i = 0; i < data.length; i += step) {
+            hash = 31 * hash + data[i];
+        }
+        for (int i = Math.max(0, data.length - TrailingBytes); i < data.length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+
+    private static class ContentKey {
+        private final int length;
+        private final int hash;
+        private final String contentType;
+
+        ContentKey(byte[] data, String contentType) {
+            this.length = data.length;
+            this.hash = sampleHash(data);
+            this.contentType = contentType;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ContentKey)) {
+                return false;
+            }
+            ContentKey other = (ContentKey) obj;
+            return length == other.length && hash == other.hash && (contentType == null ? other.contentType == null : contentType.equals(other.contentType));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * hash + (contentType == null ? 0 : contentType.hashCode());
+        }
+    }
+
+    /**
+     * An encoding which keeps the bytes it was encoded from, to confirm a cache match
+     */
+    private static class SourcedAttachment extends EncodedAttachment {
+        private final byte[] data;
+
+        SourcedAttachment(String content, String contentType, byte[] data) {
+            super(content, contentType);
+            this.data = data;
+        }
+
+        boolean matches(byte[] other) {
+            return data == other || Arrays.equals(data, other);
+        }
+
+        @Override
+        public long getSize() {
+            return super.getSize() + data.length;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+/**
+ * A view whose rendered output can be cached. Views with the same cache key must render to the same output, so the key
+ * should include anything the output depends on, such as a template version or model identifier.
+ * 
+ * A view returning a null key is rendered every time.
+ * 
+ * @see RenderCache
+ * @see CachedView
+ */
+public interface CacheableView {
+    public String cacheKey();
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+/**
+ * Wraps any view with a cache key, for views which do not implement {@link CacheableView} themselves.
+ * 
+ * <pre>
+ * <code>
+ * mailer.mail()
+ * 	...
+ * 	.body(new CachedView("welcome-v2", new JspView("welcome.jsp")))
+ * 	.send();
+ * </code>
+ * </pre>
+ */
+public class CachedView implements CacheableView {
+    private final String cacheKey;
+    private final Object view;
+
+    public CachedView(String cacheKey, Object view) {
+        this.cacheKey = cacheKey;
+        this.view = view;
+    }
+
+    @Override
+    public String cacheKey() {
+        return cacheKey;
+    }
+
+    public Object view() {
+        return view;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s)", view, cacheKey);
+    }
+}
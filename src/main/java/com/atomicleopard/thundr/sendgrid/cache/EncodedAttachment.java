@@ -0,0 +1,46 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+/**
+ * The base64 encoded content of a rendered attachment, ready to be sent to SendGrid.
+ */
+public class EncodedAttachment {
+    private final String content;
+    private final String contentType;
+
+    public EncodedAttachment(String content, String contentType) {
+        this.content = content;
+        this.contentType = contentType;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the approximate number of bytes of memory held by this attachment
+     */
+    public long getSize() {
+        return (content.length() + (contentType == null ? 0 : contentType.length())) * 2L;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread safe, size bounded cache which evicts the least recently used entries once the total size of its values
+ * exceeds a budget. Entries optionally expire a fixed time after they are added.
+ * 
+ * Values larger than the whole budget are never cached.
+ */
+public class LruCache<K, V> {
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final ToLongFunction<V> sizer;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes the maximum total size of all values
+     * @param ttlMillis how long entries remain valid, or 0 for no expiry
+     * @param sizer determines the size in bytes of a value
+     */
+    public LruCache(long maxBytes, long ttlMillis, ToLongFunction<V> sizer) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.sizer = sizer;
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.isExpired(now())) {
+            remove(key, entry);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        long size = sizer.applyAsLong(value);
+        Entry<V> existing = entries.remove(key);
+        if (existing != null) {
+            bytes -= existing.size;
+        }
+        if (size > maxBytes) {
+            return;
+        }
+        long expires = ttlMillis > 0 ? now() + ttlMillis : Long.MAX_VALUE;
+        entries.put(key, new Entry<>(value, size, expires));
+        bytes += size;
+        evict();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, evictions, entries.size(), bytes, maxBytes);
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().size;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(K key, Entry<V> entry) {
+        entries.remove(key);
+        bytes -= entry.size;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long size;
+        private final long expires;
+
+        Entry(V value, long size, long expires) {
+            this.value = value;
+            this.size = size;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+}
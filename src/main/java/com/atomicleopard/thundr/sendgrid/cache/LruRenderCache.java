@@ -0,0 +1,60 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+/**
+ * An in memory {@link RenderCache} holding at most the given number of bytes of rendered content, evicting the least
+ * recently used entries first. Entries also expire once they are older than the given time to live.
+ */
+public class LruRenderCache implements RenderCache {
+    public static final long DefaultMaxBytes = 16 * 1024 * 1024;
+
+    protected final LruCache<String, RenderedContent> cache;
+
+    public LruRenderCache() {
+        this(DefaultMaxBytes, 0);
+    }
+
+    /**
+     * @param maxBytes the maximum total size of cached content
+     * @param ttlMillis how long entries remain valid, or 0 for no expiry
+     */
+    public LruRenderCache(long maxBytes, long ttlMillis) {
+        this.cache = new LruCache<>(maxBytes, ttlMillis, RenderedContent::getSize);
+    }
+
+    @Override
+    public RenderedContent get(String key) {
+        return cache.get(key);
+    }
+
+    @Override
+    public void put(String key, RenderedContent content) {
+        cache.put(key, content);
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+}
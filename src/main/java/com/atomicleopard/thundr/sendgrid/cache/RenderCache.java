@@ -0,0 +1,37 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+/**
+ * Caches rendered email bodies and attachments by the key supplied by a {@link CacheableView}. Implementations must be
+ * thread safe.
+ * 
+ * @see LruRenderCache
+ */
+public interface RenderCache {
+    /**
+     * @return the cached content for the given key, or null if there is none
+     */
+    public RenderedContent get(String key);
+
+    public void put(String key, RenderedContent content);
+
+    public void clear();
+
+    public CacheStats getStats();
+}
@@ -0,0 +1,66 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import com.threewks.thundr.request.InMemoryResponse;
+
+/**
+ * The output of rendering an email body or attachment view.
+ */
+public class RenderedContent {
+    private final byte[] body;
+    private final String contentType;
+    private final String characterEncoding;
+
+    public RenderedContent(byte[] body, String contentType, String characterEncoding) {
+        this.body = body;
+        this.contentType = contentType;
+        this.characterEncoding = characterEncoding;
+    }
+
+    public static RenderedContent from(InMemoryResponse response) {
+        return new RenderedContent(response.getBodyAsBytes(), response.getContentTypeString(), response.getCharacterEncoding());
+    }
+
+    public byte[] getBodyAsBytes() {
+        return body;
+    }
+
+    public String getBodyAsString() {
+        Charset charset = characterEncoding == null ? StandardCharsets.UTF_8 : Charset.forName(characterEncoding);
+        return new String(body, charset);
+    }
+
+    public String getContentTypeString() {
+        return contentType;
+    }
+
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    /**
+     * @return the approximate number of bytes of memory held by this content
+     */
+    public long getSize() {
+        return body.length + (contentType == null ? 0 : contentType.length() * 2) + (characterEncoding == null ? 0 : characterEncoding.length() * 2);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.circuit;
+
+import com.atomicleopard.thundr.sendgrid.outbox.MailOutbox;
+import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.mail.Mailer;
+
+/**
+ * Stops sending to SendGrid while it is failing or slow, so callers fail fast, or are diverted to a fallback, rather
+ * than each waiting for a timeout.
+ *
+ * The outcomes of the most recent sends are kept in a window. When enough of them have failed or been slow the
+ * circuit opens and sends are refused. After the open duration a few trial sends are let through: if they all succeed
+ * the circuit closes, otherwise it opens again.
+ *
+ * While sends are refused, including sends beyond the trials while half open, emails go to the {@link #getFallback() fallback mailer} if one is set, then to the
+ * {@link #getFallbackOutbox() fallback outbox}, to be delivered once the circuit closes. Without either, sending
+ * throws a {@link CircuitOpenException}.
+ */
+public class CircuitBreaker {
+    public enum State {
+        Closed,
+        Open,
+        HalfOpen
+    }
+
+    private static final byte Failed = 1;
+    private static final byte Slow = 2;
+
+    protected final CircuitBreakerConfig config;
+    private final long slowCallNanos;
+    private final byte[] window;
+    private int position;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private State state = State.Closed;
+    private long openUntil;
+    private int trials;
+    private int trialSuccesses;
+    private volatile Mailer fallback;
+    private volatile MailOutbox fallbackOutbox;
+
+    public CircuitBreaker() {
+        this(new CircuitBreakerConfig());
+    }
+
+    public CircuitBreaker(CircuitBreakerConfig config) {
+        if (config.windowSize() < 1 || config.halfOpenCalls() < 1) {
+            throw new IllegalArgumentException(String.format("windowSize and halfOpenCalls must be at least 1, were %s and %s", config.windowSize(), config.halfOpenCalls()));
+        }
+        this.config = config;
+        this.slowCallNanos = config.slowCall() * 1000000;
+        this.window = new byte[config.windowSize()];
+    }
+
+    public CircuitBreakerConfig getConfig() {
+        return config;
+    }
+
+    public Mailer getFallback() {
+        return fallback;
+    }
+
+    /**
+     * Sends emails through the given mailer, such as an SMTP mailer, while the circuit is open
+     */
+    public void setFallback(Mailer fallback) {
+        this.fallback = fallback;
+    }
+
+    public MailOutbox getFallbackOutbox() {
+        return fallbackOutbox;
+    }
+
+    /**
+     * Stores emails in the given outbox while the circuit is open. The outbox delivers them once the circuit closes.
+     */
+    public void setFallbackOutbox(MailOutbox fallbackOutbox) {
+        this.fallbackOutbox = fallbackOutbox;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if the circuit is open and its open duration has not yet passed
+     */
+    public synchronized boolean isOpen() {
+        return state == State.Open && now() < openUntil;
+    }
+
+    /**
+     * Reports, without taking a trial send, whether {@link #tryAcquire()} would refuse a send now
+     *
+     * @return true if the circuit is open, or it is half open and all trial sends are in progress
+     */
+    public synchronized boolean wouldRefuse() {
+        if (state == State.HalfOpen) {
+            return trials >= config.halfOpenCalls();
+        }
+        return isOpen();
+    }
+
+    /**
+     * @return the proportion of sends in the window which failed
+     */
+    public synchronized double getFailureRate() {
+        return calls == 0 ? 0 : (double) failures / calls;
+    }
+
+    /**
+     * @return the proportion of sends in the window which were slow
+     */
+    public synchronized double getSlowCallRate() {
+        return calls == 0 ? 0 : (double) slowCalls / calls;
+    }
+
+    /**
+     * Asks permission to send. Every permitted send must be followed by a call to {@link #record(boolean, long)}.
+     *
+     * @return false if the circuit is open, or it is half open and all trial sends are in progress
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.Open) {
+            if (now() < openUntil) {
+                return false;
+            }
+            state = State.HalfOpen;
+            trials = 0;
+            trialSuccesses = 0;
+        }
+        if (state == State.HalfOpen) {
+            if (trials >= config.halfOpenCalls()) {
+                return false;
+            }
+            trials++;
+        }
+        return true;
+    }
+
+    /**
+     * Records the outcome of a permitted send
+     *
+     * @param failed true if SendGrid could not be reached, was rate limiting or failed to process the request
+     * @param nanos the time spent waiting on SendGrid, summed over any retries but not the waits between them
+     */
+    public synchronized void record(boolean failed, long nanos) {
+        boolean slow = nanos >= slowCallNanos;
+        if (state == State.HalfOpen) {
+            if (failed || slow) {
+                open();
+            } else if (++trialSuccesses >= config.halfOpenCalls()) {
+                close();
+            }
+            return;
+        }
+        if (state == State.Open) {
+            return;
+        }
+        byte outcome = (byte) ((failed ? Failed : 0) | (slow ? Slow : 0));
+        if (calls == window.length) {
+            byte evicted = window[position];
+            failures -= evicted & Failed;
+            slowCalls -= (evicted & Slow) >> 1;
+        } else {
+            calls++;
+        }
+        window[position] = outcome;
+        position = (position + 1) % window.length;
+        failures += outcome & Failed;
+        slowCalls += (outcome & Slow) >> 1;
+        if (calls >= config.minimumCalls() && (getFailureRate() >= config.failureRate() || getSlowCallRate() >= config.slowCallRate())) {
+            open();
+        }
+    }
+
+    protected void open() {
+        Logger.warn("Opening the Sendgrid circuit for %sms, %s%% of recent sends failed and %s%% were slow", config.openDuration(), Math.round(getFailureRate() * 100),
+                Math.round(getSlowCallRate() * 100));
+        state = State.Open;
+        openUntil = now() + config.openDuration();
+    }
+
+    protected void close() {
+        Logger.info("Closing the Sendgrid circuit");
+        state = State.Closed;
+        calls = 0;
+        position = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
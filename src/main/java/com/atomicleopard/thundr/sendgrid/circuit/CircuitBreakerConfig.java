@@ -0,0 +1,116 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.circuit;
+
+/**
+ * Thresholds for a {@link CircuitBreaker}. All times are in milliseconds and rates are between 0 and 1.
+ */
+public class CircuitBreakerConfig {
+    private double failureRate = 0.5;
+    private double slowCallRate = 0.5;
+    private long slowCall = 5000;
+    private int windowSize = 50;
+    private int minimumCalls = 20;
+    private long openDuration = 30000;
+    private int halfOpenCalls = 5;
+
+    /**
+     * The proportion of recent sends which fail, because SendGrid was unreachable, rate limiting or erroring, at which
+     * the circuit opens
+     */
+    public CircuitBreakerConfig failureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * The proportion of recent sends which take longer than {@link #slowCall(long)} at which the circuit opens
+     */
+    public CircuitBreakerConfig slowCallRate(double slowCallRate) {
+        this.slowCallRate = slowCallRate;
+        return this;
+    }
+
+    /**
+     * The time after which a send, including any retries, counts as slow
+     */
+    public CircuitBreakerConfig slowCall(long slowCall) {
+        this.slowCall = slowCall;
+        return this;
+    }
+
+    /**
+     * The number of most recent sends the failure and slow call rates are calculated over
+     */
+    public CircuitBreakerConfig windowSize(int windowSize) {
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * The number of sends which must be recorded before the circuit can open
+     */
+    public CircuitBreakerConfig minimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    /**
+     * The time the circuit stays open before trial sends are let through
+     */
+    public CircuitBreakerConfig openDuration(long openDuration) {
+        this.openDuration = openDuration;
+        return this;
+    }
+
+    /**
+     * The number of trial sends which must succeed, once the open duration has passed, for the circuit to close
+     */
+    public CircuitBreakerConfig halfOpenCalls(int halfOpenCalls) {
+        this.halfOpenCalls = halfOpenCalls;
+        return this;
+    }
+
+    public double failureRate() {
+        return failureRate;
+    }
+
+    public double slowCallRate() {
+        return slowCallRate;
+    }
+
+    public long slowCall() {
+        return slowCall;
+    }
+
+    public int windowSize() {
+        return windowSize;
+    }
+
+    public int minimumCalls() {
+        return minimumCalls;
+    }
+
+    public long openDuration() {
+        return openDuration;
+    }
+
+    public int halfOpenCalls() {
+        return halfOpenCalls;
+    }
+}
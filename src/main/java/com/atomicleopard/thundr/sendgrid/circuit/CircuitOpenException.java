@@ -0,0 +1,32 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.circuit;
+
+import com.atomicleopard.thundr.sendgrid.SendGridException;
+
+/**
+ * Thrown instead of sending an email while the {@link CircuitBreaker} is open. Like an unreachable SendGrid, this is
+ * transient, so an outbox keeps the email and tries again later.
+ */
+public class CircuitOpenException extends SendGridException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String format, Object... args) {
+        super(NoResponse, format, args);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.dedupe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sendgrid.Mail;
+import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.mail.MailException;
+
+/**
+ * Remembers the emails sent within a recent window, so that the same email sent again, typically by a retried job, can
+ * be dropped before it reaches SendGrid.
+ *
+ * Emails are identified by a 64 bit fingerprint, either of a key supplied by the caller or of the email's content. The
+ * window is divided into {@value #Buckets} time buckets, each holding the exact fingerprints added while it was
+ * current in a {@link FingerprintSet}, so an email is only dropped if its fingerprint was really seen, at a cost of
+ * about 24 bytes per fingerprint.
+ *
+ * Memory is bounded by {@link #getMaxEntries()}. When more fingerprints than that are held, the oldest bucket is
+ * discarded early, shortening the window rather than growing without limit. Once only the current bucket is left, its
+ * earliest fingerprints are dropped instead.
+ */
+public class DuplicateSuppressor {
+    public static final long DefaultWindowMillis = 600000;
+    public static final int DefaultMaxEntries = 100000;
+    public static final int Buckets = 8;
+    private static final ObjectMapper Mapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    protected final long windowMillis;
+    protected final int maxEntries;
+    private final long bucketMillis;
+    private final Bucket[] buckets = new Bucket[Buckets];
+    private boolean matchContent;
+    private int size;
+    private long suppressed;
+
+    public DuplicateSuppressor() {
+        this(DefaultWindowMillis, DefaultMaxEntries);
+    }
+
+    public DuplicateSuppressor(long windowMillis, int maxEntries) {
+        if (windowMillis < Buckets || maxEntries < 1) {
+            throw new IllegalArgumentException(String.format("windowMillis must be at least %s and maxEntries at least 1, were %s and %s", Buckets, windowMillis, maxEntries));
+        }
+        this.windowMillis = windowMillis;
+        this.maxEntries = maxEntries;
+        this.bucketMillis = windowMillis / Buckets;
+    }
+
+    /**
+     * When set, every email sent is checked against the window by a fingerprint of its content, not only those sent
+     * with a key
+     */
+    public DuplicateSuppressor matchContent(boolean matchContent) {
+        this.matchContent = matchContent;
+        return this;
+    }
+
+    public boolean isMatchContent() {
+        return matchContent;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of fingerprints currently held
+     */
+    public synchronized int getSize() {
+        expire(now());
+        return size;
+    }
+
+    /**
+     * @return the number of duplicates found since this suppressor was created
+     */
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    public boolean claim(String key) {
+        return claim(fingerprint(key));
+    }
+
+    /**
+     * Records the given fingerprint as sent, unless it was already recorded within the window
+     * 
+     * @return true if the fingerprint was not seen within the window, and the email should be sent
+     */
+    public synchronized boolean claim(long fingerprint) {
+        long now = now();
+        expire(now);
+        for (Bucket bucket : buckets) {
+            if (bucket != null && bucket.contains(fingerprint)) {
+                suppressed++;
+                return false;
+            }
+        }
+        int index = index(now);
+        if (buckets[index] == null) {
+            buckets[index] = new Bucket(now / bucketMillis);
+        }
+        buckets[index].add(fingerprint);
+        size++;
+        while (size > maxEntries) {
+            evictOldest(index);
+        }
+        return true;
+    }
+
+    public void forget(String key) {
+        forget(fingerprint(key));
+    }
+
+    /**
+     * Removes the given fingerprint, so that an email whose send failed can be sent again
+     */
+    public synchronized void forget(long fingerprint) {
+        for (Bucket bucket : buckets) {
+            if (bucket != null && bucket.fingerprints.remove(fingerprint)) {
+                size--;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < Buckets; i++) {
+            buckets[i] = null;
+        }
+        size = 0;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Discards the buckets which have fallen out of the window
+     */
+    private void expire(long now) {
+        long oldest = now / bucketMillis - Buckets + 1;
+        for (int i = 0; i < Buckets; i++) {
+            if (buckets[i] != null && buckets[i].period < oldest) {
+                size -= buckets[i].fingerprints.size();
+                buckets[i] = null;
+            }
+        }
+    }
+
+    private void evictOldest(int current) {
+        int oldest = -1;
+        for (int i = 0; i < Buckets; i++) {
+            if (i != current && buckets[i] != null && (oldest < 0 || buckets[i].period < buckets[oldest].period)) {
+                oldest = i;
+            }
+        }
+        if (oldest >= 0) {
+            Logger.warn("Duplicate suppression is holding more than %s emails, shortening its window", maxEntries);
+            size -= buckets[oldest].fingerprints.size();
+            buckets[oldest] = null;
+        } else {
+            // every fingerprint is in the current bucket, so the earliest claimed is dropped
+            buckets[current].fingerprints.removeEarliest();
+            size--;
+        }
+    }
+
+    private int index(long now) {
+        return (int) ((now / bucketMillis) % Buckets);
+    }
+
+    public static long fingerprint(String key) {
+        MessageDigest digest = digest();
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * @return a fingerprint of the JSON the given email is sent as, computed without holding the JSON in memory
+     */
+    public static long fingerprint(Mail mail) {
+        final MessageDigest digest = digest();
+        try {
+            Mapper.writeValue(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    digest.update((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    digest.update(b, off, len);
+                }
+            }, mail);
+        } catch (IOException e) {
+            throw new MailException(e, "Failed to fingerprint SendGrid email: %s", e.getMessage());
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Bucket {
+        private final long period;
+        private final FingerprintSet fingerprints = new FingerprintSet();
+
+        Bucket(long period) {
+            this.period = period;
+        }
+
+        void add(long fingerprint) {
+            fingerprints.add(fingerprint);
+        }
+
+        boolean contains(long fingerprint) {
+            return fingerprints.contains(fingerprint);
+        }
+    }
+}
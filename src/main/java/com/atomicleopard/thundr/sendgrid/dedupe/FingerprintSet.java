@@ -0,0 +1,164 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.dedupe;
+
+import java.util.Arrays;
+
+/**
+ * A set of 64 bit fingerprints which remembers the order they were added in, stored in primitive arrays rather than
+ * as boxed longs. Membership is an open addressing table with linear probing, kept at most half full, and the order is
+ * an array of the fingerprints as added. Together they take about 24 bytes per fingerprint.
+ *
+ * Fingerprints are expected to be uniformly distributed, such as the leading bytes of a cryptographic hash. Not thread
+ * safe.
+ */
+class FingerprintSet {
+    private static final int InitialCapacity = 16;
+
+    private long[] table = new long[InitialCapacity];
+    private boolean containsZero;
+    private int size;
+    private long[] order = new long[InitialCapacity];
+    private int head;
+    private int tail;
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(long fingerprint) {
+        if (fingerprint == 0) {
+            return containsZero;
+        }
+        int mask = table.length - 1;
+        for (int i = slot(fingerprint, mask); table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the fingerprint was not already in the set
+     */
+    boolean add(long fingerprint) {
+        if (!insert(fingerprint)) {
+            return false;
+        }
+        size++;
+        if (size * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        if (tail == order.length) {
+            // reclaim the space of fingerprints already removed from the front before growing
+            order = head * 2 >= order.length ? Arrays.copyOfRange(order, head, head + order.length) : Arrays.copyOf(order, order.length * 2);
+            tail -= head;
+            head = 0;
+        }
+        order[tail++] = fingerprint;
+        return true;
+    }
+
+    /**
+     * @return true if the fingerprint was in the set
+     */
+    boolean remove(long fingerprint) {
+        if (fingerprint == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int mask = table.length - 1;
+        for (int i = slot(fingerprint, mask); table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == fingerprint) {
+                close(i, mask);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the earliest added fingerprint still in the set. A fingerprint which was removed and added again is
+     * treated as added at the earlier time.
+     *
+     * @return false if the set is empty
+     */
+    boolean removeEarliest() {
+        while (head < tail) {
+            if (remove(order[head++])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean insert(long fingerprint) {
+        if (fingerprint == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            return true;
+        }
+        int mask = table.length - 1;
+        int i = slot(fingerprint, mask);
+        while (table[i] != 0) {
+            if (table[i] == fingerprint) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = fingerprint;
+        return true;
+    }
+
+    /**
+     * Empties the given slot, moving later fingerprints of the same probe run back so that none becomes unreachable
+     */
+    private void close(int hole, int mask) {
+        for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int home = slot(table[i], mask);
+            boolean reachable = hole <= i ? home > hole && home <= i : home > hole || home <= i;
+            if (!reachable) {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        for (long fingerprint : old) {
+            if (fingerprint != 0) {
+                insert(fingerprint);
+            }
+        }
+    }
+
+    private static int slot(long fingerprint, int mask) {
+        return (int) (fingerprint ^ fingerprint >>> 32) & mask;
+    }
+}
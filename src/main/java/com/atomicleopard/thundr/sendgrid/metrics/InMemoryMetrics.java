@@ -0,0 +1,182 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps measurements in memory: a {@link LatencyHistogram} for each {@link Stage}, totals of payload and attachment
+ * bytes and of compressed payloads before and after compression, a count of each response status and the number of
+ * requests in flight.
+ */
+public class InMemoryMetrics implements SendGridMetrics {
+    private static final int MaxStatus = 600;
+
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+    private final LongAdder payloads = new LongAdder();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder attachments = new LongAdder();
+    private final LongAdder attachmentBytes = new LongAdder();
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final AtomicLongArray statuses = new AtomicLongArray(MaxStatus);
+    private final LongAdder otherStatuses = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    public InMemoryMetrics() {
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+    }
+
+    @Override
+    public void recordLatency(Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    @Override
+    public void recordPayloadBytes(long bytes) {
+        payloads.increment();
+        payloadBytes.add(bytes);
+    }
+
+    @Override
+    public void recordAttachmentBytes(long bytes) {
+        attachments.increment();
+        attachmentBytes.add(bytes);
+    }
+
+    @Override
+    public void recordCompression(long uncompressedBytes, long compressedBytes) {
+        compressed.increment();
+        this.uncompressedBytes.add(uncompressedBytes);
+        this.compressedBytes.add(compressedBytes);
+    }
+
+    @Override
+    public void recordStatus(int statusCode) {
+        if (statusCode >= 0 && statusCode < MaxStatus) {
+            statuses.incrementAndGet(statusCode);
+        } else {
+            otherStatuses.increment();
+        }
+    }
+
+    @Override
+    public void incrementInFlight() {
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+    }
+
+    @Override
+    public void decrementInFlight() {
+        inFlight.decrementAndGet();
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    public long getPayloads() {
+        return payloads.sum();
+    }
+
+    public long getPayloadBytes() {
+        return payloadBytes.sum();
+    }
+
+    public long getAttachments() {
+        return attachments.sum();
+    }
+
+    public long getAttachmentBytes() {
+        return attachmentBytes.sum();
+    }
+
+    /**
+     * @return the number of request bodies which were compressed
+     */
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * @return the size of compressed request bodies as sent as a fraction of their size before compression, or 1 if
+     *         none have been compressed
+     */
+    public double getCompressionRatio() {
+        long before = getUncompressedBytes();
+        return before == 0 ? 1 : (double) getCompressedBytes() / before;
+    }
+
+    /**
+     * @return the number of responses with the given status, use
+     *         {@link com.atomicleopard.thundr.sendgrid.SendGridException#NoResponse} for requests which could not be
+     *         completed
+     */
+    public long getStatusCount(int statusCode) {
+        return statusCode >= 0 && statusCode < MaxStatus ? statuses.get(statusCode) : otherStatuses.sum();
+    }
+
+    /**
+     * @return the number of responses received for each status
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < MaxStatus; i++) {
+            long count = statuses.get(i);
+            if (count > 0) {
+                counts.put(i, count);
+            }
+        }
+        return counts;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            sb.append(stage).append(": ").append(getLatency(stage)).append("\n");
+        }
+        sb.append(String.format("payloads=%s (%s bytes) attachments=%s (%s bytes) compressed=%s (ratio %.2f) statuses=%s in flight=%s", getPayloads(), getPayloadBytes(), getAttachments(), getAttachmentBytes(), getCompressed(), getCompressionRatio(), getStatusCounts(), getInFlight()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of durations in nanoseconds. Values are counted in buckets which split each power of two into
+ * eight, so percentiles are accurate to within 12.5%, and recording a value is a few atomic increments.
+ */
+public class LatencyHistogram {
+    private static final int SubBuckets = 8;
+    private static final int SubBucketBits = 3;
+    private static final int Buckets = SubBuckets * 62;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Buckets);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry until the max is at least this value
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean duration in nanoseconds, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return an upper bound of the duration in nanoseconds below which the given percentage of durations fall, or 0 if
+     *         nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < Buckets; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(getMax(), lowerBound(i + 1) - 1);
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%s mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms", getCount(), millis(getMean()), millis(getPercentile(50)), millis(getPercentile(99)), millis(getMax()));
+    }
+
+    static int bucket(long value) {
+        if (value < SubBuckets) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SubBucketBits)) & (SubBuckets - 1);
+        return (exponent - SubBucketBits + 1) * SubBuckets + subBucket;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SubBuckets) {
+            return bucket;
+        }
+        int exponent = bucket / SubBuckets + SubBucketBits - 1;
+        long subBucket = bucket % SubBuckets;
+        return (SubBuckets + subBucket) << (exponent - SubBucketBits);
+    }
+
+    private static double millis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.metrics;
+
+/**
+ * Receives measurements from each stage of sending an email through SendGrid. Implement this to publish them to a
+ * metrics library, or use {@link InMemoryMetrics}. Methods are called on the sending thread, so implementations should
+ * be quick and thread safe.
+ */
+public interface SendGridMetrics {
+    /**
+     * Discards all measurements, this is the default
+     */
+    public static final SendGridMetrics NoOp = new NoOpMetrics();
+
+    public void recordLatency(Stage stage, long nanos);
+
+    /**
+     * @param bytes the size of a request body sent to SendGrid
+     */
+    public void recordPayloadBytes(long bytes);
+
+    /**
+     * @param bytes the size of an attachment as sent to SendGrid, which is base64 encoded
+     */
+    public void recordAttachmentBytes(long bytes);
+
+    /**
+     * @param uncompressedBytes the size of a request body before it was gzip compressed
+     * @param compressedBytes the size of the request body as sent
+     */
+    public void recordCompression(long uncompressedBytes, long compressedBytes);
+
+    /**
+     * @param statusCode the status SendGrid responded with, or
+     *            {@link com.atomicleopard.thundr.sendgrid.SendGridException#NoResponse} if the request could not be
+     *            completed
+     */
+    public void recordStatus(int statusCode);
+
+    /**
+     * Called as a request to SendGrid starts, including any retries
+     */
+    public void incrementInFlight();
+
+    /**
+     * Called as a request to SendGrid completes, successfully or not
+     */
+    public void decrementInFlight();
+}
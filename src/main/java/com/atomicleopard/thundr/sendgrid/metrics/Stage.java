@@ -0,0 +1,44 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.metrics;
+
+/**
+ * The stages of sending an email whose latency is recorded by {@link SendGridMetrics}
+ */
+public enum Stage {
+    /**
+     * Rendering a body or attachment view
+     */
+    Render,
+    /**
+     * Base64 encoding an attachment
+     */
+    Attachment,
+    /**
+     * Serializing the request body, when it is built before being sent
+     */
+    Serialize,
+    /**
+     * Gzip compressing a request body, excluding the time spent writing it to the connection
+     */
+    Compress,
+    /**
+     * A single request to SendGrid, from sending the request to receiving the response
+     */
+    Send;
+}
@@ -0,0 +1,340 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.outbox;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.threewks.thundr.logger.Logger;
+
+/**
+ * An append-only journal of request bodies, stored in memory-mapped segment files in a directory. Each record is written
+ * as its length, a CRC32 checksum and the payload, with the length written last so a record is only visible once it is
+ * complete.
+ *
+ * Records are read back in order with {@link #next(long, TimeUnit)} and acknowledged with {@link #ack(long)} once they
+ * have been handled. The journal checkpoints the position before which every record has been acknowledged, and when
+ * reopened reads again from that checkpoint, so a record which was read but not acknowledged is read again. Segments
+ * before the checkpoint are deleted.
+ *
+ * Appended records are in the operating system's page cache as soon as {@link #append(byte[])} returns, and so survive
+ * the JVM exiting. Enable sync to also flush each record to disk before returning, surviving the machine failing at the
+ * cost of slower appends.
+ */
+public class MailJournal implements Closeable {
+    public static final int DefaultSegmentSize = 64 * 1024 * 1024;
+    static final String SegmentPrefix = "journal-";
+    static final String SegmentSuffix = ".log";
+    static final String CheckpointFile = "checkpoint";
+    private static final int HeaderSize = 8;
+
+    protected final File directory;
+    protected final int segmentSize;
+    protected final boolean sync;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final TreeSet<Long> unacknowledged = new TreeSet<>();
+    private MappedByteBuffer checkpointBuffer;
+    private long writeSegment;
+    private int writeOffset;
+    private long readPosition;
+    private long checkpoint;
+    private boolean closed;
+
+    public MailJournal(File directory) throws IOException {
+        this(directory, DefaultSegmentSize, false);
+    }
+
+    /**
+     * @param segmentSize the size in bytes of each segment file, which limits the size of a single record
+     * @param sync true to flush each record to disk before {@link #append(byte[])} returns
+     */
+    public MailJournal(File directory, int segmentSize, boolean sync) throws IOException {
+        if (segmentSize <= HeaderSize) {
+            throw new IllegalArgumentException(String.format("segmentSize must be greater than %s, was %s", HeaderSize, segmentSize));
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        open();
+    }
+
+    /**
+     * Appends the given payload to the journal
+     *
+     * @return the position of the new record
+     */
+    public synchronized long append(byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("The journal has been closed");
+        }
+        int length = HeaderSize + payload.length;
+        if (length > segmentSize) {
+            throw new IOException(String.format("A payload of %s bytes is larger than the journal segment size of %s bytes", payload.length, segmentSize));
+        }
+        if (writeOffset + length > segmentSize) {
+            writeSegment++;
+            writeOffset = 0;
+            segments.put(writeSegment, map(writeSegment));
+        }
+        MappedByteBuffer segment = segments.get(writeSegment);
+        long position = position(writeSegment, writeOffset);
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position(writeOffset + 4);
+        buffer.putInt(checksum(payload));
+        buffer.put(payload);
+        segment.putInt(writeOffset, payload.length);
+        if (sync) {
+            segment.force();
+        }
+        writeOffset += length;
+        notifyAll();
+        return position;
+    }
+
+    /**
+     * Reads the next record, waiting up to the given time for one to be appended
+     *
+     * @return the next record, or null if none was appended in time or the journal was closed
+     */
+    public synchronized Record next(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed) {
+            Record record = read();
+            if (record != null) {
+                return record;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        return null;
+    }
+
+    /**
+     * Marks the record at the given position as handled, advancing the checkpoint past every record before the oldest
+     * record which has not been acknowledged
+     */
+    public synchronized void ack(long position) {
+        if (!unacknowledged.remove(position) || closed) {
+            return;
+        }
+        long next = unacknowledged.isEmpty() ? readPosition : unacknowledged.first();
+        if (next > checkpoint) {
+            checkpoint = next;
+            checkpointBuffer.putLong(0, checkpoint);
+            if (sync) {
+                checkpointBuffer.force();
+            }
+            deleteSegmentsBefore(segment(checkpoint));
+        }
+    }
+
+    /**
+     * @return the position before which every record has been acknowledged
+     */
+    public synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return the number of records which have been read but not acknowledged
+     */
+    public synchronized int getUnacknowledged() {
+        return unacknowledged.size();
+    }
+
+    /**
+     * @return true if every record appended has been read
+     */
+    public synchronized boolean isDrained() {
+        return peek() == null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            for (MappedByteBuffer segment : segments.values()) {
+                segment.force();
+            }
+            checkpointBuffer.force();
+            notifyAll();
+        }
+    }
+
+    protected void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Failed to create journal directory %s", directory));
+        }
+        checkpointBuffer = map(new File(directory, CheckpointFile), 8);
+        checkpoint = checkpointBuffer.getLong(0);
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (name.startsWith(SegmentPrefix) && name.endsWith(SegmentSuffix)) {
+                long segment = Long.parseLong(name.substring(SegmentPrefix.length(), name.length() - SegmentSuffix.length()));
+                if (segment >= segment(checkpoint)) {
+                    segments.put(segment, map(segment));
+                } else if (!file.delete()) {
+                    Logger.warn("Failed to delete acknowledged journal segment %s", file);
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(segment(checkpoint), map(segment(checkpoint)));
+        }
+        writeSegment = segments.lastKey();
+        writeOffset = endOfRecords(segments.lastEntry().getValue());
+        readPosition = Math.max(checkpoint, position(segments.firstKey(), 0));
+    }
+
+    /**
+     * Finds where the last complete record in the given segment ends. Anything after that is a record which was still
+     * being written when the journal was last closed, and is overwritten by the next append.
+     */
+    private int endOfRecords(MappedByteBuffer segment) {
+        int offset = 0;
+        while (record(segment, offset) != null) {
+            offset += HeaderSize + segment.getInt(offset);
+        }
+        return offset;
+    }
+
+    private Record read() {
+        Record record = peek();
+        if (record != null) {
+            unacknowledged.add(record.getPosition());
+            readPosition = record.getPosition() + HeaderSize + record.getPayload().length;
+        }
+        return record;
+    }
+
+    private Record peek() {
+        while (true) {
+            long segment = segment(readPosition);
+            int offset = offset(readPosition);
+            byte[] payload = segments.containsKey(segment) ? record(segments.get(segment), offset) : null;
+            if (payload != null) {
+                return new Record(readPosition, payload);
+            }
+            if (segment >= writeSegment) {
+                return null;
+            }
+            if (segments.containsKey(segment) && offset + HeaderSize <= segmentSize && segments.get(segment).getInt(offset) != 0) {
+                Logger.warn("Skipping unreadable record at offset %s of journal segment %s", offset, segment);
+            }
+            readPosition = position(segments.higherKey(segment), 0);
+        }
+    }
+
+    private byte[] record(MappedByteBuffer segment, int offset) {
+        if (offset + HeaderSize > segmentSize) {
+            return null;
+        }
+        int length = segment.getInt(offset);
+        if (length <= 0 || offset + HeaderSize + length > segmentSize) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position(offset + HeaderSize);
+        buffer.get(payload);
+        return checksum(payload) == segment.getInt(offset + 4) ? payload : null;
+    }
+
+    private void deleteSegmentsBefore(long segment) {
+        Iterator<Map.Entry<Long, MappedByteBuffer>> iterator = segments.headMap(segment).entrySet().iterator();
+        while (iterator.hasNext()) {
+            File file = segmentFile(iterator.next().getKey());
+            iterator.remove();
+            if (!file.delete()) {
+                Logger.warn("Failed to delete acknowledged journal segment %s", file);
+            }
+        }
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        return map(segmentFile(segment), segmentSize);
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format("%s%020d%s", SegmentPrefix, segment, SegmentSuffix));
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw"); FileChannel channel = randomAccessFile.getChannel()) {
+            if (randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+            return channel.map(MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Positions combine the segment number in the high 32 bits with the offset in that segment in the low 32 bits
+     */
+    private static long position(long segment, int offset) {
+        return segment << 32 | offset;
+    }
+
+    private static long segment(long position) {
+        return position >>> 32;
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    public static class Record {
+        private final long position;
+        private final byte[] payload;
+
+        Record(long position, byte[] payload) {
+            this.position = position;
+            this.payload = payload;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.outbox;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.atomicleopard.thundr.sendgrid.SendGridException;
+import com.atomicleopard.thundr.sendgrid.SendGridExecutor;
+import com.atomicleopard.thundr.sendgrid.outbox.MailJournal.Record;
+import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.mail.MailException;
+
+/**
+ * Stores emails in a {@link MailJournal} so that sending them returns as soon as they are on disk, and delivers them to
+ * SendGrid from a pool of background workers. Emails still in the journal when the application stops, including any
+ * being sent at the time, are delivered once the outbox is started again, so an email may occasionally be delivered
+ * twice but is not lost.
+ *
+ * Workers retry emails which fail for transient reasons, such as SendGrid being unreachable, until they are delivered.
+ * Emails SendGrid rejects outright are logged and dropped, as are emails whose sender keeps failing unexpectedly.
+ *
+ * <pre>
+ * <code>
+ * MailOutbox outbox = new MailOutbox(new File("/var/spool/sendgrid"));
+ * mailer.setOutbox(outbox);
+ * outbox.start(mailer::sendPayload);
+ * </code>
+ * </pre>
+ */
+public class MailOutbox implements Closeable {
+    public static final int DefaultWorkers = 4;
+    public static final long DefaultMaxBackoffMillis = 60000;
+    private static final long PollMillis = 250;
+    private static final long InitialBackoffMillis = 100;
+    private static final int MaxUnexpectedFailures = 5;
+
+    protected final MailJournal journal;
+    protected final int workers;
+    private ExecutorService executorService;
+    private volatile boolean running;
+
+    public MailOutbox(File directory) {
+        this(directory, DefaultWorkers);
+    }
+
+    public MailOutbox(File directory, int workers) {
+        this(open(directory), workers);
+    }
+
+    public MailOutbox(MailJournal journal, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException(String.format("workers must be at least 1, was %s", workers));
+        }
+        this.journal = journal;
+        this.workers = workers;
+    }
+
+    public MailJournal getJournal() {
+        return journal;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Stores the given request body to be delivered by the workers
+     */
+    public void append(byte[] payload) throws IOException {
+        journal.append(payload);
+    }
+
+    /**
+     * Starts the workers, which deliver stored emails using the given sender, beginning with any left undelivered when
+     * the outbox was last closed. The sender throws a {@link SendGridException} when an email is not accepted.
+     */
+    public synchronized void start(Consumer<byte[]> sender) {
+        if (executorService != null) {
+            throw new IllegalStateException("The outbox has already been started");
+        }
+        running = true;
+        executorService = Executors.newFixedThreadPool(workers, new SendGridExecutor.DaemonThreadFactory("sendgrid-outbox-"));
+        for (int i = 0; i < workers; i++) {
+            executorService.execute(() -> drain(sender));
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops the workers, waiting for the emails they are sending to complete, and closes the journal. Emails which have
+     * not been delivered remain in the journal.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        running = false;
+        if (executorService != null) {
+            executorService.shutdownNow();
+            try {
+                executorService.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    protected void drain(Consumer<byte[]> sender) {
+        try {
+            while (running) {
+                try {
+                    Record record = journal.next(PollMillis, TimeUnit.MILLISECONDS);
+                    if (record != null && deliver(sender, record)) {
+                        journal.ack(record.getPosition());
+                    }
+                } catch (RuntimeException e) {
+                    // keep the worker alive, otherwise the journal would stop draining
+                    Logger.error(e, "Failed to read the Sendgrid outbox, retrying in %sms: %s", PollMillis, e.getMessage());
+                    Thread.sleep(PollMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true once the record has been delivered or dropped, false if the outbox stopped before then
+     */
+    protected boolean deliver(Consumer<byte[]> sender, Record record) throws InterruptedException {
+        long backoff = InitialBackoffMillis;
+        int unexpectedFailures = 0;
+        while (running) {
+            try {
+                sender.accept(record.getPayload());
+                return true;
+            } catch (SendGridException e) {
+                if (!running) {
+                    return false;
+                }
+                if (!e.isTransient()) {
+                    Logger.error(e, "Dropping email from the Sendgrid outbox which Sendgrid rejected: %s", e.getMessage());
+                    return true;
+                }
+                Logger.warn("Failed to deliver email from the Sendgrid outbox, retrying in %sms: %s", backoff, e.getMessage());
+            } catch (MailException e) {
+                if (!running) {
+                    // interrupted by close, the email is delivered when the outbox is next started
+                    return false;
+                }
+                Logger.error(e, "Dropping email from the Sendgrid outbox which could not be sent: %s", e.getMessage());
+                return true;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return false;
+                }
+                if (++unexpectedFailures >= MaxUnexpectedFailures) {
+                    Logger.error(e, "Dropping email from the Sendgrid outbox after %s unexpected failures: %s", unexpectedFailures, e.getMessage());
+                    return true;
+                }
+                Logger.error(e, "Unexpected failure delivering email from the Sendgrid outbox, retrying in %sms: %s", backoff, e.getMessage());
+            }
+            Thread.sleep(backoff);
+            backoff = Math.min(DefaultMaxBackoffMillis, backoff * 2);
+        }
+        return false;
+    }
+
+    private static MailJournal open(File directory) {
+        try {
+            return new MailJournal(directory);
+        } catch (IOException e) {
+            throw new MailException(e, "Failed to open the Sendgrid outbox in %s: %s", directory, e.getMessage());
+        }
+    }
+}
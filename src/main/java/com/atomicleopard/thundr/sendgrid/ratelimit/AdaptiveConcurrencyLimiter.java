@@ -0,0 +1,182 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.ratelimit;
+
+import com.threewks.thundr.mail.MailException;
+
+/**
+ * Limits the number of requests in flight to SendGrid, finding the highest limit SendGrid sustains as its performance
+ * changes through the day. The limit grows additively, by one for each limit's worth of requests which complete
+ * successfully and quickly while the limit is in use. It shrinks multiplicatively, by the backoff ratio, when a request
+ * fails with a rate limit, server error or no response, or takes longer than the latency tolerance times the baseline
+ * round trip. The round trip of a request larger than {@value #ReferencePayloadBytes} bytes is scaled down by its size,
+ * so the time spent uploading a large attachment is not mistaken for SendGrid slowing down.
+ *
+ * The baseline follows the fastest recent round trips: it drops immediately to a faster round trip and rises slowly
+ * towards slower ones, so a SendGrid which is slower for hours does not hold the limit down for good. The limit is cut
+ * at most once for the requests in flight when it was last cut, so a burst of failures cuts it once rather than
+ * collapsing it.
+ *
+ * Requests over the limit wait in {@link #acquire()} for a slot, {@link #getQueued()} reports how many are waiting.
+ */
+public class AdaptiveConcurrencyLimiter {
+    public static final int DefaultInitialLimit = 10;
+    public static final int DefaultMaxLimit = 200;
+    public static final double DefaultBackoffRatio = 0.9;
+    public static final double DefaultLatencyTolerance = 2.0;
+    public static final long ReferencePayloadBytes = 64 * 1024;
+    private static final int BaselineDrift = 100;
+
+    protected final int maxLimit;
+    protected final double backoffRatio;
+    protected final double latencyTolerance;
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long baselineNanos;
+    private long lastDecrease = Long.MIN_VALUE;
+
+    public AdaptiveConcurrencyLimiter() {
+        this(DefaultInitialLimit, DefaultMaxLimit);
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit) {
+        this(initialLimit, maxLimit, DefaultBackoffRatio, DefaultLatencyTolerance);
+    }
+
+    /**
+     * @param backoffRatio the fraction of the limit kept when it is cut, between 0 and 1
+     * @param latencyTolerance how many times slower than the baseline a round trip may be before the limit is cut
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit, double backoffRatio, double latencyTolerance) {
+        if (initialLimit < 1 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException(String.format("initialLimit must be at least 1 and at most maxLimit, was %s with a maxLimit of %s", initialLimit, maxLimit));
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException(String.format("backoffRatio must be greater than 0 and less than 1, was %s", backoffRatio));
+        }
+        if (latencyTolerance <= 1) {
+            throw new IllegalArgumentException(String.format("latencyTolerance must be greater than 1, was %s", latencyTolerance));
+        }
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Blocks until a request may be sent
+     *
+     * @return the time the request was allowed, to be passed to {@link #release(long, boolean)} once it completes
+     * @throws MailException if interrupted while waiting
+     */
+    public synchronized long acquire() {
+        queued++;
+        try {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            // pass on a wake up this thread may have been given, so a free slot is not left unused
+            notify();
+            Thread.currentThread().interrupt();
+            throw new MailException("Interrupted while waiting to send email through Sendgrid");
+        } finally {
+            queued--;
+        }
+        inFlight++;
+        return now();
+    }
+
+    /**
+     * Frees the slot of a completed request and adjusts the limit to how it went
+     *
+     * @param acquired the value returned by {@link #acquire()} for the request
+     * @param failed true if SendGrid was overloaded or unavailable, rather than rejecting the request itself
+     */
+    public void release(long acquired, boolean failed) {
+        release(acquired, failed, 0);
+    }
+
+    /**
+     * Frees the slot of a completed request and adjusts the limit to how it went
+     *
+     * @param acquired the value returned by {@link #acquire()} for the request
+     * @param failed true if SendGrid was overloaded or unavailable, rather than rejecting the request itself
+     * @param payloadBytes the size of the request body, or 0 if it is not known
+     */
+    public synchronized void release(long acquired, boolean failed, long payloadBytes) {
+        long now = now();
+        long roundTrip = now - acquired;
+        if (payloadBytes > ReferencePayloadBytes) {
+            roundTrip = (long) (roundTrip * ((double) ReferencePayloadBytes / payloadBytes));
+        }
+        int slots = (int) limit;
+        boolean slow = baselineNanos > 0 && roundTrip > baselineNanos * latencyTolerance;
+        if (!failed) {
+            baselineNanos = baselineNanos == 0 || roundTrip < baselineNanos ? roundTrip : baselineNanos + (roundTrip - baselineNanos) / BaselineDrift;
+        }
+        if (failed || slow) {
+            if (acquired >= lastDecrease) {
+                limit = Math.max(1, limit * backoffRatio);
+                lastDecrease = now;
+            }
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        inFlight--;
+        // each release frees one slot, and one more if the limit grew past a whole slot
+        notify();
+        if ((int) limit > slots) {
+            notify();
+        }
+    }
+
+    /**
+     * @return the number of requests currently allowed in flight
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of requests waiting for a slot
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return the round trip time the limiter currently considers normal, or 0 before any request has completed
+     */
+    public synchronized double getBaselineMillis() {
+        return baselineNanos / 1000000.0;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    protected long now() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.ratelimit;
+
+import java.util.Map;
+
+import com.sendgrid.Response;
+
+/**
+ * The <code>X-RateLimit-*</code> headers SendGrid returns with each response, describing the request budget for the
+ * current rate limit window.
+ */
+public class RateLimitHeaders {
+    public static final String Limit = "X-RateLimit-Limit";
+    public static final String Remaining = "X-RateLimit-Remaining";
+    public static final String Reset = "X-RateLimit-Reset";
+
+    private final long limit;
+    private final long remaining;
+    private final long reset;
+
+    public RateLimitHeaders(long limit, long remaining, long reset) {
+        this.limit = limit;
+        this.remaining = remaining;
+        this.reset = reset;
+    }
+
+    /**
+     * @return the rate limit headers of the given response, or null if it does not have them all
+     */
+    public static RateLimitHeaders from(Response response) {
+        Long limit = header(response, Limit);
+        Long remaining = header(response, Remaining);
+        Long reset = header(response, Reset);
+        return limit == null || remaining == null || reset == null ? null : new RateLimitHeaders(limit, remaining, reset);
+    }
+
+    /**
+     * @return the number of requests allowed in each window
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of requests left in the current window
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * @return the time the current window ends, in seconds since the epoch
+     */
+    public long getReset() {
+        return reset;
+    }
+
+    public long getResetMillis() {
+        return reset * 1000;
+    }
+
+    /**
+     * Header names are matched ignoring case, as the SendGrid client keeps them as received
+     */
+    private static Long header(Response response, String name) {
+        if (response.headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                try {
+                    return Long.parseLong(header.getValue().trim());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+}
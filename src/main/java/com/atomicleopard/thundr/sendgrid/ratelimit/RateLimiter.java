@@ -0,0 +1,167 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.ratelimit;
+
+import com.sendgrid.Response;
+import com.threewks.thundr.mail.MailException;
+
+/**
+ * A token bucket which paces requests to SendGrid. The bucket starts at the configured rate, or unlimited, and learns
+ * the account limit from the <code>X-RateLimit-*</code> headers of each response: the requests remaining in the current
+ * window are spread evenly until the window resets, keeping a share of them in reserve as headroom.
+ */
+public class RateLimiter {
+    public static final double DefaultHeadroom = 0.9;
+
+    protected final double headroom;
+    protected final double defaultRate;
+    private double capacity;
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long resetAt;
+
+    /**
+     * Creates a limiter with no limit until one is learned from SendGrid's responses
+     */
+    public RateLimiter() {
+        this(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param permitsPerSecond the rate to allow until one is learned from SendGrid's responses
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, DefaultHeadroom);
+    }
+
+    /**
+     * @param headroom the fraction of SendGrid's limit to use, between 0 and 1
+     */
+    public RateLimiter(double permitsPerSecond, double headroom) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException(String.format("permitsPerSecond must be greater than 0, was %s", permitsPerSecond));
+        }
+        if (headroom <= 0 || headroom > 1) {
+            throw new IllegalArgumentException(String.format("headroom must be greater than 0 and at most 1, was %s", headroom));
+        }
+        this.headroom = headroom;
+        this.defaultRate = permitsPerSecond / 1000;
+        this.rate = defaultRate;
+        this.capacity = Math.max(1, permitsPerSecond);
+        this.tokens = capacity;
+        this.lastRefill = now();
+    }
+
+    /**
+     * Blocks until a request may be sent
+     *
+     * @throws MailException if interrupted while waiting
+     */
+    public void acquire() {
+        long wait;
+        while ((wait = tryAcquire()) > 0) {
+            try {
+                sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MailException("Interrupted while waiting to send email through Sendgrid");
+            }
+        }
+    }
+
+    /**
+     * Takes a permit if one is available
+     *
+     * @return 0 if a permit was taken, otherwise the number of milliseconds until one is expected to be available
+     */
+    public synchronized long tryAcquire() {
+        long now = now();
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        long wait = (long) Math.ceil((1 - tokens) / rate);
+        if (resetAt > now) {
+            wait = Math.min(wait, resetAt - now);
+        }
+        return Math.max(1, wait);
+    }
+
+    /**
+     * Adjusts the rate to the budget described by the rate limit headers of the given response, if present
+     */
+    public void update(Response response) {
+        RateLimitHeaders headers = RateLimitHeaders.from(response);
+        if (headers != null) {
+            update(headers);
+        }
+    }
+
+    public synchronized void update(RateLimitHeaders headers) {
+        long now = now();
+        long untilReset = headers.getResetMillis() - now;
+        if (untilReset <= 0) {
+            return;
+        }
+        refill(now);
+        double budget = headers.getRemaining() * headroom;
+        capacity = Math.max(1, headers.getLimit() * headroom);
+        tokens = Math.min(tokens, budget);
+        rate = Math.max(1, budget) / untilReset;
+        resetAt = headers.getResetMillis();
+    }
+
+    /**
+     * @return the current rate in requests per second
+     */
+    public synchronized double getRate() {
+        return rate * 1000;
+    }
+
+    /**
+     * @return the number of requests which can currently be sent without waiting
+     */
+    public synchronized double getAvailable() {
+        refill(now());
+        return tokens;
+    }
+
+    private void refill(long now) {
+        if (resetAt != 0 && now >= resetAt) {
+            // a new window has started, SendGrid's budget is full again
+            tokens = Math.max(tokens, capacity);
+            rate = defaultRate;
+            resetAt = 0;
+        } else if (Double.isInfinite(rate)) {
+            tokens = capacity;
+        } else {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate);
+        }
+        lastRefill = now;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    protected void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.ratelimit;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.sendgrid.Response;
+
+/**
+ * Decides whether and when a request rejected by SendGrid is retried. Requests which were rate limited (429) or failed
+ * on SendGrid's side (5xx) are retried with jittered exponential backoff. When SendGrid reports when the rate limit
+ * window resets, a rate limited request is not retried before then.
+ */
+public class RetryPolicy {
+    public static final int DefaultMaxRetries = 3;
+    public static final long DefaultBaseDelayMillis = 100;
+    public static final long DefaultMaxDelayMillis = 30000;
+
+    protected final int maxRetries;
+    protected final long baseDelayMillis;
+    protected final long maxDelayMillis;
+
+    public RetryPolicy() {
+        this(DefaultMaxRetries, DefaultBaseDelayMillis, DefaultMaxDelayMillis);
+    }
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param retries the number of times the request has already been retried
+     */
+    public boolean shouldRetry(Response response, int retries) {
+        return retries < maxRetries && isRetryable(response.statusCode);
+    }
+
+    public boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * @param retries the number of times the request has already been retried
+     * @return the number of milliseconds to wait before retrying the request which received the given response
+     */
+    public long delay(Response response, int retries) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retries, 30));
+        long delay = random(ceiling / 2, ceiling);
+        RateLimitHeaders headers = response.statusCode == 429 ? RateLimitHeaders.from(response) : null;
+        if (headers != null) {
+            long untilReset = headers.getResetMillis() - now();
+            if (untilReset > 0) {
+                // wait for the window to reset, spreading retries over the backoff so they do not all arrive at once
+                delay = Math.min(maxDelayMillis, untilReset + random(0, ceiling));
+            }
+        }
+        return delay;
+    }
+
+    protected long random(long min, long max) {
+        return max <= min ? min : ThreadLocalRandom.current().nextLong(min, max + 1);
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.suppression;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A compact set of suppressed email addresses, such as those which have bounced, unsubscribed or reported spam, used to
+ * drop recipients before an email is rendered or sent.
+ *
+ * Addresses are held as 64 bit fingerprints of their normalized form in an open addressing table of primitive longs,
+ * taking around 12 bytes per address rather than the hundred or so a set of strings would. Lookups do not block: they
+ * read optimistically and only take a lock if the table changed underneath them.
+ *
+ * An index can be loaded from a snapshot, either one written by {@link #save(File)} or a list of addresses, one per
+ * line, such as a CSV export of SendGrid suppressions. It is kept up to date by adding and removing addresses directly,
+ * or by applying a changes file with {@link #refresh(File)}. A snapshot records how far the changes file had been
+ * applied, so an index loaded from it only applies the changes made since.
+ */
+public class SuppressionIndex {
+    private static final int Magic = 0x53474958;
+    private static final int Version = 2;
+    private static final double MaxLoad = 0.7;
+    private static final long Empty = 0;
+    private static final long Zero = 0x9E3779B97F4A7C15L;
+
+    private final StampedLock lock = new StampedLock();
+    private long[] table;
+    private int size;
+    private long changesOffset;
+
+    public SuppressionIndex() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedSize the number of addresses to make room for up front
+     */
+    public SuppressionIndex(int expectedSize) {
+        this.table = new long[capacity(expectedSize)];
+    }
+
+    public boolean contains(String email) {
+        return email != null && contains(fingerprint(email));
+    }
+
+    public boolean contains(long fingerprint) {
+        long stamp = lock.tryOptimisticRead();
+        boolean found = find(table, fingerprint) >= 0;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = find(table, fingerprint) >= 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return true if the address was not already suppressed
+     */
+    public boolean add(String email) {
+        return add(fingerprint(email));
+    }
+
+    public boolean add(long fingerprint) {
+        long stamp = lock.writeLock();
+        try {
+            return insert(fingerprint);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return true if the address was suppressed
+     */
+    public boolean remove(String email) {
+        return remove(fingerprint(email));
+    }
+
+    public boolean remove(long fingerprint) {
+        long stamp = lock.writeLock();
+        try {
+            return delete(fingerprint);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            table = new long[capacity(0)];
+            size = 0;
+            changesOffset = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the position in the changes file up to which it has been applied
+     */
+    public synchronized long getChangesOffset() {
+        return changesOffset;
+    }
+
+    /**
+     * @return the number of bytes held by the table
+     */
+    public long getMemoryBytes() {
+        return table.length * 8L;
+    }
+
+    /**
+     * Writes a snapshot of this index, which {@link #load(File)} reads back far faster than a list of addresses. The
+     * snapshot is written to a temporary file and moved into place, so readers never see a partial snapshot.
+     */
+    public void save(File snapshot) throws IOException {
+        File temp = new File(snapshot.getPath() + ".tmp");
+        long stamp = lock.readLock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536))) {
+            out.writeInt(Magic);
+            out.writeInt(Version);
+            out.writeInt(size);
+            out.writeLong(getChangesOffset());
+            for (long fingerprint : table) {
+                if (fingerprint != Empty) {
+                    out.writeLong(fingerprint);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a snapshot written by {@link #save(File)}, or a list of addresses one per line. Only the first comma
+     * separated column of each line is read, and lines without an address, such as a CSV header, are skipped.
+     */
+    public static SuppressionIndex load(File snapshot) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(snapshot), 65536)) {
+            in.mark(4);
+            DataInputStream data = new DataInputStream(in);
+            if (snapshot.length() >= 12 && data.readInt() == Magic) {
+                return loadSnapshot(data);
+            }
+            in.reset();
+            return loadAddresses(in, snapshot.length());
+        }
+    }
+
+    /**
+     * Applies the lines appended to the given changes file since it was last applied. A line holding an address, or an
+     * address prefixed with <code>+</code>, suppresses it, and one prefixed with <code>-</code> removes it. If the file
+     * has been truncated or replaced by a shorter one, it is applied from the start.
+     *
+     * @return the number of lines applied
+     */
+    public synchronized int refresh(File changes) throws IOException {
+        if (!changes.exists()) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(changes.toPath(), StandardOpenOption.READ)) {
+            long offset = changesOffset;
+            if (channel.size() < offset) {
+                offset = 0;
+            }
+            channel.position(offset);
+            InputStream in = Channels.newInputStream(channel);
+            byte[] buffer = new byte[65536];
+            byte[] line = new byte[256];
+            int length = 0;
+            int applied = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        applied += apply(new String(line, 0, length, StandardCharsets.UTF_8)) ? 1 : 0;
+                        // only whole lines are consumed, an incomplete last line is read again on the next refresh
+                        offset += length + 1;
+                        length = 0;
+                    } else {
+                        if (length == line.length) {
+                            line = Arrays.copyOf(line, length * 2);
+                        }
+                        line[length++] = buffer[i];
+                    }
+                }
+            }
+            changesOffset = offset;
+            return applied;
+        }
+    }
+
+    /**
+     * @return a 64 bit hash of the given address, ignoring case and surrounding whitespace
+     */
+    public static long fingerprint(String email) {
+        String normalized = email.trim().toLowerCase(Locale.ROOT);
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < normalized.length(); i++) {
+            hash ^= normalized.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash == Empty ? Zero : hash;
+    }
+
+    private boolean apply(String line) {
+        String change = line.trim();
+        if (change.startsWith("-")) {
+            remove(change.substring(1));
+            return true;
+        }
+        String email = change.startsWith("+") ? change.substring(1) : change;
+        if (email.indexOf('@') < 0) {
+            return false;
+        }
+        add(email);
+        return true;
+    }
+
+    private static SuppressionIndex loadSnapshot(DataInputStream data) throws IOException {
+        int version = data.readInt();
+        if (version < 1 || version > Version) {
+            throw new IOException("Unsupported suppression snapshot version " + version);
+        }
+        int count = data.readInt();
+        SuppressionIndex index = new SuppressionIndex(count);
+        // version 1 snapshots did not record the changes offset, so the changes are applied from the start
+        index.changesOffset = version == 1 ? 0 : data.readLong();
+        for (int i = 0; i < count; i++) {
+            index.insert(data.readLong());
+        }
+        return index;
+    }
+
+    private static SuppressionIndex loadAddresses(InputStream in, long length) throws IOException {
+        SuppressionIndex index = new SuppressionIndex((int) Math.min(length / 24, Integer.MAX_VALUE / 2));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comma = line.indexOf(',');
+            String email = (comma < 0 ? line : line.substring(0, comma)).replace("\"", "").trim();
+            if (email.indexOf('@') > 0) {
+                index.insert(fingerprint(email));
+            }
+        }
+        return index;
+    }
+
+    private static int capacity(int expectedSize) {
+        int capacity = 16;
+        while (capacity * MaxLoad < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int find(long[] table, long fingerprint) {
+        int mask = table.length - 1;
+        int slot = (int) fingerprint & mask;
+        for (int i = 0; i < table.length; i++) {
+            long value = table[slot];
+            if (value == fingerprint) {
+                return slot;
+            }
+            if (value == Empty) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean insert(long fingerprint) {
+        if (find(table, fingerprint) >= 0) {
+            return false;
+        }
+        if (size + 1 > table.length * MaxLoad) {
+            resize(table.length << 1);
+        }
+        place(table, fingerprint);
+        size++;
+        return true;
+    }
+
+    private static void place(long[] table, long fingerprint) {
+        int mask = table.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (table[slot] != Empty) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = fingerprint;
+    }
+
+    private void resize(int capacity) {
+        long[] resized = new long[capacity];
+        for (long fingerprint : table) {
+            if (fingerprint != Empty) {
+                place(resized, fingerprint);
+            }
+        }
+        table = resized;
+    }
+
+    /**
+     * Removes by shifting back later entries of the same probe sequence, so no tombstones are left behind
+     */
+    private boolean delete(long fingerprint) {
+        int slot = find(table, fingerprint);
+        if (slot < 0) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int next = (slot + 1) & mask;
+        while (table[next] != Empty) {
+            int home = (int) table[next] & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                table[slot] = table[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[slot] = Empty;
+        size--;
+        return true;
+    }
+}
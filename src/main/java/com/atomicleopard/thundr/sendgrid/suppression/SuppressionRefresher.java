@@ -0,0 +1,92 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.suppression;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.atomicleopard.thundr.sendgrid.SendGridExecutor;
+import com.threewks.thundr.logger.Logger;
+
+/**
+ * Applies a changes file to a {@link SuppressionIndex} on a fixed interval, so that addresses suppressed by another
+ * process reach the index without reloading it.
+ */
+public class SuppressionRefresher implements Closeable {
+    public static final long DefaultIntervalMillis = 60000;
+
+    protected final SuppressionIndex index;
+    protected final File changes;
+    protected final long intervalMillis;
+    private ScheduledExecutorService scheduler;
+
+    public SuppressionRefresher(SuppressionIndex index, File changes, long intervalMillis) {
+        this.index = index;
+        this.changes = changes;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public SuppressionIndex getIndex() {
+        return index;
+    }
+
+    public File getChanges() {
+        return changes;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Applies the changes file now, then every interval
+     */
+    public synchronized void start() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new SendGridExecutor.DaemonThreadFactory("sendgrid-suppression-"));
+            scheduler.scheduleWithFixedDelay(this::refresh, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    protected void refresh() {
+        try {
+            int applied = index.refresh(changes);
+            if (applied > 0) {
+                Logger.info("Applied %s suppression changes from %s, %s addresses are suppressed", applied, changes, index.size());
+            }
+        } catch (IOException e) {
+            Logger.warn("Failed to apply suppression changes from %s: %s", changes, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.atomicleopard.thundr.sendgrid.metrics.Stage;
+
+/**
+ * Gzip compresses a request body as it is written to the connection, so the compressed body is never held in memory.
+ * Each write reports the size of the body before and after compression, and the time spent compressing it, which
+ * excludes the time spent writing to the connection.
+ */
+public class GzipEntity extends HttpEntityWrapper {
+    private static final int BufferSize = 8192;
+    private static final Header ContentEncoding = new BasicHeader("Content-Encoding", "gzip");
+
+    private final SendGridMetrics metrics;
+
+    public GzipEntity(HttpEntity wrapped, SendGridMetrics metrics) {
+        super(wrapped);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return ContentEncoding;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /**
+     * Compresses the whole body into memory, for callers which read the entity rather than write it. Sending writes it
+     * through {@link #writeTo(OutputStream)} instead, which never holds the compressed body.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, BufferSize)) {
+            wrappedEntity.writeTo(gzip);
+        }
+        return new ByteArrayInputStream(compressed.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        TimedOutputStream connection = new TimedOutputStream(outputStream);
+        GZIPOutputStream gzip = new GZIPOutputStream(connection, BufferSize);
+        TimedOutputStream body = new TimedOutputStream(gzip);
+        wrappedEntity.writeTo(body);
+        long start = System.nanoTime();
+        gzip.finish();
+        long finish = System.nanoTime() - start;
+        connection.flush();
+        metrics.recordLatency(Stage.Compress, body.nanos + finish - connection.nanos);
+        metrics.recordCompression(body.bytes, connection.bytes);
+    }
+
+    /**
+     * Counts the bytes written through it and the time spent writing them
+     */
+    private static class TimedOutputStream extends FilterOutputStream {
+        private long bytes;
+        private long nanos;
+
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+            bytes += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
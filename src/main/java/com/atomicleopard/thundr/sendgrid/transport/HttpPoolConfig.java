@@ -0,0 +1,157 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * Connection pool and timeout settings for a {@link StreamingHttpTransport} or {@link PooledHttpTransport}, and the
+ * HTTP clients built from them. All times are in milliseconds.
+ */
+public class HttpPoolConfig {
+    private int maxConnections = 50;
+    private int connectTimeout = 5000;
+    private int readTimeout = 30000;
+    private int connectionRequestTimeout = 30000;
+    private int idleTimeout = 30000;
+    private int validateAfterInactivity = 2000;
+
+    /**
+     * The maximum number of open connections to SendGrid, which is also the maximum number of concurrent requests
+     */
+    public HttpPoolConfig maxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public HttpPoolConfig connectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * The maximum time to wait for data once connected
+     */
+    public HttpPoolConfig readTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * The maximum time to wait for a connection from the pool when all connections are in use
+     */
+    public HttpPoolConfig connectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+        return this;
+    }
+
+    /**
+     * How long a connection can sit unused in the pool before it is closed
+     */
+    public HttpPoolConfig idleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * How long a connection can sit unused before it is checked for staleness when leased
+     */
+    public HttpPoolConfig validateAfterInactivity(int validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+        return this;
+    }
+
+    public int maxConnections() {
+        return maxConnections;
+    }
+
+    public int connectTimeout() {
+        return connectTimeout;
+    }
+
+    public int readTimeout() {
+        return readTimeout;
+    }
+
+    public int connectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    public int idleTimeout() {
+        return idleTimeout;
+    }
+
+    public int validateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    /**
+     * A client that keeps up to {@link #maxConnections()} connections to SendGrid and applies the configured timeouts,
+     * rather than the two connections and unbounded waits of {@link HttpClients#createDefault()}
+     */
+    public CloseableHttpClient httpClient() {
+        return httpClientBuilder(connectionManager(ManagedHttpClientConnectionFactory.INSTANCE)).build();
+    }
+
+    /**
+     * @return a builder for a client over the given connection manager which applies the configured timeouts and
+     *         closes idle connections, for callers which customize the client further
+     */
+    public HttpClientBuilder httpClientBuilder(PoolingHttpClientConnectionManager connectionManager) {
+        // @formatter:off
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig())
+                .evictExpiredConnections()
+                .evictIdleConnections((long) idleTimeout, TimeUnit.MILLISECONDS);
+        // @formatter:on
+    }
+
+    /**
+     * @param connectionFactory opens the connections of the pool
+     */
+    public PoolingHttpClientConnectionManager connectionManager(HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(connectionFactory);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivity);
+        connectionManager.setDefaultConnectionConfig(ConnectionConfig.DEFAULT);
+        return connectionManager;
+    }
+
+    public RequestConfig requestConfig() {
+        // @formatter:off
+        return RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeout)
+                .build();
+        // @formatter:on
+    }
+}
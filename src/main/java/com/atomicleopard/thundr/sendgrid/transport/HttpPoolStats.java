@@ -0,0 +1,84 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+/**
+ * A point in time snapshot of the state and connection reuse of a {@link PooledHttpTransport}.
+ */
+public class HttpPoolStats {
+    private final int leased;
+    private final int available;
+    private final int pending;
+    private final int max;
+    private final long requests;
+    private final long connectionsOpened;
+
+    public HttpPoolStats(int leased, int available, int pending, int max, long requests, long connectionsOpened) {
+        this.leased = leased;
+        this.available = available;
+        this.pending = pending;
+        this.max = max;
+        this.requests = requests;
+        this.connectionsOpened = connectionsOpened;
+    }
+
+    /**
+     * @return the number of connections currently in use
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return the number of open connections idle in the pool
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * @return the number of requests waiting for a connection
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened;
+    }
+
+    /**
+     * @return the proportion of requests which were sent on an already open connection
+     */
+    public double getReuseRate() {
+        return requests == 0 ? 0 : Math.max(0, 1 - (double) connectionsOpened / requests);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s leased, %s available, %s pending, %s max, %s requests, %s connections opened", leased, available, pending, max, requests, connectionsOpened);
+    }
+}
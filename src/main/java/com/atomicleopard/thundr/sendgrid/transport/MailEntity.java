@@ -0,0 +1,126 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sendgrid.Attachments;
+import com.sendgrid.Content;
+import com.sendgrid.Mail;
+
+/**
+ * A request body which serializes a {@link Mail} as JSON directly to the connection as it is sent, using chunked
+ * transfer encoding. The entity is repeatable, each write serializes the mail again.
+ */
+public class MailEntity extends AbstractHttpEntity {
+    private final Mail mail;
+    private final ObjectMapper objectMapper;
+    private final SendGridMetrics metrics;
+
+    public MailEntity(Mail mail, ObjectMapper objectMapper) {
+        this(mail, objectMapper, SendGridMetrics.NoOp);
+    }
+
+    /**
+     * @param metrics receives the size of the body each time it is written
+     */
+    public MailEntity(Mail mail, ObjectMapper objectMapper, SendGridMetrics metrics) {
+        this.mail = mail;
+        this.objectMapper = objectMapper;
+        this.metrics = metrics;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(true);
+    }
+
+    public Mail getMail() {
+        return mail;
+    }
+
+    /**
+     * @return roughly the size of the body, from the size of its content and attachments, without serializing it
+     */
+    public long estimateLength() {
+        return estimateLength(mail);
+    }
+
+    /**
+     * @see #estimateLength()
+     */
+    public static long estimateLength(Mail mail) {
+        long length = 512;
+        length += mail.getSubject() == null ? 0 : mail.getSubject().length();
+        if (mail.getContent() != null) {
+            for (Content content : mail.getContent()) {
+                length += content.getValue() == null ? 0 : content.getValue().length();
+            }
+        }
+        if (mail.getAttachments() != null) {
+            for (Attachments attachments : mail.getAttachments()) {
+                if (attachments instanceof StreamingAttachments) {
+                    length += (((StreamingAttachments) attachments).getLength() + 2) / 3 * 4;
+                } else if (attachments.getContent() != null) {
+                    length += attachments.getContent().length();
+                }
+            }
+        }
+        if (mail.getPersonalization() != null) {
+            length += mail.getPersonalization().size() * 128L;
+        }
+        return length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Builds the whole body in memory, prefer {@link #writeTo(OutputStream)}
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return new ByteArrayInputStream(objectMapper.writeValueAsBytes(mail));
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(outputStream);
+        objectMapper.writeValue(counting, mail);
+        counting.flush();
+        metrics.recordPayloadBytes(counting.getByteCount());
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
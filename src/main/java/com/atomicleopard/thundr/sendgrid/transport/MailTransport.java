@@ -0,0 +1,71 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.io.IOException;
+
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.sendgrid.Mail;
+import com.sendgrid.Response;
+
+/**
+ * Delivers a {@link Mail} to the SendGrid mail/send endpoint.
+ * 
+ * @see SendGridApiTransport
+ * @see StreamingHttpTransport
+ */
+public interface MailTransport {
+    /**
+     * @return the SendGrid response, whatever its status code
+     * @throws IOException if the request could not be completed
+     */
+    public Response send(Mail mail) throws IOException;
+
+    /**
+     * Sends a request body which has already been serialized, such as one read back from a
+     * {@link com.atomicleopard.thundr.sendgrid.outbox.MailOutbox}
+     * 
+     * @param payload the JSON request body, UTF-8 encoded
+     * @return the SendGrid response, whatever its status code
+     * @throws IOException if the request could not be completed
+     */
+    public Response send(byte[] payload) throws IOException;
+
+    /**
+     * @return true if this transport serializes each request directly to the connection, in which case attachments can be
+     *         supplied as {@link StreamingAttachments} and encoded as they are written
+     */
+    public boolean isStreaming();
+
+    /**
+     * Transports which serialize requests report serialization time and payload size to the given metrics
+     */
+    public default void setMetrics(SendGridMetrics metrics) {
+    }
+
+    /**
+     * Prepares this transport for its first request, so that it is no slower than those which follow. Transports may
+     * serialize the given sample, resolve the SendGrid host and open connections ahead of time.
+     * 
+     * @param sample an email like those which will be sent, which is serialized but never sent
+     * @param connections the number of connections to open, for transports which keep connections open
+     * @throws IOException if SendGrid could not be reached
+     */
+    public default void warmUp(Mail sample, int connections) throws IOException {
+    }
+}
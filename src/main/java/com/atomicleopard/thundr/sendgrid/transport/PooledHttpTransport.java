@@ -0,0 +1,139 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import com.sendgrid.Mail;
+
+/**
+ * A {@link StreamingHttpTransport} which keeps a pool of connections to SendGrid open between requests, so that
+ * concurrent sends reuse connections rather than paying for a new TLS handshake each time. Every request is bounded by
+ * the configured connect and read timeouts.
+ */
+public class PooledHttpTransport extends StreamingHttpTransport {
+    protected final PoolingHttpClientConnectionManager connectionManager;
+    protected final HttpPoolConfig config;
+    private final AtomicLong requests;
+    private final AtomicLong connectionsOpened;
+
+    public PooledHttpTransport(String apiKey) {
+        this(apiKey, DefaultBaseUrl, new HttpPoolConfig());
+    }
+
+    public PooledHttpTransport(String apiKey, String baseUrl, HttpPoolConfig config) {
+        this(apiKey, baseUrl, config, new AtomicLong(), new AtomicLong());
+    }
+
+    private PooledHttpTransport(String apiKey, String baseUrl, HttpPoolConfig config, AtomicLong requests, AtomicLong connectionsOpened) {
+        this(apiKey, baseUrl, config, connectionManager(config, connectionsOpened), requests, connectionsOpened);
+    }
+
+    private PooledHttpTransport(String apiKey, String baseUrl, HttpPoolConfig config, PoolingHttpClientConnectionManager connectionManager, AtomicLong requests, AtomicLong connectionsOpened) {
+        super(apiKey, baseUrl, httpClient(config, connectionManager, requests));
+        this.connectionManager = connectionManager;
+        this.config = config;
+        this.requests = requests;
+        this.connectionsOpened = connectionsOpened;
+    }
+
+    public HttpPoolStats getPoolStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return new HttpPoolStats(stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax(), requests.get(), connectionsOpened.get());
+    }
+
+    /**
+     * Opens up to the given number of connections to SendGrid, including the TLS handshake, and returns them to the
+     * pool for the first requests to use
+     */
+    @Override
+    public void warmUp(Mail sample, int connections) throws IOException {
+        super.warmUp(sample, connections);
+        HttpRoute route = route();
+        HttpClientContext context = HttpClientContext.create();
+        List<HttpClientConnection> opened = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(connections, config.maxConnections()); i++) {
+                HttpClientConnection connection = connectionManager.requestConnection(route, null).get(config.connectionRequestTimeout(), TimeUnit.MILLISECONDS);
+                opened.add(connection);
+                if (!connection.isOpen()) {
+                    connectionManager.connect(connection, route, config.connectTimeout(), context);
+                    connectionManager.routeComplete(connection, route, context);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted opening connections to SendGrid");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to open connections to SendGrid: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (HttpClientConnection connection : opened) {
+                connectionManager.releaseConnection(connection, null, config.idleTimeout(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return the route requests to the base url take, so that warmed up connections are reused by them
+     */
+    protected HttpRoute route() {
+        URI uri = URI.create(baseUrl);
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() != -1 ? uri.getPort() : secure ? 443 : 80;
+        return new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        connectionManager.shutdown();
+    }
+
+    protected static PoolingHttpClientConnectionManager connectionManager(HttpPoolConfig config, final AtomicLong connectionsOpened) {
+        final ManagedHttpClientConnectionFactory delegate = ManagedHttpClientConnectionFactory.INSTANCE;
+        HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = (route, connectionConfig) -> {
+            connectionsOpened.incrementAndGet();
+            return delegate.create(route, connectionConfig);
+        };
+        return config.connectionManager(connectionFactory);
+    }
+
+    protected static CloseableHttpClient httpClient(HttpPoolConfig config, PoolingHttpClientConnectionManager connectionManager, final AtomicLong requests) {
+        HttpRequestInterceptor counter = (request, context) -> requests.incrementAndGet();
+        return config.httpClientBuilder(connectionManager).addInterceptorFirst(counter).build();
+    }
+}
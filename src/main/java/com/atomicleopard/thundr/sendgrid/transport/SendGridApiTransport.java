@@ -0,0 +1,121 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.atomicleopard.thundr.sendgrid.metrics.Stage;
+import com.sendgrid.Mail;
+import com.sendgrid.Method;
+import com.sendgrid.Request;
+import com.sendgrid.Response;
+import com.sendgrid.SendGrid;
+
+/**
+ * Sends mail using the SendGrid published java client, which builds the whole request body in memory before sending it.
+ */
+public class SendGridApiTransport implements MailTransport {
+    protected final SendGrid sendgrid;
+    protected SendGridMetrics metrics = SendGridMetrics.NoOp;
+
+    public SendGridApiTransport(SendGrid sendgrid) {
+        this.sendgrid = sendgrid;
+    }
+
+    /**
+     * @param baseUrl the SendGrid API to send to, for example {@link StreamingHttpTransport#DefaultBaseUrl}
+     */
+    public SendGridApiTransport(String apiKey, String baseUrl) {
+        this(sendgrid(apiKey, baseUrl));
+    }
+
+    @Override
+    public void setMetrics(SendGridMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response send(Mail mail) throws IOException {
+        long start = System.nanoTime();
+        String body = mail.build();
+        metrics.recordLatency(Stage.Serialize, System.nanoTime() - start);
+        metrics.recordPayloadBytes(utf8Length(body));
+        return send(body);
+    }
+
+    @Override
+    public Response send(byte[] payload) throws IOException {
+        metrics.recordPayloadBytes(payload.length);
+        return send(new String(payload, StandardCharsets.UTF_8));
+    }
+
+    protected Response send(String body) throws IOException {
+        Request request = new Request();
+        request.method = Method.POST;
+        request.endpoint = "mail/send";
+        request.body = body;
+        return sendgrid.api(request);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void warmUp(Mail sample, int connections) throws IOException {
+        sample.build();
+        InetAddress.getAllByName(URI.create("https://" + sendgrid.getHost()).getHost());
+    }
+
+    static SendGrid sendgrid(String apiKey, String baseUrl) {
+        URI uri = URI.create(baseUrl);
+        SendGrid sendgrid = new SendGrid(apiKey, "http".equals(uri.getScheme()));
+        sendgrid.setHost(uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+        String version = uri.getPath().replaceAll("^/+|/+$", "");
+        if (!version.isEmpty()) {
+            sendgrid.setVersion(version);
+        }
+        return sendgrid;
+    }
+
+    /**
+     * @return the number of bytes the given string takes when UTF-8 encoded, without encoding it
+     */
+    static long utf8Length(CharSequence value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
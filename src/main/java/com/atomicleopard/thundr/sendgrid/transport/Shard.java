@@ -0,0 +1,108 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimiter;
+
+/**
+ * One SendGrid account or subuser in a {@link ShardedTransport}, receiving a share of sends in proportion to its weight.
+ */
+public class Shard {
+    private final String name;
+    private final MailTransport transport;
+    private final int weight;
+    private final RateLimiter rateLimiter;
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    volatile long unavailableUntil;
+
+    /**
+     * @param name identifies the shard in logs, this should not be the api key
+     * @param weight the relative share of sends this shard receives
+     */
+    public Shard(String name, MailTransport transport, int weight) {
+        this(name, transport, weight, null);
+    }
+
+    /**
+     * @param rateLimiter paces requests to this shard's account, learning its limit from the account's responses, or
+     *            null
+     */
+    public Shard(String name, MailTransport transport, int weight, RateLimiter rateLimiter) {
+        if (weight < 1) {
+            throw new IllegalArgumentException(String.format("Shard weight must be at least 1, was %s", weight));
+        }
+        this.name = name;
+        this.transport = transport;
+        this.weight = weight;
+        this.rateLimiter = rateLimiter;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MailTransport getTransport() {
+        return transport;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the number of requests currently being sent through this shard
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of requests sent through this shard
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests which were rate limited, failed or could not be completed
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the time in epoch milliseconds until which this shard is out of rotation, or 0
+     */
+    public long getUnavailableUntil() {
+        return unavailableUntil;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
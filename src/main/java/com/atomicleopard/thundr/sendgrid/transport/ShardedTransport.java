@@ -0,0 +1,319 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimitHeaders;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimiter;
+import com.sendgrid.Mail;
+import com.sendgrid.Response;
+import com.threewks.thundr.logger.Logger;
+
+/**
+ * Spreads sends across several SendGrid accounts or subusers, each with its own API key, rate limit and connections,
+ * so throughput can grow beyond the limits of a single account.
+ *
+ * Shards are chosen according to the {@link Routing}. A shard which is rate limited, fails with a server error or
+ * cannot be reached is taken out of rotation until SendGrid's rate limit window resets, or for the cooldown period.
+ * If every shard is out of rotation, the one which returns soonest is used.
+ *
+ * Each account has its own rate limit, so shards pace their requests with their own {@link Shard#getRateLimiter()
+ * rate limiter}, learning the limit from that account's responses only. A shard whose limiter has no permit left is
+ * passed over while others have one. Use these rather than a rate limiter on the mailer, which would slow every
+ * account down to the limit of whichever answered last.
+ */
+public class ShardedTransport implements MailTransport, Closeable {
+    public static final long DefaultCooldownMillis = 30000;
+
+    public enum Routing {
+        /**
+         * Each shard in turn, in proportion to its weight
+         */
+        RoundRobin,
+        /**
+         * The shard with the fewest requests in flight relative to its weight
+         */
+        LeastInFlight,
+        /**
+         * The same shard for every mail with the same shard key, such as a tenant id, in proportion to shard weights.
+         * Mails without a shard key, and pre-serialized payloads, are routed round robin.
+         */
+        ShardKey
+    }
+
+    protected final List<Shard> shards;
+    protected final Routing routing;
+    protected final long cooldownMillis;
+    protected Function<Mail, String> shardKey = mail -> mail.from == null ? null : mail.from.getEmail();
+    private final int[] schedule;
+    private final AtomicLong next = new AtomicLong();
+
+    public ShardedTransport(List<Shard> shards) {
+        this(shards, Routing.RoundRobin, DefaultCooldownMillis);
+    }
+
+    public ShardedTransport(List<Shard> shards, Routing routing, long cooldownMillis) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.routing = routing;
+        this.cooldownMillis = cooldownMillis;
+        this.schedule = schedule(this.shards);
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    public long getCooldownMillis() {
+        return cooldownMillis;
+    }
+
+    /**
+     * Sets how the shard key is read from a mail when routing by {@link Routing#ShardKey}. By default mail is routed
+     * by the sender's address.
+     */
+    public void setShardKey(Function<Mail, String> shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    @Override
+    public Response send(Mail mail) throws IOException {
+        Shard shard = choose(routing == Routing.ShardKey ? shardKey.apply(mail) : null);
+        return send(shard, () -> shard.getTransport().send(mail));
+    }
+
+    @Override
+    public Response send(byte[] payload) throws IOException {
+        Shard shard = choose(null);
+        return send(shard, () -> shard.getTransport().send(payload));
+    }
+
+    @Override
+    public boolean isStreaming() {
+        for (Shard shard : shards) {
+            if (!shard.getTransport().isStreaming()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void setMetrics(SendGridMetrics metrics) {
+        for (Shard shard : shards) {
+            shard.getTransport().setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Warms up every shard, each with the given number of connections
+     */
+    @Override
+    public void warmUp(Mail sample, int connections) throws IOException {
+        for (Shard shard : shards) {
+            shard.getTransport().warmUp(sample, connections);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Shard shard : shards) {
+            if (shard.getTransport() instanceof Closeable) {
+                try {
+                    ((Closeable) shard.getTransport()).close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    protected Response send(Shard shard, Request request) throws IOException {
+        RateLimiter rateLimiter = shard.getRateLimiter();
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+        shard.inFlight.incrementAndGet();
+        shard.requests.incrementAndGet();
+        try {
+            Response response = request.send();
+            if (rateLimiter != null) {
+                rateLimiter.update(response);
+            }
+            update(shard, response);
+            return response;
+        } catch (IOException e) {
+            cooldown(shard, now() + cooldownMillis, e.getMessage());
+            throw e;
+        } finally {
+            shard.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes the shard out of rotation if it was rate limited, failed, or has no requests left in this rate limit window
+     */
+    protected void update(Shard shard, Response response) {
+        RateLimitHeaders headers = RateLimitHeaders.from(response);
+        if (response.statusCode == 429) {
+            long reset = headers == null ? 0 : headers.getResetMillis();
+            cooldown(shard, reset > now() ? reset : now() + cooldownMillis, "rate limited");
+        } else if (response.statusCode >= 500) {
+            cooldown(shard, now() + cooldownMillis, "status " + response.statusCode);
+        } else if (headers != null && headers.getRemaining() <= 0 && headers.getResetMillis() > now()) {
+            shard.unavailableUntil = headers.getResetMillis();
+        }
+    }
+
+    protected void cooldown(Shard shard, long until, String reason) {
+        shard.failures.incrementAndGet();
+        shard.unavailableUntil = until;
+        Logger.warn("Taking Sendgrid shard %s out of rotation for %sms: %s", shard.getName(), until - now(), reason);
+    }
+
+    protected Shard choose(String key) {
+        long now = now();
+        if (key != null) {
+            return byKey(key, now);
+        }
+        if (routing == Routing.LeastInFlight) {
+            return leastInFlight(now);
+        }
+        return roundRobin(now);
+    }
+
+    private Shard roundRobin(long now) {
+        long start = next.getAndIncrement();
+        for (int i = 0; i < schedule.length; i++) {
+            Shard shard = shards.get(schedule[(int) ((start + i) % schedule.length)]);
+            if (isAvailable(shard, now)) {
+                return shard;
+            }
+        }
+        return soonestAvailable();
+    }
+
+    private Shard leastInFlight(long now) {
+        Shard best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (Shard shard : shards) {
+            double load = (double) shard.getInFlight() / shard.getWeight();
+            if (isAvailable(shard, now) && load < bestLoad) {
+                best = shard;
+                bestLoad = load;
+            }
+        }
+        return best == null ? soonestAvailable() : best;
+    }
+
+    /**
+     * Weighted rendezvous hashing, so each key keeps its shard while the shards are available, and only the keys of an
+     * unavailable shard move elsewhere
+     */
+    private Shard byKey(String key, long now) {
+        Shard best = null;
+        double bestScore = -Double.MAX_VALUE;
+        for (Shard shard : shards) {
+            double score = -shard.getWeight() / Math.log(hash(key, shard.getName()));
+            if (isAvailable(shard, now) && score > bestScore) {
+                best = shard;
+                bestScore = score;
+            }
+        }
+        return best == null ? soonestAvailable() : best;
+    }
+
+    private static boolean isAvailable(Shard shard, long now) {
+        return shard.unavailableUntil <= now && (shard.getRateLimiter() == null || shard.getRateLimiter().getAvailable() >= 1);
+    }
+
+    private Shard soonestAvailable() {
+        Shard soonest = shards.get(0);
+        for (Shard shard : shards) {
+            if (shard.unavailableUntil < soonest.unavailableUntil) {
+                soonest = shard;
+            }
+        }
+        return soonest;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return a well mixed hash of the key and shard name in the open interval (0, 1)
+     */
+    static double hash(String key, String shard) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : (key + '\0' + shard).getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ b) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return ((hash >>> 11) + 0.5) / (1L << 53);
+    }
+
+    /**
+     * Smooth weighted round robin, interleaving shards rather than sending runs of requests to the heaviest
+     */
+    static int[] schedule(List<Shard> shards) {
+        int total = 0;
+        for (Shard shard : shards) {
+            total += shard.getWeight();
+        }
+        int[] schedule = new int[total];
+        int[] current = new int[shards.size()];
+        for (int slot = 0; slot < total; slot++) {
+            int best = 0;
+            for (int i = 0; i < shards.size(); i++) {
+                current[i] += shards.get(i).getWeight();
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            schedule[slot] = best;
+        }
+        return schedule;
+    }
+
+    protected interface Request {
+        Response send() throws IOException;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.atomicleopard.thundr.sendgrid.buffer.BufferPool;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.sendgrid.Attachments;
+
+/**
+ * An attachment which holds its raw content, rather than a base64 encoded copy. The content is base64 encoded directly
+ * into the JSON output as the request is written, so the encoded form never exists as a string.
+ *
+ * The content may be held in a buffer from a {@link BufferPool}, in which case the buffer is returned to the pool once
+ * every holder of the attachment has called {@link #release()}.
+ *
+ * The content is fixed on construction: {@link #setContent(String)} is not supported. Code which copies attachments
+ * through their encoded content, such as {@link com.sendgrid.Mail#addAttachments(Attachments)}, must add instances of
+ * this class to the email's attachment list directly instead.
+ */
+@JsonSerialize(using = StreamingAttachments.Serializer.class)
+public class StreamingAttachments extends Attachments {
+    private final ByteBuffer data;
+    private final BufferPool pool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public StreamingAttachments(byte[] data) {
+        this(ByteBuffer.wrap(data), null);
+    }
+
+    /**
+     * @param data the content, from its position to its limit
+     * @param pool the pool to return the buffer to when released, or null
+     */
+    public StreamingAttachments(ByteBuffer data, BufferPool pool) {
+        this.data = data;
+        this.pool = pool;
+    }
+
+    /**
+     * Copies the content of pooled attachments to the heap, prefer {@link #getBuffer()}
+     */
+    public byte[] getData() {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0 && data.remaining() == data.array().length) {
+            return data.array();
+        }
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return a read only view of the content
+     */
+    public ByteBuffer getBuffer() {
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the length of the content in bytes, before encoding
+     */
+    public int getLength() {
+        return data.remaining();
+    }
+
+    /**
+     * Encodes the content on every call, prefer {@link #getBuffer()}
+     */
+    @Override
+    public String getContent() {
+        return Base64.getEncoder().encodeToString(getData());
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, the content is provided on construction
+     */
+    @Override
+    public void setContent(String content) {
+        throw new UnsupportedOperationException("The content of " + StreamingAttachments.class.getSimpleName() + " is provided on construction");
+    }
+
+    /**
+     * Registers another holder of this attachment, such as another email sharing it, which must also {@link #release()}
+     * it
+     */
+    public StreamingAttachments retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Returns a pooled buffer to its pool once all holders have released it. The attachment must not be sent
+     * afterwards.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0 && pool != null) {
+            pool.release(data);
+        }
+    }
+
+    public static class Serializer extends JsonSerializer<StreamingAttachments> {
+        @Override
+        public void serialize(StreamingAttachments value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            generator.writeFieldName("content");
+            generator.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, new BufferInputStream(value.getBuffer()), value.getLength());
+            writeField(generator, "type", value.getType());
+            writeField(generator, "filename", value.getFilename());
+            writeField(generator, "disposition", value.getDisposition());
+            writeField(generator, "content_id", value.getContentId());
+            generator.writeEndObject();
+        }
+
+        private void writeField(JsonGenerator generator, String name, String value) throws IOException {
+            if (value != null) {
+                generator.writeStringField(name, value);
+            }
+        }
+    }
+
+    /**
+     * Reads a buffer in whatever chunks the reader asks for, so it is never copied whole
+     */
+    static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(len, buffer.remaining());
+            buffer.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.atomicleopard.thundr.sendgrid.metrics.Stage;
+import com.sendgrid.Mail;
+import com.sendgrid.Response;
+
+/**
+ * Sends mail by writing the JSON request body straight to the HTTP connection. Together with
+ * {@link StreamingAttachments}, the memory needed to send an email no longer grows with multiple copies of its
+ * attachments.
+ */
+public class StreamingHttpTransport implements MailTransport, Closeable {
+    public static final String DefaultBaseUrl = "https://api.sendgrid.com/v3/";
+    public static final String UserAgent = "sendgrid/3.0.0;java";
+
+    protected final String apiKey;
+    protected final String baseUrl;
+    protected final CloseableHttpClient httpClient;
+    protected final ObjectMapper objectMapper;
+    protected SendGridMetrics metrics = SendGridMetrics.NoOp;
+    protected long compressionThreshold = -1;
+
+    public StreamingHttpTransport(String apiKey) {
+        this(apiKey, DefaultBaseUrl, new HttpPoolConfig());
+    }
+
+    public StreamingHttpTransport(String apiKey, String baseUrl, HttpPoolConfig config) {
+        this(apiKey, baseUrl, config.httpClient());
+    }
+
+    public StreamingHttpTransport(String apiKey, String baseUrl, CloseableHttpClient httpClient) {
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.httpClient = httpClient;
+        this.objectMapper = createObjectMapper();
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Request bodies of at least the given number of bytes are gzip compressed as they are written. The size of an
+     * email is estimated from its content and attachments before it is serialized. Negative, the default, disables
+     * compression.
+     */
+    public void setCompressionThreshold(long compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Records the size of each request body. Streamed requests are serialized as they are sent, so their
+     * serialization time is part of {@link Stage#Send}.
+     */
+    @Override
+    public void setMetrics(SendGridMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response send(Mail mail) throws IOException {
+        MailEntity entity = new MailEntity(mail, objectMapper, metrics);
+        return send(compress(entity, entity.estimateLength()));
+    }
+
+    @Override
+    public Response send(byte[] payload) throws IOException {
+        metrics.recordPayloadBytes(payload.length);
+        return send(compress(new ByteArrayEntity(payload, ContentType.APPLICATION_JSON), payload.length));
+    }
+
+    protected HttpEntity compress(HttpEntity entity, long length) {
+        return compressionThreshold >= 0 && length >= compressionThreshold ? new GzipEntity(entity, metrics) : entity;
+    }
+
+    protected Response send(HttpEntity entity) throws IOException {
+        HttpPost post = new HttpPost(baseUrl + "mail/send");
+        post.setHeader("Authorization", "Bearer " + apiKey);
+        post.setHeader("Accept", "application/json");
+        post.setHeader("User-agent", UserAgent);
+        post.setEntity(entity);
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            return toResponse(response);
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public void warmUp(Mail sample, int connections) throws IOException {
+        new MailEntity(sample, objectMapper).writeTo(new ByteArrayOutputStream());
+        InetAddress.getAllByName(URI.create(baseUrl).getHost());
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    protected Response toResponse(CloseableHttpResponse httpResponse) throws IOException {
+        HttpEntity entity = httpResponse.getEntity();
+        String body = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : httpResponse.getAllHeaders()) {
+            headers.put(header.getName(), header.getValue());
+        }
+        return new Response(httpResponse.getStatusLine().getStatusCode(), body, headers);
+    }
+
+    /**
+     * Serializes mail the same way as {@link Mail#build()}, without closing the connection's output stream
+     */
+    protected ObjectMapper createObjectMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        objectMapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return objectMapper;
+    }
+}
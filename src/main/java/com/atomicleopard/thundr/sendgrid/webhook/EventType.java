@@ -0,0 +1,61 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+/**
+ * The kinds of event posted by the SendGrid event webhook
+ */
+public enum EventType {
+    Processed("processed"),
+    Dropped("dropped"),
+    Delivered("delivered"),
+    Deferred("deferred"),
+    Bounce("bounce"),
+    Open("open"),
+    Click("click"),
+    SpamReport("spamreport"),
+    Unsubscribe("unsubscribe"),
+    GroupUnsubscribe("group_unsubscribe"),
+    GroupResubscribe("group_resubscribe"),
+    /**
+     * An event this version does not know about, see {@link SendGridEvent#getEvent()} for its name
+     */
+    Unknown(null);
+
+    private final String name;
+
+    EventType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name SendGrid gives this event
+     */
+    public String getName() {
+        return name;
+    }
+
+    public static EventType fromName(String name) {
+        for (EventType type : values()) {
+            if (type.name != null && type.name.equals(name)) {
+                return type;
+            }
+        }
+        return Unknown;
+    }
+}
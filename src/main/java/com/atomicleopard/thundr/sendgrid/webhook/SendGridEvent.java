@@ -0,0 +1,116 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single event posted by the SendGrid event webhook. The fields common to SendGrid events have their own getters,
+ * any other simple fields, such as custom arguments, are available from {@link #getProperty(String)}.
+ */
+public class SendGridEvent {
+    String email;
+    long timestamp;
+    String event;
+    EventType type = EventType.Unknown;
+    String eventId;
+    String messageId;
+    String reason;
+    String status;
+    String bounceType;
+    String url;
+    List<String> categories = new ArrayList<>();
+    Map<String, String> properties = new LinkedHashMap<>();
+
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * @return when the event happened, in seconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the name SendGrid gives this event
+     */
+    public String getEvent() {
+        return event;
+    }
+
+    public EventType getType() {
+        return type;
+    }
+
+    /**
+     * @return SendGrid's unique id for this event, which can be used to ignore events SendGrid posts more than once
+     */
+    public String getEventId() {
+        return eventId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return for a {@link EventType#Bounce}, <code>bounce</code> for a permanent bounce or <code>blocked</code> for a
+     *         temporary one
+     */
+    public String getBounceType() {
+        return bounceType;
+    }
+
+    /**
+     * @return for a {@link EventType#Click}, the url clicked
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    public List<String> getCategories() {
+        return Collections.unmodifiableList(categories);
+    }
+
+    public String getProperty(String name) {
+        return properties.get(name);
+    }
+
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s at %s", event, email, timestamp);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.atomicleopard.thundr.sendgrid.SendGridExecutor;
+import com.threewks.thundr.logger.Logger;
+
+/**
+ * Hands events received by the webhook to the registered {@link SendGridEventListener}s on a background thread, so
+ * that the webhook can respond to SendGrid as soon as it has read a batch. Events wait in a queue of at most
+ * {@link #getQueueSize()} events and are delivered to listeners in batches of up to {@link #getBatchSize()}.
+ *
+ * When listeners cannot keep up and the queue is full, {@link #offer(SendGridEvent)} waits up to
+ * {@link #getOfferTimeoutMillis()} for room before giving up, and the webhook asks SendGrid to post the batch again
+ * later.
+ */
+public class SendGridEventDispatcher implements Closeable {
+    public static final int DefaultQueueSize = 10000;
+    public static final int DefaultBatchSize = 500;
+    public static final long DefaultOfferTimeoutMillis = 1000;
+
+    protected final BlockingQueue<SendGridEvent> queue;
+    protected final int queueSize;
+    protected final int batchSize;
+    protected final long offerTimeoutMillis;
+    private final List<SendGridEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong dispatched = new AtomicLong();
+    private volatile boolean running;
+    private Thread worker;
+
+    public SendGridEventDispatcher() {
+        this(DefaultQueueSize, DefaultBatchSize, DefaultOfferTimeoutMillis);
+    }
+
+    public SendGridEventDispatcher(int queueSize, int batchSize, long offerTimeoutMillis) {
+        if (queueSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException(String.format("queueSize and batchSize must be at least 1, were %s and %s", queueSize, batchSize));
+        }
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getOfferTimeoutMillis() {
+        return offerTimeoutMillis;
+    }
+
+    public void addListener(SendGridEventListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(SendGridEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    public List<SendGridEventListener> getListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+
+    /**
+     * @return the number of events waiting to be dispatched
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of events handed to listeners
+     */
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    /**
+     * Queues the given event, waiting for room if the queue is full
+     *
+     * @return false if the queue stayed full for the offer timeout
+     */
+    public boolean offer(SendGridEvent event) throws InterruptedException {
+        return queue.offer(event, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized boolean isRunning() {
+        return worker != null;
+    }
+
+    public synchronized void start() {
+        if (worker == null) {
+            running = true;
+            worker = new SendGridExecutor.DaemonThreadFactory("sendgrid-events-").newThread(this::run);
+            worker.start();
+        }
+    }
+
+    /**
+     * Dispatches the events already queued, then stops the dispatching thread
+     */
+    @Override
+    public synchronized void close() {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+    }
+
+    protected void run() {
+        List<SendGridEvent> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                SendGridEvent event = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    batch.add(event);
+                    queue.drainTo(batch, batchSize - 1);
+                    dispatch(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (InterruptedException e) {
+            Logger.warn("Sendgrid event dispatching was interrupted with %s events queued", queue.size());
+        }
+    }
+
+    /**
+     * Hands the given batch to every listener. A listener which fails does not stop the others receiving the batch.
+     */
+    protected void dispatch(List<SendGridEvent> events) {
+        List<SendGridEvent> batch = Collections.unmodifiableList(events);
+        for (SendGridEventListener listener : listeners) {
+            try {
+                listener.onEvents(batch);
+            } catch (RuntimeException e) {
+                Logger.error(e, "Sendgrid event listener %s failed to handle %s events: %s", listener.getClass().getSimpleName(), events.size(), e.getMessage());
+            }
+        }
+        dispatched.addAndGet(events.size());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the JSON array of events posted by the SendGrid event webhook one event at a time, so that only the event
+ * being read is held in memory however large the batch.
+ *
+ * <pre>
+ * <code>
+ * try (SendGridEventParser parser = new SendGridEventParser(in)) {
+ * 	for (SendGridEvent event = parser.next(); event != null; event = parser.next()) {
+ * 		...
+ * 	}
+ * }
+ * </code>
+ * </pre>
+ */
+public class SendGridEventParser implements Closeable {
+    private static final JsonFactory JsonFactory = new JsonFactory();
+
+    private final JsonParser parser;
+    private boolean started;
+    private boolean ended;
+
+    public SendGridEventParser(InputStream in) throws IOException {
+        this.parser = JsonFactory.createParser(in);
+    }
+
+    /**
+     * @return the next event, or null once every event has been read
+     * @throws JsonParseException if the body is not an array of event objects
+     */
+    public SendGridEvent next() throws IOException {
+        if (ended) {
+            return null;
+        }
+        if (!started) {
+            expect(parser.nextToken(), JsonToken.START_ARRAY, "an array of events");
+            started = true;
+        }
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            ended = true;
+            return null;
+        }
+        expect(token, JsonToken.START_OBJECT, "an event");
+        return readEvent();
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    private SendGridEvent readEvent() throws IOException {
+        SendGridEvent event = new SendGridEvent();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == null) {
+                break;
+            }
+            switch (name) {
+            case "email":
+                event.email = parser.getValueAsString();
+                break;
+            case "timestamp":
+                event.timestamp = parser.getValueAsLong();
+                break;
+            case "event":
+                event.event = parser.getValueAsString();
+                event.type = EventType.fromName(event.event);
+                break;
+            case "sg_event_id":
+                event.eventId = parser.getValueAsString();
+                break;
+            case "sg_message_id":
+                event.messageId = parser.getValueAsString();
+                break;
+            case "reason":
+                event.reason = parser.getValueAsString();
+                break;
+            case "status":
+                event.status = parser.getValueAsString();
+                break;
+            case "type":
+                event.bounceType = parser.getValueAsString();
+                break;
+            case "url":
+                event.url = parser.getValueAsString();
+                break;
+            case "category":
+                readCategories(event, value);
+                break;
+            default:
+                if (value.isScalarValue()) {
+                    event.properties.put(name, parser.getValueAsString());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        expect(parser.getCurrentToken(), JsonToken.END_OBJECT, "the end of an event");
+        return event;
+    }
+
+    /**
+     * SendGrid posts a single category as a string and several as an array
+     */
+    private void readCategories(SendGridEvent event, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            event.categories.add(parser.getValueAsString());
+            return;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken().isScalarValue()) {
+                event.categories.add(parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void expect(JsonToken token, JsonToken expected, String description) throws JsonParseException {
+        if (token != expected) {
+            throw new JsonParseException(String.format("Expected %s but found %s", description, token), parser.getCurrentLocation());
+        }
+    }
+}
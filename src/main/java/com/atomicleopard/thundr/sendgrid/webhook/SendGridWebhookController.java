@@ -0,0 +1,85 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.threewks.thundr.http.StatusCode;
+import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.request.Request;
+import com.threewks.thundr.view.string.StringView;
+
+/**
+ * Receives batches of events from the SendGrid event webhook and queues them on a {@link SendGridEventDispatcher}.
+ * Events are parsed as they are read from the request, the batch is never held in memory as a whole.
+ *
+ * When a token is set, requests must carry it as the <code>token</code> parameter of the webhook url configured in
+ * SendGrid.
+ */
+public class SendGridWebhookController {
+    protected final SendGridEventDispatcher dispatcher;
+    protected final String token;
+
+    public SendGridWebhookController(SendGridEventDispatcher dispatcher, String token) {
+        this.dispatcher = dispatcher;
+        this.token = token;
+    }
+
+    /**
+     * Responds 200 once every event has been queued, 400 if the body is not a batch of events, 401 if the token is
+     * wrong and 503 if the queue is full. SendGrid posts a batch again after any failure, so some of its events can be
+     * received twice, see {@link SendGridEvent#getEventId()}.
+     */
+    public StringView events(Request request) {
+        if (!authorised(request.getParameter("token"))) {
+            Logger.warn("Rejected a Sendgrid webhook request with a missing or incorrect token");
+            return response(StatusCode.Unauthorized);
+        }
+        int queued = 0;
+        try (SendGridEventParser parser = new SendGridEventParser(request.getInputStream())) {
+            for (SendGridEvent event = parser.next(); event != null; event = parser.next()) {
+                if (!dispatcher.offer(event)) {
+                    Logger.warn("Sendgrid event queue is full, rejecting a webhook batch after %s events", queued);
+                    return response(StatusCode.ServiceUnavailable);
+                }
+                queued++;
+            }
+        } catch (JsonProcessingException e) {
+            Logger.warn("Rejected a malformed Sendgrid webhook batch after %s events: %s", queued, e.getMessage());
+            return response(StatusCode.BadRequest);
+        } catch (IOException e) {
+            Logger.warn("Failed to read a Sendgrid webhook batch after %s events: %s", queued, e.getMessage());
+            return response(StatusCode.BadRequest);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return response(StatusCode.ServiceUnavailable);
+        }
+        return response(StatusCode.OK);
+    }
+
+    protected boolean authorised(String candidate) {
+        return token == null || candidate != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), candidate.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected StringView response(StatusCode statusCode) {
+        return new StringView("").withStatusCode(statusCode);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import java.util.List;
+
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionIndex;
+
+/**
+ * Adds the address of every permanent bounce, spam report and unsubscribe received by the webhook to a
+ * {@link SuppressionIndex}, so that following sends skip it without waiting for the next snapshot or changes file.
+ * Temporary blocks and unsubscribes from a single group do not suppress an address.
+ */
+public class SuppressionListener implements SendGridEventListener {
+    protected final SuppressionIndex index;
+
+    public SuppressionListener(SuppressionIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void onEvents(List<SendGridEvent> events) {
+        for (SendGridEvent event : events) {
+            if (event.getEmail() != null && suppresses(event)) {
+                index.add(event.getEmail());
+            }
+        }
+    }
+
+    protected boolean suppresses(SendGridEvent event) {
+        switch (event.getType()) {
+        case Bounce:
+            return !"blocked".equals(event.getBounceType());
+        case SpamReport:
+        case Unsubscribe:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.atomicleopard.thundr.sendgrid.buffer.BufferPool;
+import com.atomicleopard.thundr.sendgrid.transport.StreamingAttachments;
+import com.sendgrid.Content;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Personalization;
+import com.sendgrid.Response;
+import com.threewks.thundr.mail.MailException;
+
+public class MailCoalescerTest {
+    private MailCoalescer coalescer = new MailCoalescer(50, 3);
+    private List<Mail> sent = Collections.synchronizedList(new ArrayList<Mail>());
+    private Response response = new Response(202, "", Collections.<String, String> emptyMap());
+    private Function<Mail, CompletableFuture<Response>> sender = mail -> {
+        sent.add(mail);
+        return CompletableFuture.completedFuture(response);
+    };
+
+    @After
+    public void after() {
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void shouldMergeIdenticalMailsWithinWindow() throws Exception {
+        CompletableFuture<Response> first = coalescer.submit(mail("Subject", "one@mail.com"), sender);
+        CompletableFuture<Response> second = coalescer.submit(mail("Subject", "two@mail.com"), sender);
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(sameInstance(response)));
+        assertThat(second.get(5, TimeUnit.SECONDS), is(sameInstance(response)));
+        assertThat(sent.size(), is(1));
+        assertThat(sent.get(0).getPersonalization().size(), is(2));
+        assertThat(sent.get(0).getPersonalization().get(0).getTos().get(0).getEmail(), is("one@mail.com"));
+        assertThat(sent.get(0).getPersonalization().get(1).getTos().get(0).getEmail(), is("two@mail.com"));
+    }
+
+    @Test
+    public void shouldReleaseAttachmentsOfMergedMails() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        Mail first = mail("Subject", "one@mail.com");
+        attach(first, pool);
+        Mail second = mail("Subject", "two@mail.com");
+        attach(second, pool);
+
+        coalescer.submit(first, sender);
+        coalescer.submit(second, sender).get(5, TimeUnit.SECONDS);
+
+        assertThat(sent.size(), is(1));
+        assertThat(sent.get(0).getAttachments().size(), is(1));
+        assertThat(pool.getPooledBytes(), is((long) BufferPool.MinBufferSize));
+    }
+
+    @Test
+    public void shouldNotMergeDifferentMails() throws Exception {
+        CompletableFuture<Response> first = coalescer.submit(mail("Subject", "one@mail.com"), sender);
+        CompletableFuture<Response> second = coalescer.submit(mail("Other subject", "two@mail.com"), sender);
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertThat(sent.size(), is(2));
+        assertThat(sent.get(0).getPersonalization().size(), is(1));
+        assertThat(sent.get(1).getPersonalization().size(), is(1));
+    }
+
+    @Test
+    public void shouldSendFullBatchWithoutWaitingForWindow() {
+        coalescer = new MailCoalescer(60000, 2);
+        CompletableFuture<Response> first = coalescer.submit(mail("Subject", "one@mail.com"), sender);
+        CompletableFuture<Response> second = coalescer.submit(mail("Subject", "two@mail.com"), sender);
+
+        assertThat(first.isDone(), is(true));
+        assertThat(second.isDone(), is(true));
+        assertThat(sent.size(), is(1));
+    }
+
+    @Test
+    public void shouldStartNewBatchRatherThanExceedRecipientLimit() throws Exception {
+        coalescer = new MailCoalescer(60000, 10);
+        CompletableFuture<Response> first = coalescer.submit(mail("Subject", recipients("one", 600)), sender);
+        CompletableFuture<Response> second = coalescer.submit(mail("Subject", recipients("two", 500)), sender);
+
+        assertThat(first.isDone(), is(true));
+        assertThat(second.isDone(), is(false));
+        assertThat(sent.size(), is(1));
+        assertThat(sent.get(0).getPersonalization().size(), is(1));
+
+        coalescer.submit(mail("Subject", recipients("three", 500)), sender);
+
+        assertThat(second.isDone(), is(true));
+        assertThat(sent.size(), is(2));
+        assertThat(sent.get(1).getPersonalization().size(), is(2));
+    }
+
+    @Test
+    public void shouldSendMailOverRecipientLimitOnItsOwn() {
+        Mail mail = mail("Subject", recipients("one", 1001));
+
+        CompletableFuture<Response> future = coalescer.submit(mail, sender);
+
+        assertThat(future.isDone(), is(true));
+        assertThat(sent.get(0), is(sameInstance(mail)));
+    }
+
+    @Test
+    public void shouldSendUnmergeableMailsImmediately() {
+        Mail mail = mail("Subject", "one@mail.com");
+        mail.addCustomArg("key", "value");
+
+        CompletableFuture<Response> future = coalescer.submit(mail, sender);
+
+        assertThat(future.isDone(), is(true));
+        assertThat(sent.get(0), is(sameInstance(mail)));
+    }
+
+    @Test
+    public void shouldFailEveryCallerInAFailedBatch() throws Exception {
+        Function<Mail, CompletableFuture<Response>> failing = mail -> {
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            future.completeExceptionally(new MailException("Expected"));
+            return future;
+        };
+        CompletableFuture<Response> first = coalescer.submit(mail("Subject", "one@mail.com"), failing);
+        CompletableFuture<Response> second = coalescer.submit(mail("Subject", "two@mail.com"), failing);
+
+        assertThat(failureMessage(first), is("Expected"));
+        assertThat(failureMessage(second), is("Expected"));
+    }
+
+    @Test
+    public void shouldSendEachMailOnItsOwnWhenBatchIsRejected() throws Exception {
+        Function<Mail, CompletableFuture<Response>> rejecting = mail -> {
+            sent.add(mail);
+            boolean invalid = mail.getPersonalization().stream().anyMatch(p -> p.getTos().get(0).getEmail().equals("invalid"));
+            return invalid ? failed(new SendGridException(400, "Invalid")) : CompletableFuture.completedFuture(response);
+        };
+        CompletableFuture<Response> first = coalescer.submit(mail("Subject", "one@mail.com"), rejecting);
+        CompletableFuture<Response> second = coalescer.submit(mail("Subject", "invalid"), rejecting);
+        CompletableFuture<Response> third = coalescer.submit(mail("Subject", "three@mail.com"), rejecting);
+
+        assertThat(first.get(5, TimeUnit.SECONDS), is(sameInstance(response)));
+        assertThat(failureMessage(second), is("Invalid"));
+        assertThat(third.get(5, TimeUnit.SECONDS), is(sameInstance(response)));
+        assertThat(sent.size(), is(4));
+        assertThat(sent.get(1).getPersonalization().size(), is(1));
+        assertThat(sent.get(1).getPersonalization().get(0).getTos().get(0).getEmail(), is("one@mail.com"));
+    }
+
+    @Test
+    public void shouldNotSendEachMailOnItsOwnWhenBatchIsRateLimited() throws Exception {
+        Function<Mail, CompletableFuture<Response>> limited = mail -> {
+            sent.add(mail);
+            return failed(new SendGridException(429, "Too many requests"));
+        };
+        CompletableFuture<Response> first = coalescer.submit(mail("Subject", "one@mail.com"), limited);
+        CompletableFuture<Response> second = coalescer.submit(mail("Subject", "two@mail.com"), limited);
+
+        assertThat(failureMessage(first), is("Too many requests"));
+        assertThat(failureMessage(second), is("Too many requests"));
+        assertThat(sent.size(), is(1));
+    }
+
+    @Test
+    public void shouldSendPendingBatchesOnShutdown() {
+        coalescer = new MailCoalescer(60000, 3);
+        CompletableFuture<Response> future = coalescer.submit(mail("Subject", "one@mail.com"), sender);
+        assertThat(future.isDone(), is(false));
+
+        coalescer.shutdown();
+
+        assertThat(future.isDone(), is(true));
+        assertThat(sent.size(), is(1));
+    }
+
+    private CompletableFuture<Response> failed(Throwable e) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private String failureMessage(CompletableFuture<Response> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause().getMessage();
+        }
+    }
+
+    private void attach(Mail mail, BufferPool pool) {
+        ByteBuffer buffer = pool.acquire(3);
+        buffer.put(new byte[] { 0, 1, 2 }).flip();
+        StreamingAttachments attachments = new StreamingAttachments(buffer, pool);
+        attachments.setFilename("file.bin");
+        mail.attachments = new ArrayList<>();
+        mail.attachments.add(attachments);
+    }
+
+    private Mail mail(String subject, String to) {
+        Personalization personalization = new Personalization();
+        personalization.addTo(new Email(to));
+        return mail(subject, personalization);
+    }
+
+    private Mail mail(String subject, Personalization personalization) {
+        Mail mail = new Mail();
+        mail.setFrom(new Email("me@mail.com"));
+        mail.setSubject(subject);
+        mail.addContent(new Content("text/plain", "Body"));
+        mail.addPersonalization(personalization);
+        return mail;
+    }
+
+    /**
+     * Half of the given number of recipients are to addresses, the rest bcc
+     */
+    private Personalization recipients(String prefix, int count) {
+        Personalization personalization = new Personalization();
+        for (int i = 0; i < count; i++) {
+            Email email = new Email(prefix + i + "@mail.com");
+            if (i % 2 == 0) {
+                personalization.addTo(email);
+            } else {
+                personalization.addBcc(email);
+            }
+        }
+        return personalization;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionIndex;
+import com.sendgrid.Mail;
+import com.sendgrid.Response;
+import com.threewks.thundr.mail.MailBuilder;
+import com.threewks.thundr.mail.MailException;
+import com.threewks.thundr.request.ThreadLocalRequestContainer;
+import com.threewks.thundr.view.ViewResolverRegistry;
+import com.threewks.thundr.view.string.StringView;
+import com.threewks.thundr.view.string.StringViewResolver;
+
+public class MailPipelineTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private ViewResolverRegistry viewResolverRegistry = new ViewResolverRegistry();
+    private List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    private AtomicInteger read = new AtomicInteger();
+    private volatile int maxAhead;
+    private volatile long sendDelay;
+    private SendGridMailer mailer = new SendGridMailer(viewResolverRegistry, new ThreadLocalRequestContainer(), "apiKey") {
+        @Override
+        protected Response dispatch(Mail email) {
+            String to = email.getPersonalization().get(0).getTos().get(0).getEmail();
+            if (to.startsWith("fail")) {
+                throw new MailException("Expected");
+            }
+            sleep(sendDelay);
+            sent.add(to);
+            return new Response(202, "", Collections.<String, String> emptyMap());
+        }
+    };
+
+    @Before
+    public void before() {
+        viewResolverRegistry.addResolver(StringView.class, new StringViewResolver());
+    }
+
+    @Test
+    public void shouldSendEveryEmailOfStream() {
+        StreamSendResult result = new MailPipeline(mailer).renderThreads(2).sendThreads(4).queueSize(8).send(messages("user", 500));
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.getSent(), is(500L));
+        assertThat(sent.size(), is(500));
+        assertThat(sent.contains("user0@mail.com"), is(true));
+        assertThat(sent.contains("user499@mail.com"), is(true));
+    }
+
+    @Test
+    public void shouldSendStreamFromMailer() {
+        StreamSendResult result = mailer.sendStream(messages("user", 10).iterator());
+
+        assertThat(result.getSent(), is(10L));
+        assertThat(sent.size(), is(10));
+    }
+
+    @Test
+    public void shouldReportEachFailedEmailAndSendTheRest() {
+        List<MailBuilder> messages = new ArrayList<>(messages("user", 3).collect(Collectors.toList()));
+        messages.add(1, message("fail@mail.com"));
+        messages.add(3, mailer.mail().to("nofrom@mail.com").subject("Subject").body(new StringView("Body")));
+
+        StreamSendResult result = new MailPipeline(mailer).send(messages.stream());
+
+        assertThat(result.isSuccess(), is(false));
+        assertThat(result.getSent(), is(3L));
+        assertThat(result.getFailed(), is(2L));
+        assertThat(result.getFailures().get(0).getIndex(), is(1L));
+        assertThat(result.getFailures().get(0).getMessage().to().containsKey("fail@mail.com"), is(true));
+        assertThat(result.getFailures().get(0).getCause().getMessage(), is("Expected"));
+        assertThat(result.getFailures().get(1).getIndex(), is(3L));
+    }
+
+    @Test
+    public void shouldKeepOnlyMaxFailures() {
+        StreamSendResult result = new MailPipeline(mailer).maxFailures(5).send(messages("fail", 20));
+
+        assertThat(result.getFailed(), is(20L));
+        assertThat(result.getFailures().size(), is(5));
+    }
+
+    @Test
+    public void shouldCountSuppressedEmails() {
+        mailer.setSuppressionIndex(new SuppressionIndex());
+        mailer.getSuppressionIndex().add("user1@mail.com");
+
+        StreamSendResult result = new MailPipeline(mailer).send(messages("user", 3));
+
+        assertThat(result.getSent(), is(2L));
+        assertThat(result.getSuppressed(), is(1L));
+        assertThat(sent.contains("user1@mail.com"), is(false));
+    }
+
+    @Test
+    public void shouldNotReadAheadOfSlowSendsBeyondQueues() {
+        sendDelay = 5;
+        final Iterator<MailBuilder> messages = messages("user", 50).iterator();
+        Iterator<MailBuilder> tracked = new Iterator<MailBuilder>() {
+            @Override
+            public boolean hasNext() {
+                return messages.hasNext();
+            }
+
+            @Override
+            public MailBuilder next() {
+                maxAhead = Math.max(maxAhead, read.incrementAndGet() - sent.size());
+                return messages.next();
+            }
+        };
+
+        StreamSendResult result = new MailPipeline(mailer).renderThreads(1).sendThreads(1).queueSize(2).send(tracked);
+
+        assertThat(result.getSent(), is(50L));
+        // each queue, plus one email held by each stage and one being read
+        assertThat(maxAhead, is(lessThanOrEqualTo(2 + 2 + 1 + 1 + 1)));
+    }
+
+    @Test
+    public void shouldRequirePositiveQueueSize() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("queueSize must be at least 1, was 0");
+
+        new MailPipeline(mailer).queueSize(0);
+    }
+
+    private Stream<MailBuilder> messages(String prefix, int count) {
+        return IntStream.range(0, count).mapToObj(i -> message(prefix + i + "@mail.com"));
+    }
+
+    private MailBuilder message(String to) {
+        return mailer.mail().from("me@mail.com").to(to).subject("Subject").body(new StringView("Body " + to));
+    }
+}
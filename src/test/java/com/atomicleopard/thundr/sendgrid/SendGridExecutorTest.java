@@ -0,0 +1,84 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class SendGridExecutorTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+    private SendGridExecutor executor = new SendGridExecutor(Executors.newCachedThreadPool(), 2);
+
+    @After
+    public void after() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldCompleteFutureWithResult() throws Exception {
+        CompletableFuture<String> future = executor.submit(() -> "result");
+        assertThat(future.get(5, TimeUnit.SECONDS), is("result"));
+    }
+
+    @Test
+    public void shouldCompleteFutureExceptionallyOnFailure() throws Exception {
+        CompletableFuture<String> future = executor.submit(() -> {
+            throw new IllegalStateException("Expected");
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+        assertThat(future.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void shouldTrackInFlightCallsAndReleaseSlotsOnCompletion() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        CompletableFuture<Boolean> first = executor.submit(() -> latch.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> second = executor.submit(() -> latch.await(5, TimeUnit.SECONDS));
+        assertThat(executor.getMaxInFlight(), is(2));
+        assertThat(executor.getInFlight(), is(2));
+
+        latch.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertThat(executor.submit(() -> "third").get(5, TimeUnit.SECONDS), is("third"));
+    }
+
+    @Test
+    public void shouldRejectInvalidMaxInFlight() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("maxInFlight must be at least 1, was 0");
+        new SendGridExecutor(0);
+    }
+}
@@ -17,27 +17,69 @@
  */
 package com.atomicleopard.thundr.sendgrid;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
+import com.atomicleopard.thundr.sendgrid.buffer.BufferPool;
+import com.atomicleopard.thundr.sendgrid.cache.AttachmentCache;
+import com.atomicleopard.thundr.sendgrid.cache.CachedView;
+import com.atomicleopard.thundr.sendgrid.cache.LruRenderCache;
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitBreaker;
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitBreakerConfig;
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitOpenException;
+import com.atomicleopard.thundr.sendgrid.dedupe.DuplicateSuppressor;
+import com.atomicleopard.thundr.sendgrid.metrics.InMemoryMetrics;
+import com.atomicleopard.thundr.sendgrid.metrics.Stage;
+import com.atomicleopard.thundr.sendgrid.outbox.MailOutbox;
+import com.atomicleopard.thundr.sendgrid.ratelimit.AdaptiveConcurrencyLimiter;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimiter;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RetryPolicy;
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionIndex;
+import com.atomicleopard.thundr.sendgrid.transport.MailTransport;
+import com.atomicleopard.thundr.sendgrid.transport.StreamingAttachments;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sendgrid.Attachments;
 import com.sendgrid.Content;
 import com.sendgrid.Email;
 import com.sendgrid.Mail;
+import com.sendgrid.Response;
 import com.threewks.thundr.http.ContentType;
+import com.threewks.thundr.mail.MailBuilder;
 import com.threewks.thundr.mail.MailException;
+import com.threewks.thundr.mail.Mailer;
+import com.threewks.thundr.request.InMemoryResponse;
+import com.threewks.thundr.request.Request;
 import com.threewks.thundr.request.RequestContainer;
 import com.threewks.thundr.request.ThreadLocalRequestContainer;
 import com.threewks.thundr.util.Encoder;
@@ -51,8 +93,11 @@ import com.threewks.thundr.view.string.StringViewResolver;
 public class SendGridMailerTest {
     @Rule
     public ExpectedException thrown = ExpectedException.none();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
     private ViewResolverRegistry viewResolverRegistry = new ViewResolverRegistry();
     private Mail sent;
+    private AtomicInteger attempts = new AtomicInteger();
     private RequestContainer requestContainer = new ThreadLocalRequestContainer();
     private SendGridMailer mailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
         @Override
@@ -72,6 +117,50 @@ public class SendGridMailerTest {
         assertThat(mailer.getSendgrid(), is(notNullValue()));
     }
 
+    @Test
+    public void shouldCreateSendGridClientWhenFirstUsed() {
+        SendGridMailer lazyMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        lazyMailer.setTransport(transport(202));
+        lazyMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body")).send();
+
+        assertThat(lazyMailer.sendgrid, is(nullValue()));
+        assertThat(lazyMailer.getSendgrid(), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldWarmUpTransportWithoutSending() {
+        final List<Mail> samples = new ArrayList<>();
+        SendGridMailer warmMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        warmMailer.setTransport(new MailTransport() {
+            @Override
+            public Response send(Mail mail) throws IOException {
+                throw new IOException("Expected no sends");
+            }
+
+            @Override
+            public Response send(byte[] payload) throws IOException {
+                throw new IOException("Expected no sends");
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return true;
+            }
+
+            @Override
+            public void warmUp(Mail sample, int connections) throws IOException {
+                assertThat(connections, is(2));
+                samples.add(sample);
+            }
+        });
+
+        warmMailer.warmUp(2);
+
+        assertThat(samples.size(), is(1));
+        assertThat(samples.get(0).getAttachments().get(0), is(instanceOf(StreamingAttachments.class)));
+        assertThat(samples.get(0).getPersonalization().size(), is(1));
+    }
+
     @Test
     public void shouldSendBasicTextEmail() {
         // @formatter:off
@@ -212,6 +301,227 @@ public class SendGridMailerTest {
 		assertThat(sent.attachments.get(1).getDisposition(), is("inline"));
     }
 
+    @Test
+    public void shouldRenderBodyAndAttachmentsConcurrentlyWithTheSendingRequest() {
+        final CountDownLatch rendering = new CountDownLatch(3);
+        final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+        SendGridMailer parallelMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected InMemoryResponse render(Object view) {
+                requests.add(requestContainer.getRequest());
+                rendering.countDown();
+                try {
+                    if (!rendering.await(5, TimeUnit.SECONDS)) {
+                        throw new MailException("Views were not rendered concurrently");
+                    }
+                } catch (InterruptedException e) {
+                    throw new MailException(e, "Interrupted");
+                }
+                return super.render(view);
+            }
+
+            @Override
+            protected void send(Mail email) {
+                sent = email;
+            }
+        };
+        ParallelRenderer renderer = new ParallelRenderer(3);
+        parallelMailer.setParallelRenderer(renderer);
+        Request request = Mockito.mock(Request.class);
+        ((ThreadLocalRequestContainer) requestContainer).set(request, null);
+
+        try {
+            // @formatter:off
+			parallelMailer.mail()
+				.subject("Subject")
+				.from("me@mail.com")
+				.to("someone@mail.com")
+				.body(new StringView("Body"))
+				.attach("Text", new FileView("file.txt", new byte[]{0,1,2}, "text/plain"), Disposition.Attachment)
+				.attach("Image.png", new FileView("image.png", new byte[]{3,2,1}, "image/png"), Disposition.Inline)
+				.send();
+			// @formatter:on
+        } finally {
+            ((ThreadLocalRequestContainer) requestContainer).clear();
+            renderer.shutdown();
+        }
+
+        assertThat(getContent().getValue(), is("Body"));
+        assertThat(sent.attachments.get(0).getFilename(), is("Text"));
+        assertThat(sent.attachments.get(0).getContent(), is(base64(new byte[]{0,1,2})));
+        assertThat(sent.attachments.get(1).getFilename(), is("Image.png"));
+        assertThat(sent.attachments.get(1).getContent(), is(base64(new byte[]{3,2,1})));
+        assertThat(requests, is(Arrays.asList(request, request, request)));
+    }
+
+    @Test
+    public void shouldThrowFirstAttachmentFailureInOrderWhenRenderingInParallel() {
+        final FileView slowFailure = new FileView("a.txt", new byte[]{0}, "text/plain");
+        final FileView fastFailure = new FileView("b.txt", new byte[]{1}, "text/plain");
+        SendGridMailer parallelMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected InMemoryResponse render(Object view) {
+                if (view == slowFailure) {
+                    sleep(100);
+                    throw new MailException("Slow failure");
+                }
+                if (view == fastFailure) {
+                    throw new MailException("Fast failure");
+                }
+                return super.render(view);
+            }
+        };
+        ParallelRenderer renderer = new ParallelRenderer(3);
+        parallelMailer.setParallelRenderer(renderer);
+
+        thrown.expect(MailException.class);
+        thrown.expectMessage("Failed to add attachment 'A' to SendGrid email: Slow failure");
+        try {
+            // @formatter:off
+			parallelMailer.mail()
+				.subject("Subject")
+				.from("me@mail.com")
+				.to("someone@mail.com")
+				.body(new StringView("Body"))
+				.attach("A", slowFailure, Disposition.Attachment)
+				.attach("B", fastFailure, Disposition.Attachment)
+				.send();
+			// @formatter:on
+        } finally {
+            renderer.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRenderCacheableViewsOnceWhenRenderCacheSet() {
+        final AtomicInteger renders = new AtomicInteger();
+        SendGridMailer cachingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected InMemoryResponse render(Object view) {
+                renders.incrementAndGet();
+                return super.render(view);
+            }
+
+            @Override
+            protected void send(Mail email) {
+                sent = email;
+            }
+        };
+        LruRenderCache renderCache = new LruRenderCache();
+        cachingMailer.setRenderCache(renderCache);
+
+        for (int i = 0; i < 3; i++) {
+            // @formatter:off
+			cachingMailer.mail()
+				.subject("Subject")
+				.from("me@mail.com")
+				.to("someone@mail.com")
+				.body(new CachedView("body", new StringView("<h1>Content</h1>").withContentType(ContentType.TextHtml)))
+				.attach("Text", new CachedView("text", new FileView("file.txt", new byte[]{0,1,2}, "text/plain")), Disposition.Attachment)
+				.send();
+			// @formatter:on
+        }
+
+        assertThat(renders.get(), is(2));
+        assertThat(renderCache.getStats().getHits(), is(4L));
+        assertThat(getContent().getValue(), is("<h1>Content</h1>"));
+        assertThat(getContent().getType(), is("text/html"));
+        assertThat(sent.attachments.get(0).getContent(), is(base64(new byte[] { 0, 1, 2 })));
+        assertThat(sent.attachments.get(0).getType(), is("text/plain"));
+    }
+
+    @Test
+    public void shouldReuseEncodedAttachmentsWhenAttachmentCacheSet() {
+        final AtomicInteger renders = new AtomicInteger();
+        SendGridMailer cachingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected InMemoryResponse render(Object view) {
+                renders.incrementAndGet();
+                return super.render(view);
+            }
+
+            @Override
+            protected void send(Mail email) {
+                sent = email;
+            }
+        };
+        cachingMailer.setAttachmentCache(new AttachmentCache());
+
+        List<String> encoded = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            // @formatter:off
+			cachingMailer.mail()
+				.subject("Subject")
+				.from("me@mail.com")
+				.to("someone@mail.com")
+				.body(new StringView("Body"))
+				.attach("Logo", new CachedView("logo", new FileView("logo.png", new byte[]{3,2,1}, "image/png")), Disposition.Inline)
+				.attach("Text", new FileView("file.txt", new byte[]{0,1,2}, "text/plain"), Disposition.Attachment)
+				.send();
+			// @formatter:on
+            encoded.add(sent.attachments.get(1).getContent());
+        }
+
+        // body twice, logo once and text twice
+        assertThat(renders.get(), is(5));
+        assertThat(sent.attachments.get(0).getContent(), is(base64(new byte[] { 3, 2, 1 })));
+        assertThat(sent.attachments.get(0).getType(), is("image/png"));
+        assertThat(encoded.get(1), is(base64(new byte[] { 0, 1, 2 })));
+        assertThat(encoded.get(1), is(sameInstance(encoded.get(0))));
+    }
+
+    @Test
+    public void shouldRenderWrappedViewWithoutRenderCache() {
+        // @formatter:off
+		mailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new CachedView("body", new StringView("Body")))
+			.send();
+		// @formatter:on
+        assertThat(getContent().getValue(), is("Body"));
+    }
+
+    @Test
+    public void shouldSendThroughTransport() {
+        SendGridMailer transportMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        transportMailer.setTransport(transport(true, 202));
+
+        // @formatter:off
+		transportMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.attach("Text", new FileView("file.txt", new byte[]{0,1,2}, "text/plain"), Disposition.Attachment)
+			.send();
+		// @formatter:on
+
+        assertThat(sent.getSubject(), is("Subject"));
+        assertThat(sent.attachments.get(0), is(instanceOf(StreamingAttachments.class)));
+        assertThat(((StreamingAttachments) sent.attachments.get(0)).getData(), is(new byte[] { 0, 1, 2 }));
+        assertThat(sent.attachments.get(0).getType(), is("text/plain"));
+        assertThat(sent.attachments.get(0).getFilename(), is("Text"));
+    }
+
+    @Test
+    public void shouldThrowMailExceptionForUnsuccessfulResponse() {
+        thrown.expect(MailException.class);
+        thrown.expectMessage("Failed to send email through Sendgrid (400): error");
+        SendGridMailer transportMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        transportMailer.setTransport(transport(false, 400));
+
+        // @formatter:off
+		transportMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.send();
+		// @formatter:on
+    }
+
     @Test
     public void shouldFailIfNoBodySpecified() {
         thrown.expect(MailException.class);
@@ -247,6 +557,839 @@ public class SendGridMailerTest {
 
     }
 
+    @Test
+    public void shouldDropEmailWithIdempotencyKeyAlreadySent() {
+        SendGridMailer onceMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        onceMailer.setTransport(transport(202));
+        onceMailer.setDuplicateSuppressor(new DuplicateSuppressor());
+
+        assertThat(onceMailer.sendOnce("job-1", onceMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body"))), is(true));
+        assertThat(onceMailer.sendOnce("job-1", onceMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body"))), is(false));
+
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test
+    public void shouldSendEmailWithIdempotencyKeyAgainAfterFailure() {
+        SendGridMailer onceMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        onceMailer.setTransport(transport(500, 202));
+        onceMailer.setDuplicateSuppressor(new DuplicateSuppressor());
+        try {
+            onceMailer.sendOnce("job-1", onceMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body")));
+            fail("Expected the first send to fail");
+        } catch (SendGridException e) {
+            assertThat(e.getStatusCode(), is(500));
+        }
+
+        assertThat(onceMailer.sendOnce("job-1", onceMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body"))), is(true));
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test
+    public void shouldForgetIdempotencyKeyWhenAsyncSendFails() {
+        SendGridMailer onceMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        onceMailer.setTransport(transport(500));
+        onceMailer.setDuplicateSuppressor(new DuplicateSuppressor());
+        SendGridExecutor executor = new SendGridExecutor(1);
+        onceMailer.setExecutor(executor);
+
+        assertThat(onceMailer.sendOnce("job-1", onceMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body"))), is(true));
+        executor.shutdown();
+
+        assertThat(attempts.get(), is(1));
+        assertThat(onceMailer.getDuplicateSuppressor().getSize(), is(0));
+    }
+
+    @Test
+    public void shouldDropIdenticalEmailsWhenMatchingContent() {
+        SendGridMailer onceMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        onceMailer.setTransport(transport(202));
+        onceMailer.setDuplicateSuppressor(new DuplicateSuppressor().matchContent(true));
+
+        onceMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body")).send();
+        onceMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body")).send();
+        onceMailer.mail().subject("Subject").from("me@mail.com").to("someone-else@mail.com").body(new StringView("Body")).send();
+
+        assertThat(attempts.get(), is(2));
+        assertThat(onceMailer.getDuplicateSuppressor().getSuppressed(), is(1L));
+    }
+
+    @Test
+    public void shouldFailToSendOnceWithoutDuplicateSuppressor() {
+        thrown.expect(MailException.class);
+        thrown.expectMessage("No duplicate suppressor has been set, emails cannot be sent once");
+
+        mailer.sendOnce("job-1", mailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body")));
+    }
+
+    @Test
+    public void shouldDropSuppressedRecipients() {
+        SendGridMailer suppressingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        suppressingMailer.setTransport(transport(202));
+        suppressingMailer.setSuppressionIndex(new SuppressionIndex());
+        suppressingMailer.getSuppressionIndex().add("bounced@mail.com");
+
+        // @formatter:off
+		suppressingMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.to("Bounced@mail.com")
+			.cc("bounced@mail.com")
+			.body(new StringView("Body"))
+			.send();
+		// @formatter:on
+
+        assertThat(attempts.get(), is(1));
+        assertThat(sent.getPersonalization().get(0).getTos().size(), is(1));
+        assertThat(sent.getPersonalization().get(0).getTos().get(0).getEmail(), is("someone@mail.com"));
+        assertThat(sent.getPersonalization().get(0).getCcs(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotSendEmailWhenEveryRecipientIsSuppressed() {
+        SendGridMailer suppressingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        suppressingMailer.setTransport(transport(202));
+        suppressingMailer.setSuppressionIndex(new SuppressionIndex());
+        suppressingMailer.getSuppressionIndex().add("bounced@mail.com");
+
+        suppressingMailer.mail().subject("Subject").from("me@mail.com").to("bounced@mail.com").body(new StringView("Body")).send();
+
+        assertThat(attempts.get(), is(0));
+    }
+
+    @Test
+    public void shouldDropSuppressedBulkRecipientsBeforeRendering() {
+        final AtomicInteger renders = new AtomicInteger();
+        SendGridMailer bulkMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected InMemoryResponse render(Object view) {
+                renders.incrementAndGet();
+                return super.render(view);
+            }
+        };
+        bulkMailer.setTransport(transport(202));
+        bulkMailer.setSuppressionIndex(new SuppressionIndex());
+        bulkMailer.getSuppressionIndex().add("bounced@mail.com");
+
+        BulkSendResult result = bulkMailer.sendBulk(new BulkMail().from("me@mail.com")
+                                                                  .subject("Subject")
+                                                                  .body(new StringView("Body"))
+                                                                  .to("one@mail.com")
+                                                                  .to("bounced@mail.com"));
+
+        assertThat(result.getSent(), is(1));
+        assertThat(result.getSuppressed(), is(1));
+        assertThat(sent.getPersonalization().size(), is(1));
+
+        result = bulkMailer.sendBulk(new BulkMail().from("me@mail.com")
+                                                   .subject("Subject")
+                                                   .body(new StringView("Body"))
+                                                   .to("bounced@mail.com"));
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.getRequests(), is(0));
+        assertThat(result.getSuppressed(), is(1));
+        assertThat(renders.get(), is(1));
+    }
+
+    @Test
+    public void shouldAdaptConcurrencyLimitToSendGridFailures() {
+        SendGridMailer limitedMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        limitedMailer.setTransport(transport(202, 503));
+        limitedMailer.setConcurrencyLimiter(new AdaptiveConcurrencyLimiter(10, 20));
+
+        limitedMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body")).send();
+        assertThat(limitedMailer.getConcurrencyLimiter().getLimit(), is(10));
+        assertThat(limitedMailer.getConcurrencyLimiter().getInFlight(), is(0));
+        try {
+            limitedMailer.mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body")).send();
+            fail("Expected the send to fail");
+        } catch (SendGridException e) {
+            assertThat(e.getStatusCode(), is(503));
+        }
+
+        assertThat(limitedMailer.getConcurrencyLimiter().getLimit(), is(9));
+        assertThat(limitedMailer.getConcurrencyLimiter().getInFlight(), is(0));
+    }
+
+    @Test
+    public void shouldSendAsynchronously() throws Exception {
+        SendGridMailer asyncMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected Response dispatch(Mail email) {
+                sent = email;
+                return new Response(202, "", Collections.<String, String> emptyMap());
+            }
+        };
+        Mail mail = new Mail();
+        mail.setSubject("Subject");
+
+        CompletableFuture<Response> future = asyncMailer.sendAsync(mail);
+
+        assertThat(future.get(5, TimeUnit.SECONDS).statusCode, is(202));
+        assertThat(sent, is(mail));
+    }
+
+    @Test
+    public void shouldShutDownExecutorItCreatedForAsynchronousSends() throws Exception {
+        SendGridMailer asyncMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected Response dispatch(Mail email) {
+                return new Response(202, "", Collections.<String, String> emptyMap());
+            }
+        };
+        asyncMailer.sendAsync(new Mail()).get(5, TimeUnit.SECONDS);
+
+        asyncMailer.shutdown();
+
+        CompletableFuture<Response> future = asyncMailer.sendAsync(new Mail());
+        assertThat(future.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void shouldLeaveDefaultExecutorSetOnItToItsOwner() throws Exception {
+        SendGridMailer asyncMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected Response dispatch(Mail email) {
+                return new Response(202, "", Collections.<String, String> emptyMap());
+            }
+        };
+        SendGridExecutor executor = new SendGridExecutor(1);
+        asyncMailer.setDefaultExecutor(executor);
+
+        asyncMailer.shutdown();
+
+        assertThat(asyncMailer.sendAsync(new Mail()).get(5, TimeUnit.SECONDS).statusCode, is(202));
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldSendFireAndForgetWhenExecutorSet() throws Exception {
+        final CompletableFuture<Mail> dispatched = new CompletableFuture<>();
+        SendGridMailer asyncMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected Response dispatch(Mail email) {
+                dispatched.complete(email);
+                throw new MailException("Expected failure is logged, not thrown");
+            }
+        };
+        asyncMailer.setExecutor(new SendGridExecutor(1));
+
+        // @formatter:off
+		asyncMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.send();
+		// @formatter:on
+        assertThat(dispatched.get(5, TimeUnit.SECONDS).getSubject(), is("Subject"));
+    }
+
+    @Test
+    public void shouldBlockAndPropagateFailuresWhenCoalescing() {
+        thrown.expect(MailException.class);
+        thrown.expectMessage("Expected");
+        SendGridMailer coalescingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected Response dispatch(Mail email) {
+                throw new MailException("Expected");
+            }
+        };
+        coalescingMailer.setCoalescer(new MailCoalescer(1, 10));
+
+        // @formatter:off
+		coalescingMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.send();
+		// @formatter:on
+    }
+
+    @Test
+    public void shouldRenderBulkMailOnceAndPackRecipientsIntoMaximalRequests() {
+        final AtomicInteger renders = new AtomicInteger();
+        final List<Mail> requests = Collections.synchronizedList(new ArrayList<Mail>());
+        SendGridMailer bulkMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected InMemoryResponse render(Object view) {
+                renders.incrementAndGet();
+                return super.render(view);
+            }
+
+            @Override
+            protected Response dispatch(Mail email) {
+                requests.add(email);
+                return new Response(202, "", Collections.<String, String> emptyMap());
+            }
+        };
+        BulkMail bulk = new BulkMail().from("me@mail.com", "Me")
+                                      .subject("Subject")
+                                      .body(new StringView("Body"));
+        for (int i = 0; i < 2500; i++) {
+            bulk.to("recipient" + i + "@mail.com");
+        }
+
+        BulkSendResult result = bulkMailer.sendBulk(bulk);
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.getRequests(), is(3));
+        assertThat(result.getSent(), is(2500));
+        assertThat(renders.get(), is(1));
+        assertThat(requests.size(), is(3));
+        int personalizations = 0;
+        for (Mail request : requests) {
+            assertThat(request.getSubject(), is("Subject"));
+            assertThat(request.from.getEmail(), is("me@mail.com"));
+            assertThat(request.getContent().get(0).getValue(), is("Body"));
+            assertThat(request.getPersonalization().size() <= SendGridMailer.MaxPersonalizations, is(true));
+            personalizations += request.getPersonalization().size();
+        }
+        assertThat(personalizations, is(2500));
+    }
+
+    @Test
+    public void shouldSendBulkMailWithPerRecipientSubstitutions() {
+        final List<Mail> requests = Collections.synchronizedList(new ArrayList<Mail>());
+        SendGridMailer bulkMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected Response dispatch(Mail email) {
+                requests.add(email);
+                return new Response(202, "", Collections.<String, String> emptyMap());
+            }
+        };
+        // @formatter:off
+		bulkMailer.sendBulk(new BulkMail()
+			.from("me@mail.com")
+			.subject("Hello -name-")
+			.body(new StringView("Body"))
+			.to("one@mail.com", "One", Collections.singletonMap("-name-", "One"))
+			.to("two@mail.com", null, Collections.singletonMap("-name-", "Two")));
+		// @formatter:on
+
+        Mail request = requests.get(0);
+        assertThat(request.getPersonalization().get(0).getTos().get(0).getName(), is("One"));
+        assertThat(request.getPersonalization().get(0).getSubstitutions(), hasEntry("-name-", "One"));
+        assertThat(request.getPersonalization().get(1).getTos().get(0).getName(), is("two@mail.com"));
+        assertThat(request.getPersonalization().get(1).getSubstitutions(), hasEntry("-name-", "Two"));
+    }
+
+    @Test
+    public void shouldSendTemplateWithPerRecipientDataWithoutRendering() throws IOException {
+        final List<Mail> requests = Collections.synchronizedList(new ArrayList<Mail>());
+        SendGridMailer templateMailer = new SendGridMailer(new ViewResolverRegistry(), requestContainer, "apiKey") {
+            @Override
+            protected Response dispatch(Mail email) {
+                requests.add(email);
+                return new Response(202, "", Collections.<String, String> emptyMap());
+            }
+        };
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("name", "One");
+        data.put("items", Arrays.asList(1, 2));
+
+        // @formatter:off
+		BulkSendResult result = templateMailer.sendTemplate(new TemplateMail("d-123")
+			.from("me@mail.com", "Me")
+			.to("one@mail.com", "One", data)
+			.to("two@mail.com"));
+		// @formatter:on
+
+        assertThat(result.getSent(), is(2));
+        JsonNode json = new ObjectMapper().readTree(requests.get(0).build());
+        assertThat(json.get("template_id").asText(), is("d-123"));
+        assertThat(json.get("from").get("name").asText(), is("Me"));
+        assertThat(json.has("content"), is(false));
+        assertThat(json.has("subject"), is(false));
+        assertThat(json.get("personalizations").get(0).get("to").get(0).get("email").asText(), is("one@mail.com"));
+        assertThat(json.get("personalizations").get(0).get("dynamic_template_data").get("name").asText(), is("One"));
+        assertThat(json.get("personalizations").get(0).get("dynamic_template_data").get("items").size(), is(2));
+        assertThat(json.get("personalizations").get(1).has("dynamic_template_data"), is(false));
+    }
+
+    @Test
+    public void shouldFailTemplateMailWithoutTemplateId() {
+        thrown.expect(MailException.class);
+        thrown.expectMessage("No template id has been set for this template email");
+
+        mailer.sendTemplate(new TemplateMail(null).from("me@mail.com").to("one@mail.com"));
+    }
+
+    @Test
+    public void shouldFailTemplateMailWithNoRecipients() {
+        thrown.expect(MailException.class);
+        thrown.expectMessage("No recipients have been set for this template email");
+
+        mailer.sendTemplate(new TemplateMail("d-123").from("me@mail.com"));
+    }
+
+    @Test
+    public void shouldReportFailedBulkBatches() {
+        SendGridMailer bulkMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey") {
+            @Override
+            protected Response dispatch(Mail email) {
+                throw new MailException("Expected");
+            }
+        };
+        BulkSendResult result = bulkMailer.sendBulk(new BulkMail().from("me@mail.com")
+                                                                  .subject("Subject")
+                                                                  .body(new StringView("Body"))
+                                                                  .to("one@mail.com")
+                                                                  .to("two@mail.com"));
+
+        assertThat(result.isSuccess(), is(false));
+        assertThat(result.getSent(), is(0));
+        assertThat(result.getFailed(), is(2));
+        assertThat(result.getFailures().get(0).getCause().getMessage(), is("Expected"));
+    }
+
+    @Test
+    public void shouldFailBulkMailWithNoRecipients() {
+        thrown.expect(MailException.class);
+        thrown.expectMessage("No recipients have been set for this bulk email");
+        mailer.sendBulk(new BulkMail().from("me@mail.com")
+                                      .body(new StringView("Body")));
+    }
+
+    @Test
+    public void shouldRetryRateLimitedAndFailedRequests() {
+        SendGridMailer retryingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        MailTransport transport = transport(429, 503, 202);
+        retryingMailer.setTransport(transport);
+        retryingMailer.setRetryPolicy(new RetryPolicy(3, 1, 10));
+
+        // @formatter:off
+		retryingMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.send();
+		// @formatter:on
+
+        assertThat(attempts.get(), is(3));
+        assertThat(sent.getSubject(), is("Subject"));
+    }
+
+    @Test
+    public void shouldFailOnceRetriesAreExhausted() {
+        thrown.expect(MailException.class);
+        thrown.expectMessage("Failed to send email through Sendgrid (503): error");
+        SendGridMailer retryingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        retryingMailer.setTransport(transport(503, 503, 503, 202));
+        retryingMailer.setRetryPolicy(new RetryPolicy(2, 1, 10));
+
+        // @formatter:off
+		retryingMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.send();
+		// @formatter:on
+    }
+
+    @Test
+    public void shouldNotRetryClientErrors() {
+        SendGridMailer retryingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        retryingMailer.setTransport(transport(400, 202));
+        retryingMailer.setRetryPolicy(new RetryPolicy(3, 1, 10));
+
+        try {
+            // @formatter:off
+			retryingMailer.mail()
+				.subject("Subject")
+				.from("me@mail.com")
+				.to("someone@mail.com")
+				.body(new StringView("Body"))
+				.send();
+			// @formatter:on
+            fail("Expected a MailException");
+        } catch (MailException e) {
+            assertThat(e.getMessage(), is("Failed to send email through Sendgrid (400): error"));
+        }
+        assertThat(attempts.get(), is(1));
+    }
+
+    @Test
+    public void shouldPaceRequestsThroughRateLimiter() {
+        SendGridMailer limitedMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        limitedMailer.setTransport(transport(202));
+        RateLimiter rateLimiter = new RateLimiter(2);
+        limitedMailer.setRateLimiter(rateLimiter);
+
+        for (int i = 0; i < 2; i++) {
+            // @formatter:off
+			limitedMailer.mail()
+				.subject("Subject")
+				.from("me@mail.com")
+				.to("someone@mail.com")
+				.body(new StringView("Body"))
+				.send();
+			// @formatter:on
+        }
+
+        assertThat(rateLimiter.getAvailable() < 1, is(true));
+    }
+
+    @Test
+    public void shouldStoreEmailInOutboxAndDeliverItInTheBackground() throws Exception {
+        SendGridMailer outboxMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        final List<String> payloads = Collections.synchronizedList(new ArrayList<String>());
+        outboxMailer.setTransport(new MailTransport() {
+            @Override
+            public Response send(Mail mail) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Response send(byte[] payload) throws IOException {
+                payloads.add(new String(payload, StandardCharsets.UTF_8));
+                return new Response(202, "", Collections.<String, String> emptyMap());
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return false;
+            }
+        });
+        MailOutbox outbox = new MailOutbox(folder.newFolder(), 1);
+        outboxMailer.setOutbox(outbox);
+
+        // @formatter:off
+		outboxMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.send();
+		// @formatter:on
+
+        assertThat(outbox.getJournal().isDrained(), is(false));
+        outbox.start(outboxMailer::sendPayload);
+        for (int i = 0; i < 500 && payloads.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        outbox.close();
+
+        assertThat(payloads.size(), is(1));
+        assertThat(payloads.get(0).contains("\"subject\":\"Subject\""), is(true));
+    }
+
+    @Test
+    public void shouldThrowSendGridExceptionWithStatusCode() {
+        SendGridMailer failingMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        failingMailer.setTransport(transport(503));
+
+        try {
+            failingMailer.sendPayload(new byte[0]);
+            fail("Expected a SendGridException");
+        } catch (SendGridException e) {
+            assertThat(e.getStatusCode(), is(503));
+            assertThat(e.isTransient(), is(true));
+        }
+    }
+
+    @Test
+    public void shouldOpenCircuitAndFailFastOnceSendsFail() {
+        SendGridMailer protectedMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        protectedMailer.setTransport(transport(503));
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new CircuitBreakerConfig().windowSize(2).minimumCalls(2));
+        protectedMailer.setCircuitBreaker(circuitBreaker);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                protectedMailer.sendPayload(new byte[0]);
+                fail("Expected a SendGridException");
+            } catch (SendGridException e) {
+                assertThat(e.getStatusCode(), is(503));
+            }
+        }
+        assertThat(circuitBreaker.isOpen(), is(true));
+
+        try {
+            protectedMailer.sendPayload(new byte[0]);
+            fail("Expected a CircuitOpenException");
+        } catch (CircuitOpenException e) {
+            assertThat(e.isTransient(), is(true));
+        }
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test
+    public void shouldNotCountClientErrorsAsCircuitFailures() {
+        SendGridMailer protectedMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        protectedMailer.setTransport(transport(400));
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new CircuitBreakerConfig().windowSize(1).minimumCalls(1));
+        protectedMailer.setCircuitBreaker(circuitBreaker);
+
+        try {
+            protectedMailer.sendPayload(new byte[0]);
+            fail("Expected a SendGridException");
+        } catch (SendGridException e) {
+            assertThat(circuitBreaker.isOpen(), is(false));
+        }
+    }
+
+    @Test
+    public void shouldNotCountRetryBackOffAsSlowCall() {
+        SendGridMailer protectedMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        protectedMailer.setTransport(transport(503, 202));
+        protectedMailer.setRetryPolicy(new RetryPolicy(1, 200, 200));
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new CircuitBreakerConfig().windowSize(1).minimumCalls(1).slowCall(50));
+        protectedMailer.setCircuitBreaker(circuitBreaker);
+
+        protectedMailer.sendPayload(new byte[0]);
+
+        assertThat(attempts.get(), is(2));
+        assertThat(circuitBreaker.getSlowCallRate(), is(0.0));
+        assertThat(circuitBreaker.isOpen(), is(false));
+    }
+
+    @Test
+    public void shouldSendThroughFallbackMailerWhileCircuitIsOpen() {
+        SendGridMailer protectedMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        protectedMailer.setTransport(transport(202));
+        CircuitBreaker circuitBreaker = openCircuitBreaker();
+        Mailer fallback = Mockito.mock(Mailer.class);
+        circuitBreaker.setFallback(fallback);
+        protectedMailer.setCircuitBreaker(circuitBreaker);
+
+        // @formatter:off
+		MailBuilder builder = protectedMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"));
+		// @formatter:on
+        builder.send();
+
+        Mockito.verify(fallback).send(builder);
+        assertThat(attempts.get(), is(0));
+    }
+
+    @Test
+    public void shouldSendThroughFallbackMailerWhileHalfOpenTrialsAreInProgress() {
+        SendGridMailer protectedMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        protectedMailer.setTransport(transport(202));
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new CircuitBreakerConfig().windowSize(1).minimumCalls(1).openDuration(0).halfOpenCalls(1));
+        circuitBreaker.tryAcquire();
+        circuitBreaker.record(true, 0);
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HalfOpen));
+        Mailer fallback = Mockito.mock(Mailer.class);
+        circuitBreaker.setFallback(fallback);
+        protectedMailer.setCircuitBreaker(circuitBreaker);
+
+        // @formatter:off
+		MailBuilder builder = protectedMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"));
+		// @formatter:on
+        builder.send();
+
+        Mockito.verify(fallback).send(builder);
+        assertThat(attempts.get(), is(0));
+    }
+
+    @Test
+    public void shouldStoreEmailInFallbackOutboxWhileCircuitIsOpen() throws Exception {
+        SendGridMailer protectedMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        protectedMailer.setTransport(transport(202));
+        CircuitBreaker circuitBreaker = openCircuitBreaker();
+        MailOutbox outbox = new MailOutbox(folder.newFolder(), 1);
+        circuitBreaker.setFallbackOutbox(outbox);
+        protectedMailer.setCircuitBreaker(circuitBreaker);
+
+        // @formatter:off
+		protectedMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.send();
+		// @formatter:on
+
+        assertThat(attempts.get(), is(0));
+        assertThat(outbox.getJournal().isDrained(), is(false));
+        outbox.close();
+    }
+
+    @Test
+    public void shouldRecordMetricsForEachStage() {
+        SendGridMailer measuredMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        measuredMailer.setTransport(transport(503, 202));
+        measuredMailer.setRetryPolicy(new RetryPolicy(1, 1, 1));
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        measuredMailer.setMetrics(metrics);
+
+        // @formatter:off
+		measuredMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.attach("file.txt", new StringView("abcd"), Disposition.Attachment)
+			.send();
+		// @formatter:on
+
+        assertThat(metrics.getLatency(Stage.Render).getCount(), is(2L));
+        assertThat(metrics.getLatency(Stage.Attachment).getCount(), is(1L));
+        assertThat(metrics.getLatency(Stage.Send).getCount(), is(2L));
+        assertThat(metrics.getAttachmentBytes(), is(8L));
+        assertThat(metrics.getStatusCount(503), is(1L));
+        assertThat(metrics.getStatusCount(202), is(1L));
+        assertThat(metrics.getInFlight(), is(0));
+        assertThat(metrics.getPeakInFlight(), is(1));
+    }
+
+    @Test
+    public void shouldRecordStreamedAttachmentBytes() {
+        SendGridMailer measuredMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        measuredMailer.setTransport(transport(true, 202));
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        measuredMailer.setMetrics(metrics);
+
+        // @formatter:off
+		measuredMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.attach("file.txt", new StringView("abcde"), Disposition.Attachment)
+			.send();
+		// @formatter:on
+
+        assertThat(metrics.getAttachmentBytes(), is(8L));
+        assertThat(metrics.getLatency(Stage.Attachment).getCount(), is(0L));
+    }
+
+    @Test
+    public void shouldRenderStreamedAttachmentsIntoPooledBuffersAndReleaseThemOnceSent() {
+        SendGridMailer pooledMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        pooledMailer.setTransport(transport(true, 202));
+        BufferPool bufferPool = new BufferPool(1024 * 1024);
+        pooledMailer.setBufferPool(bufferPool);
+
+        // @formatter:off
+		pooledMailer.mail()
+			.subject("Subject")
+			.from("me@mail.com")
+			.to("someone@mail.com")
+			.body(new StringView("Body"))
+			.attach("file.txt", new FileView("file.txt", new byte[] { 0, 1, 2 }, "text/plain"), Disposition.Attachment)
+			.send();
+		// @formatter:on
+
+        StreamingAttachments attachments = (StreamingAttachments) sent.attachments.get(0);
+        assertThat(attachments.getBuffer().isDirect(), is(true));
+        assertThat(attachments.getData(), is(new byte[] { 0, 1, 2 }));
+        assertThat(attachments.getType(), is("text/plain"));
+        assertThat(attachments.getFilename(), is("file.txt"));
+        assertThat(bufferPool.getPooledBytes(), is((long) BufferPool.MinBufferSize));
+    }
+
+    @Test
+    public void shouldReleasePooledAttachmentsWhenALaterAttachmentFails() {
+        SendGridMailer pooledMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        pooledMailer.setTransport(transport(true, 202));
+        BufferPool bufferPool = new BufferPool(1024 * 1024);
+        pooledMailer.setBufferPool(bufferPool);
+
+        try {
+            // @formatter:off
+			pooledMailer.mail()
+				.subject("Subject")
+				.from("me@mail.com")
+				.to("someone@mail.com")
+				.body(new StringView("Body"))
+				.attach("file.txt", new FileView("file.txt", new byte[] { 0, 1, 2 }, "text/plain"), Disposition.Attachment)
+				.attach("broken.txt", new Object(), Disposition.Attachment)
+				.send();
+			// @formatter:on
+            fail("Expected the second attachment to fail");
+        } catch (MailException e) {
+            assertThat(e.getMessage(), containsString("broken.txt"));
+        }
+
+        // the buffers of both the added attachment and the failed render are back in the pool
+        assertThat(sent, is(nullValue()));
+        assertThat(bufferPool.getPooledBytes(), is(2L * BufferPool.MinBufferSize));
+    }
+
+    @Test
+    public void shouldReleasePooledAttachmentsOnceEveryBulkBatchIsSent() {
+        SendGridMailer pooledMailer = new SendGridMailer(viewResolverRegistry, requestContainer, "apiKey");
+        pooledMailer.setTransport(transport(true, 202));
+        BufferPool bufferPool = new BufferPool(1024 * 1024);
+        pooledMailer.setBufferPool(bufferPool);
+        BulkMail bulk = new BulkMail().from("me@mail.com").subject("Subject").body(new StringView("Body"));
+        bulk.attach("file.txt", new StringView("abc"), Disposition.Attachment);
+        for (int i = 0; i < 1500; i++) {
+            bulk.to("someone" + i + "@mail.com");
+        }
+
+        assertThat(pooledMailer.sendBulk(bulk).getRequests(), is(2));
+
+        assertThat(bufferPool.getPooledBytes(), is((long) BufferPool.MinBufferSize));
+    }
+
+    private CircuitBreaker openCircuitBreaker() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(new CircuitBreakerConfig().windowSize(1).minimumCalls(1));
+        circuitBreaker.tryAcquire();
+        circuitBreaker.record(true, 0);
+        return circuitBreaker;
+    }
+
+    /**
+     * Responds with each of the given statuses in turn, then the last one
+     */
+    private MailTransport transport(final int... statuses) {
+        return new MailTransport() {
+            @Override
+            public Response send(Mail mail) throws IOException {
+                sent = mail;
+                return send(new byte[0]);
+            }
+
+            @Override
+            public Response send(byte[] payload) throws IOException {
+                int status = statuses[Math.min(attempts.getAndIncrement(), statuses.length - 1)];
+                return new Response(status, status == 202 ? "" : "error", Collections.<String, String> emptyMap());
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return false;
+            }
+        };
+    }
+
+    private MailTransport transport(final boolean streaming, final int status) {
+        return new MailTransport() {
+            @Override
+            public Response send(Mail mail) throws IOException {
+                sent = mail;
+                return new Response(status, status == 202 ? "" : "error", Collections.<String, String> emptyMap());
+            }
+
+            @Override
+            public Response send(byte[] payload) throws IOException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return streaming;
+            }
+        };
+    }
+
     private String base64(byte[] value) {
         return new Encoder(value).base64()
                 .string();
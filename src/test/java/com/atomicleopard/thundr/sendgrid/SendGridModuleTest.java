@@ -17,15 +17,64 @@
  */
 package com.atomicleopard.thundr.sendgrid;
 
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import com.atomicleopard.thundr.sendgrid.cache.AttachmentCache;
+import com.atomicleopard.thundr.sendgrid.cache.CacheStats;
+import com.atomicleopard.thundr.sendgrid.cache.RenderCache;
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitBreaker;
+import com.atomicleopard.thundr.sendgrid.dedupe.DuplicateSuppressor;
+import com.atomicleopard.thundr.sendgrid.fake.FakeSendGridServer;
+import com.atomicleopard.thundr.sendgrid.metrics.InMemoryMetrics;
+import com.atomicleopard.thundr.sendgrid.metrics.SendGridMetrics;
+import com.atomicleopard.thundr.sendgrid.outbox.MailOutbox;
+import com.atomicleopard.thundr.sendgrid.ratelimit.AdaptiveConcurrencyLimiter;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimiter;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RetryPolicy;
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionIndex;
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionRefresher;
+import com.atomicleopard.thundr.sendgrid.transport.MailTransport;
+import com.atomicleopard.thundr.sendgrid.transport.PooledHttpTransport;
+import com.atomicleopard.thundr.sendgrid.transport.SendGridApiTransport;
+import com.atomicleopard.thundr.sendgrid.transport.ShardedTransport;
+import com.atomicleopard.thundr.sendgrid.transport.ShardedTransport.Routing;
+import com.atomicleopard.thundr.sendgrid.transport.StreamingHttpTransport;
+import com.atomicleopard.thundr.sendgrid.webhook.SendGridEventDispatcher;
+import com.atomicleopard.thundr.sendgrid.webhook.SendGridWebhookController;
+import com.atomicleopard.thundr.sendgrid.webhook.SuppressionListener;
+import com.sendgrid.Content;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Personalization;
 import com.threewks.thundr.injection.InjectionContextImpl;
 import com.threewks.thundr.mail.Mailer;
+import com.threewks.thundr.request.RequestContainer;
+import com.threewks.thundr.request.ThreadLocalRequestContainer;
+import com.threewks.thundr.route.HttpMethod;
+import com.threewks.thundr.route.Router;
+import com.threewks.thundr.view.ViewResolverRegistry;
+import com.threewks.thundr.view.string.StringView;
+import com.threewks.thundr.view.string.StringViewResolver;
 
 public class SendGridModuleTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
 
 	private InjectionContextImpl injectionContext = new InjectionContextImpl();
 	private SendGridModule module = new SendGridModule();
@@ -37,4 +86,448 @@ public class SendGridModuleTest {
 		assertThat(injectionContext.contains(SendGridMailer.class), is(true));
 	}
 
+	@Test
+	public void shouldNotConfigureExecutorByDefault() {
+		module.configure(injectionContext);
+		assertThat(injectionContext.contains(SendGridExecutor.class), is(false));
+		assertThat(mailer().getExecutor(), is(nullValue()));
+	}
+
+	@Test
+	public void shouldConfigureDefaultExecutorAndShutItDownOnStop() {
+		module.configure(injectionContext);
+
+		SendGridExecutor executor = injectionContext.get(SendGridExecutor.class, "defaultExecutor");
+		assertThat(mailer().getDefaultExecutor(), is(sameInstance(executor)));
+
+		module.stop(injectionContext);
+
+		assertThat(executor.submit(() -> "sent").isCompletedExceptionally(), is(true));
+	}
+
+	@Test
+	public void shouldConfigureAsyncExecutorWhenEnabled() {
+		injectionContext.inject("true").named("sendgridAsync").as(String.class);
+		injectionContext.inject("8").named("sendgridMaxInFlight").as(String.class);
+		module.configure(injectionContext);
+
+		SendGridExecutor executor = injectionContext.get(SendGridExecutor.class);
+		assertThat(executor.getMaxInFlight(), is(8));
+		assertThat(mailer().getExecutor(), is(sameInstance(executor)));
+
+		module.stop(injectionContext);
+	}
+
+	@Test
+	public void shouldConfigureCoalescerWhenWindowSet() {
+		injectionContext.inject("25").named("sendgridCoalesceWindow").as(String.class);
+		module.configure(injectionContext);
+
+		MailCoalescer coalescer = injectionContext.get(MailCoalescer.class);
+		assertThat(coalescer.getWindowMillis(), is(25L));
+		assertThat(coalescer.getMaxBatchSize(), is(SendGridMailer.MaxPersonalizations));
+		assertThat(mailer().getCoalescer(), is(sameInstance(coalescer)));
+
+		module.stop(injectionContext);
+	}
+
+	@Test
+	public void shouldConfigureRenderCacheWhenSizeSet() {
+		injectionContext.inject("1024").named("sendgridRenderCacheSize").as(String.class);
+		module.configure(injectionContext);
+
+		RenderCache renderCache = injectionContext.get(RenderCache.class);
+		CacheStats stats = renderCache.getStats();
+		assertThat(stats.getMaxBytes(), is(1024L));
+		assertThat(mailer().getRenderCache(), is(sameInstance(renderCache)));
+	}
+
+	@Test
+	public void shouldConfigureAttachmentCacheWhenSizeSet() {
+		injectionContext.inject("2048").named("sendgridAttachmentCacheSize").as(String.class);
+		module.configure(injectionContext);
+
+		AttachmentCache attachmentCache = injectionContext.get(AttachmentCache.class);
+		assertThat(attachmentCache.getStats().getMaxBytes(), is(2048L));
+		assertThat(mailer().getAttachmentCache(), is(sameInstance(attachmentCache)));
+	}
+
+	@Test
+	public void shouldUseSendGridClientTransportByDefault() {
+		module.configure(injectionContext);
+		assertThat(mailer().getTransport(), is(instanceOf(SendGridApiTransport.class)));
+	}
+
+	@Test
+	public void shouldConfigureStreamingTransportWhenEnabled() {
+		injectionContext.inject("true").named("sendgridStreaming").as(String.class);
+		module.configure(injectionContext);
+
+		MailTransport transport = injectionContext.get(MailTransport.class);
+		assertThat(transport, is(instanceOf(StreamingHttpTransport.class)));
+		assertThat(mailer().getTransport(), is(sameInstance(transport)));
+
+		module.stop(injectionContext);
+	}
+
+	@Test
+	public void shouldConfigurePooledTransportWhenEnabled() {
+		injectionContext.inject("true").named("sendgridHttpPool").as(String.class);
+		injectionContext.inject("12").named("sendgridMaxConnections").as(String.class);
+		module.configure(injectionContext);
+
+		MailTransport transport = injectionContext.get(MailTransport.class);
+		assertThat(transport, is(instanceOf(PooledHttpTransport.class)));
+		assertThat(((PooledHttpTransport) transport).getPoolStats().getMax(), is(12));
+		assertThat(mailer().getTransport(), is(sameInstance(transport)));
+
+		module.stop(injectionContext);
+	}
+
+	@Test
+	public void shouldSendToConfiguredBaseUrl() throws Exception {
+		try (FakeSendGridServer server = new FakeSendGridServer()) {
+			injectionContext.inject(server.getBaseUrl()).named("sendgridBaseUrl").as(String.class);
+			module.configure(injectionContext);
+
+			assertThat(mailer().getTransport(), is(instanceOf(SendGridApiTransport.class)));
+			assertThat(mailer().sendAsync(mail()).get(5, TimeUnit.SECONDS).statusCode, is(202));
+			assertThat(server.getReceived().get(0).getSubject(), is("Subject"));
+		}
+	}
+
+	@Test
+	public void shouldSendPooledRequestsToConfiguredBaseUrl() throws Exception {
+		try (FakeSendGridServer server = new FakeSendGridServer()) {
+			injectionContext.inject(server.getBaseUrl()).named("sendgridBaseUrl").as(String.class);
+			injectionContext.inject("true").named("sendgridHttpPool").as(String.class);
+			module.configure(injectionContext);
+
+			assertThat(((PooledHttpTransport) mailer().getTransport()).getBaseUrl(), is(server.getBaseUrl()));
+			assertThat(mailer().sendAsync(mail()).get(5, TimeUnit.SECONDS).statusCode, is(202));
+			assertThat(server.getReceived().size(), is(1));
+
+			module.stop(injectionContext);
+		}
+	}
+
+	@Test
+	public void shouldSendPendingBatchesBeforeClosingTransportOnStop() throws Exception {
+		try (FakeSendGridServer server = new FakeSendGridServer()) {
+			injectionContext.inject(server.getBaseUrl()).named("sendgridBaseUrl").as(String.class);
+			injectionContext.inject("true").named("sendgridHttpPool").as(String.class);
+			injectionContext.inject("true").named("sendgridAsync").as(String.class);
+			injectionContext.inject("60000").named("sendgridCoalesceWindow").as(String.class);
+			module.configure(injectionContext);
+			mailer().mail().subject("Subject").from("me@mail.com").to("someone@mail.com").body(new StringView("Body")).send();
+			assertThat(server.getReceived().size(), is(0));
+
+			module.stop(injectionContext);
+
+			assertThat(server.getReceived().size(), is(1));
+		}
+	}
+
+	@Test
+	public void shouldWarmUpPooledConnectionsOnStartWhenEnabled() throws Exception {
+		try (FakeSendGridServer server = new FakeSendGridServer()) {
+			injectionContext.inject(server.getBaseUrl()).named("sendgridBaseUrl").as(String.class);
+			injectionContext.inject("true").named("sendgridHttpPool").as(String.class);
+			injectionContext.inject("true").named("sendgridWarmUp").as(String.class);
+			injectionContext.inject("2").named("sendgridWarmUpConnections").as(String.class);
+			module.configure(injectionContext);
+			PooledHttpTransport transport = (PooledHttpTransport) mailer().getTransport();
+
+			module.start(injectionContext);
+			for (int i = 0; i < 50 && transport.getPoolStats().getAvailable() < 2; i++) {
+				Thread.sleep(100);
+			}
+
+			assertThat(transport.getPoolStats().getAvailable(), is(2));
+			assertThat(server.getReceived().size(), is(0));
+			module.stop(injectionContext);
+		}
+	}
+
+	@Test
+	public void shouldStreamAndCompressWhenCompressionThresholdSet() throws Exception {
+		try (FakeSendGridServer server = new FakeSendGridServer()) {
+			injectionContext.inject(server.getBaseUrl()).named("sendgridBaseUrl").as(String.class);
+			injectionContext.inject("0").named("sendgridCompressionThreshold").as(String.class);
+			module.configure(injectionContext);
+
+			StreamingHttpTransport transport = (StreamingHttpTransport) mailer().getTransport();
+			assertThat(transport.getCompressionThreshold(), is(0L));
+			assertThat(mailer().sendAsync(mail()).get(5, TimeUnit.SECONDS).statusCode, is(202));
+			assertThat(server.getReceived().get(0).getHeaders().get("content-encoding"), is("gzip"));
+			assertThat(server.getReceived().get(0).getSubject(), is("Subject"));
+
+			module.stop(injectionContext);
+		}
+	}
+
+	@Test
+	public void shouldConfigureShardedTransportWhenApiKeysSet() {
+		injectionContext.inject("key1:3, key2").named("sendgridApiKeys").as(String.class);
+		injectionContext.inject("true").named("sendgridHttpPool").as(String.class);
+		injectionContext.inject("LeastInFlight").named("sendgridShardRouting").as(String.class);
+		module.configure(injectionContext);
+
+		ShardedTransport transport = (ShardedTransport) mailer().getTransport();
+		assertThat(transport.getRouting(), is(Routing.LeastInFlight));
+		assertThat(transport.getShards().size(), is(2));
+		assertThat(transport.getShards().get(0).getWeight(), is(3));
+		assertThat(transport.getShards().get(1).getWeight(), is(1));
+		assertThat(transport.getShards().get(0).getTransport(), is(instanceOf(PooledHttpTransport.class)));
+		assertThat(transport.isStreaming(), is(true));
+
+		module.stop(injectionContext);
+	}
+
+	@Test
+	public void shouldRateLimitEachApiKeySeparatelyWhenSharding() {
+		injectionContext.inject("key1, key2").named("sendgridApiKeys").as(String.class);
+		injectionContext.inject("true").named("sendgridRateLimiting").as(String.class);
+		injectionContext.inject("20").named("sendgridRateLimit").as(String.class);
+		module.configure(injectionContext);
+
+		ShardedTransport transport = (ShardedTransport) mailer().getTransport();
+		assertThat(injectionContext.contains(RateLimiter.class), is(false));
+		assertThat(mailer().getRateLimiter(), is(nullValue()));
+		assertThat(transport.getShards().get(0).getRateLimiter().getRate(), is(20.0));
+		assertThat(transport.getShards().get(1).getRateLimiter(), is(not(sameInstance(transport.getShards().get(0).getRateLimiter()))));
+
+		module.stop(injectionContext);
+	}
+
+	@Test
+	public void shouldConfigureRateLimiterAndRetriesWhenEnabled() {
+		injectionContext.inject("true").named("sendgridRateLimiting").as(String.class);
+		injectionContext.inject("20").named("sendgridRateLimit").as(String.class);
+		injectionContext.inject("5").named("sendgridRetries").as(String.class);
+		module.configure(injectionContext);
+
+		RateLimiter rateLimiter = injectionContext.get(RateLimiter.class);
+		RetryPolicy retryPolicy = injectionContext.get(RetryPolicy.class);
+		assertThat(rateLimiter.getRate(), is(20.0));
+		assertThat(retryPolicy.getMaxRetries(), is(5));
+		SendGridMailer mailer = mailer();
+		assertThat(mailer.getRateLimiter(), is(sameInstance(rateLimiter)));
+		assertThat(mailer.getRetryPolicy(), is(sameInstance(retryPolicy)));
+	}
+
+	@Test
+	public void shouldNotRateLimitOrRetryByDefault() {
+		module.configure(injectionContext);
+		SendGridMailer mailer = mailer();
+		assertThat(mailer.getRateLimiter(), is(nullValue()));
+		assertThat(mailer.getRetryPolicy(), is(nullValue()));
+	}
+
+	@Test
+	public void shouldConfigureAndStartOutboxWhenEnabled() throws IOException {
+		injectionContext.inject(folder.newFolder().getAbsolutePath()).named("sendgridOutbox").as(String.class);
+		injectionContext.inject("2").named("sendgridOutboxWorkers").as(String.class);
+		module.configure(injectionContext);
+		SendGridMailer mailer = mailer();
+		module.start(injectionContext);
+
+		MailOutbox outbox = injectionContext.get(MailOutbox.class);
+		assertThat(outbox.getWorkers(), is(2));
+		assertThat(outbox.isRunning(), is(true));
+		assertThat(mailer.getOutbox(), is(sameInstance(outbox)));
+
+		module.stop(injectionContext);
+		assertThat(outbox.isRunning(), is(false));
+	}
+
+	@Test
+	public void shouldConfigureCircuitBreakerWithFallbackOutboxWhenEnabled() throws IOException {
+		injectionContext.inject("true").named("sendgridCircuitBreaker").as(String.class);
+		injectionContext.inject("0.25").named("sendgridCircuitFailureRate").as(String.class);
+		injectionContext.inject("1000").named("sendgridCircuitOpenDuration").as(String.class);
+		injectionContext.inject(folder.newFolder().getPath()).named("sendgridCircuitOutbox").as(String.class);
+		module.configure(injectionContext);
+		SendGridMailer mailer = mailer();
+		module.start(injectionContext);
+
+		CircuitBreaker circuitBreaker = injectionContext.get(CircuitBreaker.class);
+		assertThat(mailer.getCircuitBreaker(), is(sameInstance(circuitBreaker)));
+		assertThat(circuitBreaker.getConfig().failureRate(), is(0.25));
+		assertThat(circuitBreaker.getConfig().openDuration(), is(1000L));
+		assertThat(circuitBreaker.getFallback(), is(nullValue()));
+		assertThat(circuitBreaker.getFallbackOutbox().isRunning(), is(true));
+
+		module.stop(injectionContext);
+		assertThat(circuitBreaker.getFallbackOutbox().isRunning(), is(false));
+	}
+
+	@Test
+	public void shouldNotConfigureCircuitBreakerByDefault() {
+		module.configure(injectionContext);
+		assertThat(mailer().getCircuitBreaker(), is(nullValue()));
+	}
+
+	@Test
+	public void shouldConfigureBufferPoolWhenSizeSet() {
+		injectionContext.inject("1048576").named("sendgridBufferPoolSize").as(String.class);
+		module.configure(injectionContext);
+
+		assertThat(mailer().getBufferPool().getMaxPooledBytes(), is(1048576L));
+	}
+
+	@Test
+	public void shouldConfigureParallelRenderingWhenEnabled() {
+		injectionContext.inject("true").named("sendgridParallelRendering").as(String.class);
+		injectionContext.inject("4").named("sendgridRenderThreads").as(String.class);
+		module.configure(injectionContext);
+
+		ParallelRenderer renderer = injectionContext.get(ParallelRenderer.class);
+		assertThat(mailer().getParallelRenderer(), is(sameInstance(renderer)));
+		assertThat(renderer.getExecutor(), is(instanceOf(ThreadPoolExecutor.class)));
+		assertThat(((ThreadPoolExecutor) renderer.getExecutor()).getMaximumPoolSize(), is(4));
+
+		module.stop(injectionContext);
+		assertThat(((ThreadPoolExecutor) renderer.getExecutor()).isShutdown(), is(true));
+	}
+
+	@Test
+	public void shouldNotRenderInParallelByDefault() {
+		module.configure(injectionContext);
+		assertThat(mailer().getParallelRenderer(), is(nullValue()));
+	}
+
+	@Test
+	public void shouldConfigureDuplicateSuppressionWhenWindowSet() {
+		injectionContext.inject("60000").named("sendgridDuplicateWindow").as(String.class);
+		injectionContext.inject("500").named("sendgridDuplicateMaxEntries").as(String.class);
+		injectionContext.inject("true").named("sendgridDuplicateMatchContent").as(String.class);
+		module.configure(injectionContext);
+
+		DuplicateSuppressor suppressor = mailer().getDuplicateSuppressor();
+		assertThat(suppressor.getWindowMillis(), is(60000L));
+		assertThat(suppressor.getMaxEntries(), is(500));
+		assertThat(suppressor.isMatchContent(), is(true));
+	}
+
+	@Test
+	public void shouldNotSuppressDuplicatesByDefault() {
+		module.configure(injectionContext);
+		assertThat(mailer().getDuplicateSuppressor(), is(nullValue()));
+	}
+
+	@Test
+	public void shouldLoadSuppressionSnapshotAndRefreshChanges() throws Exception {
+		File snapshot = folder.newFile("suppressions.csv");
+		Files.write(snapshot.toPath(), "email\nbounced@mail.com\n".getBytes(StandardCharsets.UTF_8));
+		File changes = folder.newFile("changes.txt");
+		Files.write(changes.toPath(), "unsubscribed@mail.com\n".getBytes(StandardCharsets.UTF_8));
+		injectionContext.inject(snapshot.getPath()).named("sendgridSuppressionSnapshot").as(String.class);
+		injectionContext.inject(changes.getPath()).named("sendgridSuppressionChanges").as(String.class);
+		injectionContext.inject("10").named("sendgridSuppressionRefresh").as(String.class);
+		module.configure(injectionContext);
+
+		SuppressionIndex index = mailer().getSuppressionIndex();
+		assertThat(index.contains("bounced@mail.com"), is(true));
+		module.start(injectionContext);
+		try {
+			for (int i = 0; i < 500 && !index.contains("unsubscribed@mail.com"); i++) {
+				Thread.sleep(10);
+			}
+			assertThat(index.contains("unsubscribed@mail.com"), is(true));
+		} finally {
+			module.stop(injectionContext);
+		}
+		assertThat(injectionContext.get(SuppressionRefresher.class).isRunning(), is(false));
+	}
+
+	@Test
+	public void shouldNotSuppressRecipientsByDefault() {
+		module.configure(injectionContext);
+		assertThat(mailer().getSuppressionIndex(), is(nullValue()));
+	}
+
+	@Test
+	public void shouldRouteWebhookAndFeedSuppressionIndex() throws Exception {
+		Router router = new Router();
+		injectionContext.inject(router).as(Router.class);
+		File snapshot = folder.newFile("suppressions.csv");
+		injectionContext.inject(snapshot.getPath()).named("sendgridSuppressionSnapshot").as(String.class);
+		injectionContext.inject("/sendgrid/events").named("sendgridWebhookPath").as(String.class);
+		injectionContext.inject("secret").named("sendgridWebhookToken").as(String.class);
+		injectionContext.inject("50").named("sendgridWebhookQueueSize").as(String.class);
+		module.configure(injectionContext);
+		module.start(injectionContext);
+		try {
+			SendGridEventDispatcher dispatcher = injectionContext.get(SendGridEventDispatcher.class);
+			assertThat(router.has(HttpMethod.POST, "/sendgrid/events"), is(true));
+			assertThat(dispatcher.getQueueSize(), is(50));
+			assertThat(dispatcher.getListeners().get(0), is(instanceOf(SuppressionListener.class)));
+			assertThat(dispatcher.isRunning(), is(true));
+		} finally {
+			module.stop(injectionContext);
+		}
+		assertThat(injectionContext.get(SendGridEventDispatcher.class).isRunning(), is(false));
+	}
+
+	@Test
+	public void shouldNotReceiveWebhookByDefault() {
+		module.configure(injectionContext);
+		assertThat(injectionContext.contains(SendGridWebhookController.class), is(false));
+	}
+
+	@Test
+	public void shouldConfigureAdaptiveConcurrencyWhenEnabled() {
+		injectionContext.inject("true").named("sendgridAdaptiveConcurrency").as(String.class);
+		injectionContext.inject("5").named("sendgridConcurrencyLimit").as(String.class);
+		injectionContext.inject("50").named("sendgridMaxConcurrency").as(String.class);
+		module.configure(injectionContext);
+
+		AdaptiveConcurrencyLimiter limiter = mailer().getConcurrencyLimiter();
+		assertThat(limiter.getLimit(), is(5));
+		assertThat(limiter.getMaxLimit(), is(50));
+	}
+
+	@Test
+	public void shouldNotLimitConcurrencyByDefault() {
+		module.configure(injectionContext);
+		assertThat(mailer().getConcurrencyLimiter(), is(nullValue()));
+	}
+
+	@Test
+	public void shouldConfigureMetricsWhenEnabled() {
+		injectionContext.inject("true").named("sendgridMetrics").as(String.class);
+		module.configure(injectionContext);
+
+		SendGridMetrics metrics = injectionContext.get(SendGridMetrics.class);
+		assertThat(metrics, is(instanceOf(InMemoryMetrics.class)));
+		assertThat(mailer().getMetrics(), is(sameInstance(metrics)));
+	}
+
+	@Test
+	public void shouldDiscardMetricsByDefault() {
+		module.configure(injectionContext);
+		assertThat(mailer().getMetrics(), is(sameInstance(SendGridMetrics.NoOp)));
+	}
+
+	private Mail mail() {
+		Mail mail = new Mail();
+		mail.setFrom(new Email("me@mail.com"));
+		mail.setSubject("Subject");
+		mail.addContent(new Content("text/plain", "Body"));
+		Personalization personalization = new Personalization();
+		personalization.addTo(new Email("one@mail.com"));
+		mail.addPersonalization(personalization);
+		return mail;
+	}
+
+	private SendGridMailer mailer() {
+		ViewResolverRegistry viewResolverRegistry = new ViewResolverRegistry();
+		viewResolverRegistry.addResolver(StringView.class, new StringViewResolver());
+		injectionContext.inject(viewResolverRegistry).as(ViewResolverRegistry.class);
+		injectionContext.inject(new ThreadLocalRequestContainer()).as(RequestContainer.class);
+		injectionContext.inject("apiKey").named("sendgridApiKey").as(String.class);
+		return injectionContext.get(SendGridMailer.class);
+	}
+
 }
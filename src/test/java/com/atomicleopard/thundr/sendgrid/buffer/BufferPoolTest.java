@@ -0,0 +1,106 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.buffer;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+    private BufferPool pool = new BufferPool(1024 * 1024, 512 * 1024);
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwoSizeClass() {
+        assertThat(BufferPool.sizeClass(1), is(BufferPool.MinBufferSize));
+        assertThat(BufferPool.sizeClass(BufferPool.MinBufferSize), is(BufferPool.MinBufferSize));
+        assertThat(BufferPool.sizeClass(BufferPool.MinBufferSize + 1), is(BufferPool.MinBufferSize * 2));
+        assertThat(BufferPool.sizeClass(300 * 1024), is(512 * 1024));
+    }
+
+    @Test
+    public void shouldAllocateDirectBuffers() {
+        ByteBuffer buffer = pool.acquire(100);
+
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(buffer.capacity(), is(BufferPool.MinBufferSize));
+        assertThat(buffer.position(), is(0));
+        assertThat(pool.getAllocations(), is(1L));
+    }
+
+    @Test
+    public void shouldReuseReleasedBuffersOfTheSameSize() {
+        ByteBuffer buffer = pool.acquire(100);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        assertThat(pool.getPooledBytes(), is((long) BufferPool.MinBufferSize));
+
+        ByteBuffer reused = pool.acquire(200);
+
+        assertThat(reused, is(sameInstance(buffer)));
+        assertThat(reused.position(), is(0));
+        assertThat(reused.remaining(), is(BufferPool.MinBufferSize));
+        assertThat(pool.getPooledBytes(), is(0L));
+        assertThat(pool.getReuses(), is(1L));
+        assertThat(pool.getAllocations(), is(1L));
+    }
+
+    @Test
+    public void shouldNotMixSizeClasses() {
+        pool.release(pool.acquire(100));
+
+        ByteBuffer larger = pool.acquire(BufferPool.MinBufferSize + 1);
+
+        assertThat(larger.capacity(), is(BufferPool.MinBufferSize * 2));
+        assertThat(pool.getReuses(), is(0L));
+    }
+
+    @Test
+    public void shouldServeBuffersLargerThanMaximumFromHeapWithoutPoolingThem() {
+        ByteBuffer buffer = pool.acquire(600 * 1024);
+
+        assertThat(buffer.isDirect(), is(false));
+        assertThat(buffer.capacity(), is(600 * 1024));
+        pool.release(buffer);
+        assertThat(pool.getPooledBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldDropReleasedBuffersBeyondMaximumPooledBytes() {
+        ByteBuffer first = pool.acquire(512 * 1024);
+        ByteBuffer second = pool.acquire(512 * 1024);
+        ByteBuffer third = pool.acquire(512 * 1024);
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        assertThat(pool.getPooledBytes(), is(1024 * 1024L));
+    }
+
+    @Test
+    public void shouldIgnoreBuffersNotFromAPool() {
+        pool.release(ByteBuffer.allocateDirect(1000));
+        pool.release(ByteBuffer.allocate(BufferPool.MinBufferSize));
+
+        assertThat(pool.getPooledBytes(), is(0L));
+    }
+}
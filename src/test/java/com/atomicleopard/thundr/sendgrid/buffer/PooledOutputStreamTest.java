@@ -0,0 +1,88 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.buffer;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PooledOutputStreamTest {
+    private BufferPool pool = new BufferPool(1024 * 1024);
+    private PooledOutputStream output = new PooledOutputStream(pool);
+
+    @Test
+    public void shouldWriteIntoPooledDirectBuffer() throws IOException {
+        output.write(1);
+        output.write(new byte[] { 2, 3 });
+
+        assertThat(output.size(), is(3));
+        assertThat(output.toByteArray(), is(new byte[] { 1, 2, 3 }));
+        ByteBuffer buffer = output.detach();
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(buffer.remaining(), is(3));
+    }
+
+    @Test
+    public void shouldMoveToLargerBufferAndReleaseSmallerOneWhenFull() throws IOException {
+        byte[] content = new byte[BufferPool.MinBufferSize + 10];
+        Arrays.fill(content, (byte) 7);
+
+        output.write(content, 0, 100);
+        output.write(content, 100, content.length - 100);
+
+        ByteBuffer buffer = output.detach();
+        assertThat(buffer.capacity(), is(BufferPool.MinBufferSize * 2));
+        byte[] written = new byte[buffer.remaining()];
+        buffer.get(written);
+        assertThat(written, is(content));
+        assertThat(pool.getPooledBytes(), is((long) BufferPool.MinBufferSize));
+    }
+
+    @Test
+    public void shouldWriteContentToAnotherStream() throws IOException {
+        output.write(new byte[] { 4, 5, 6 });
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        output.writeTo(copy);
+
+        assertThat(copy.toByteArray(), is(new byte[] { 4, 5, 6 }));
+        assertThat(output.size(), is(3));
+    }
+
+    @Test
+    public void shouldDiscardContentOnReset() throws IOException {
+        output.write(new byte[] { 4, 5, 6 });
+        output.reset();
+
+        assertThat(output.size(), is(0));
+    }
+
+    @Test
+    public void shouldReturnBufferToPoolOnRelease() {
+        output.release();
+        output.release();
+
+        assertThat(pool.getPooledBytes(), is((long) BufferPool.MinBufferSize));
+    }
+}
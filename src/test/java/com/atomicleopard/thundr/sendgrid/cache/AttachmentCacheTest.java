@@ -0,0 +1,96 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import com.threewks.thundr.util.Encoder;
+
+public class AttachmentCacheTest {
+    private AttachmentCache cache = new AttachmentCache(1024);
+
+    @Test
+    public void shouldBase64EncodeContent() {
+        EncodedAttachment encoded = cache.encode(rendered(new byte[] { 0, 1, 2 }, "image/png"));
+
+        assertThat(encoded.getContent(), is(new Encoder(new byte[] { 0, 1, 2 }).base64().string()));
+        assertThat(encoded.getContentType(), is("image/png"));
+    }
+
+    @Test
+    public void shouldReuseEncodingOfIdenticalContent() {
+        EncodedAttachment first = cache.encode(rendered(new byte[] { 0, 1, 2 }, "image/png"));
+        EncodedAttachment second = cache.encode(rendered(new byte[] { 0, 1, 2 }, "image/png"));
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(cache.getStats().getHits(), is(1L));
+    }
+
+    @Test
+    public void shouldNotShareEncodingOfDifferentContentOrType() {
+        EncodedAttachment first = cache.encode(rendered(new byte[] { 0, 1, 2 }, "image/png"));
+
+        assertThat(cache.encode(rendered(new byte[] { 0, 1, 3 }, "image/png")), is(not(sameInstance(first))));
+        assertThat(cache.encode(rendered(new byte[] { 0, 1, 2 }, "image/gif")).getContentType(), is("image/gif"));
+    }
+
+    @Test
+    public void shouldCacheByViewKey() {
+        EncodedAttachment encoded = new EncodedAttachment("AAEC", "image/png");
+        assertThat(cache.get("logo"), is(nullValue()));
+
+        cache.put("logo", encoded);
+
+        assertThat(cache.get("logo"), is(sameInstance(encoded)));
+    }
+
+    @Test
+    public void shouldNotShareEncodingOfContentWhichOnlyDiffersOutsideTheSample() {
+        cache = new AttachmentCache(1024 * 1024);
+        byte[] data = new byte[10000];
+        byte[] other = new byte[10000];
+        other[5001] = 1;
+        assertThat(AttachmentCache.sampleHash(other), is(AttachmentCache.sampleHash(data)));
+
+        EncodedAttachment first = cache.encode(rendered(data, "application/pdf"));
+        EncodedAttachment second = cache.encode(rendered(other, "application/pdf"));
+
+        assertThat(second.getContent(), is(new Encoder(other).base64().string()));
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(cache.encode(rendered(other.clone(), "application/pdf")), is(sameInstance(second)));
+    }
+
+    @Test
+    public void shouldBoundMemoryByCachedSize() {
+        cache.encode(rendered(new byte[200], "application/pdf"));
+        cache.encode(rendered(new byte[201], "application/pdf"));
+
+        assertThat(cache.getStats().getEntries(), is(1));
+        assertThat(cache.getStats().getBytes() <= 1024, is(true));
+    }
+
+    private RenderedContent rendered(byte[] data, String contentType) {
+        return new RenderedContent(data, contentType, null);
+    }
+}
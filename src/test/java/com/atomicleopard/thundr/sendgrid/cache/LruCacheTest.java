@@ -0,0 +1,114 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.cache;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+    private long now = 1000;
+    private LruCache<String, String> cache = cache(10, 0);
+
+    @Test
+    public void shouldReturnCachedValuesAndTrackHitsAndMisses() {
+        cache.put("a", "aaa");
+
+        assertThat(cache.get("a"), is("aaa"));
+        assertThat(cache.get("b"), is(nullValue()));
+
+        CacheStats stats = cache.getStats();
+        assertThat(stats.getHits(), is(1L));
+        assertThat(stats.getMisses(), is(1L));
+        assertThat(stats.getEntries(), is(1));
+        assertThat(stats.getBytes(), is(3L));
+        assertThat(stats.getHitRate(), is(0.5));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedWhenOverBudget() {
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        cache.get("a");
+        cache.put("c", "cccc");
+
+        assertThat(cache.get("a"), is("aaaa"));
+        assertThat(cache.get("b"), is(nullValue()));
+        assertThat(cache.get("c"), is("cccc"));
+        assertThat(cache.getStats().getEvictions(), is(1L));
+        assertThat(cache.getStats().getBytes(), is(8L));
+    }
+
+    @Test
+    public void shouldReplaceExistingEntries() {
+        cache.put("a", "aaaa");
+        cache.put("a", "aa");
+
+        assertThat(cache.get("a"), is("aa"));
+        assertThat(cache.getStats().getBytes(), is(2L));
+    }
+
+    @Test
+    public void shouldNotCacheValuesLargerThanBudget() {
+        cache.put("a", "aaaaaaaaaaa");
+
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.getStats().getBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldDropExistingEntryWhenReplacementIsLargerThanBudget() {
+        cache.put("a", "aaaa");
+        cache.put("a", "aaaaaaaaaaa");
+
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.getStats().getBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldExpireEntriesAfterTtl() {
+        cache = cache(10, 100);
+        cache.put("a", "aaa");
+        now += 99;
+        assertThat(cache.get("a"), is("aaa"));
+        now += 1;
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.getStats().getEntries(), is(0));
+        assertThat(cache.getStats().getEvictions(), is(1L));
+    }
+
+    @Test
+    public void shouldClear() {
+        cache.put("a", "aaa");
+        cache.clear();
+
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.getStats().getBytes(), is(0L));
+    }
+
+    private LruCache<String, String> cache(long maxBytes, long ttl) {
+        return new LruCache<String, String>(maxBytes, ttl, String::length) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+}
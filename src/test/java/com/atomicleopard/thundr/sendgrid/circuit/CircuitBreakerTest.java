@@ -0,0 +1,161 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.circuit;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.atomicleopard.thundr.sendgrid.circuit.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private long now = 1000000;
+    private long fast = TimeUnit.MILLISECONDS.toNanos(10);
+    private long slow = TimeUnit.MILLISECONDS.toNanos(2000);
+    private CircuitBreaker circuitBreaker = circuitBreaker(new CircuitBreakerConfig().windowSize(10).minimumCalls(4).failureRate(0.5).slowCallRate(0.75).slowCall(1000).openDuration(5000).halfOpenCalls(2));
+
+    @Test
+    public void shouldStayClosedBelowMinimumCalls() {
+        send(3, true, fast);
+
+        assertThat(circuitBreaker.getState(), is(State.Closed));
+        assertThat(circuitBreaker.getFailureRate(), is(1.0));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void shouldOpenWhenFailureRateReachesThreshold() {
+        send(2, false, fast);
+        send(1, true, fast);
+        assertThat(circuitBreaker.getState(), is(State.Closed));
+
+        send(1, true, fast);
+
+        assertThat(circuitBreaker.getState(), is(State.Open));
+        assertThat(circuitBreaker.isOpen(), is(true));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+    }
+
+    @Test
+    public void shouldOpenWhenSlowCallRateReachesThreshold() {
+        send(1, false, fast);
+        send(3, false, slow);
+
+        assertThat(circuitBreaker.getSlowCallRate(), is(closeTo(0.75, 0.001)));
+        assertThat(circuitBreaker.isOpen(), is(true));
+    }
+
+    @Test
+    public void shouldForgetOutcomesWhichLeaveTheWindow() {
+        send(3, true, fast);
+        circuitBreaker = circuitBreaker(new CircuitBreakerConfig().windowSize(4).minimumCalls(4).failureRate(0.75));
+        send(2, true, fast);
+        send(6, false, fast);
+        send(2, true, fast);
+
+        assertThat(circuitBreaker.getFailureRate(), is(0.5));
+        assertThat(circuitBreaker.getState(), is(State.Closed));
+    }
+
+    @Test
+    public void shouldLetTrialSendsThroughOnceOpenDurationHasPassed() {
+        send(4, true, fast);
+        now += 4999;
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+
+        now += 1;
+
+        assertThat(circuitBreaker.isOpen(), is(false));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.getState(), is(State.HalfOpen));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+    }
+
+    @Test
+    public void shouldRefuseSendsOnceHalfOpenTrialsAreTaken() {
+        send(4, true, fast);
+        assertThat(circuitBreaker.wouldRefuse(), is(true));
+        now += 5000;
+        assertThat(circuitBreaker.wouldRefuse(), is(false));
+
+        circuitBreaker.tryAcquire();
+        assertThat(circuitBreaker.wouldRefuse(), is(false));
+        circuitBreaker.tryAcquire();
+
+        assertThat(circuitBreaker.isOpen(), is(false));
+        assertThat(circuitBreaker.wouldRefuse(), is(true));
+    }
+
+    @Test
+    public void shouldCloseWhenTrialSendsSucceed() {
+        send(4, true, fast);
+        now += 5000;
+
+        send(2, false, fast);
+
+        assertThat(circuitBreaker.getState(), is(State.Closed));
+        assertThat(circuitBreaker.getFailureRate(), is(0.0));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void shouldReopenWhenATrialSendFailsOrIsSlow() {
+        send(4, true, fast);
+        now += 5000;
+        send(1, false, slow);
+
+        assertThat(circuitBreaker.getState(), is(State.Open));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+        now += 5000;
+        send(1, true, fast);
+        assertThat(circuitBreaker.getState(), is(State.Open));
+    }
+
+    @Test
+    public void shouldRejectEmptyWindow() {
+        thrown.expect(IllegalArgumentException.class);
+        new CircuitBreaker(new CircuitBreakerConfig().windowSize(0));
+    }
+
+    private void send(int count, boolean failed, long nanos) {
+        for (int i = 0; i < count; i++) {
+            if (circuitBreaker.tryAcquire()) {
+                circuitBreaker.record(failed, nanos);
+            }
+        }
+    }
+
+    private CircuitBreaker circuitBreaker(CircuitBreakerConfig config) {
+        return new CircuitBreaker(config) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+}
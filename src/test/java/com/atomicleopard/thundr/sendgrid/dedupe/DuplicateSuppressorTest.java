@@ -0,0 +1,159 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.dedupe;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.util.LinkedHashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.sendgrid.Content;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Personalization;
+
+public class DuplicateSuppressorTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private long now = 1000000;
+    private DuplicateSuppressor suppressor = suppressor(8000, 100);
+
+    @Test
+    public void shouldClaimKeyOnceWithinWindow() {
+        assertThat(suppressor.claim("job-1"), is(true));
+        assertThat(suppressor.claim("job-1"), is(false));
+        assertThat(suppressor.claim("job-2"), is(true));
+
+        assertThat(suppressor.getSize(), is(2));
+        assertThat(suppressor.getSuppressed(), is(1L));
+    }
+
+    @Test
+    public void shouldRememberKeyAcrossBucketsWithinWindow() {
+        suppressor.claim("job-1");
+        now += 7000;
+
+        assertThat(suppressor.claim("job-1"), is(false));
+    }
+
+    @Test
+    public void shouldForgetKeyOnceWindowHasPassed() {
+        suppressor.claim("job-1");
+        now += 9000;
+
+        assertThat(suppressor.getSize(), is(0));
+        assertThat(suppressor.claim("job-1"), is(true));
+    }
+
+    @Test
+    public void shouldAllowForgottenKeyToBeClaimedAgain() {
+        suppressor.claim("job-1");
+        suppressor.forget("job-1");
+
+        assertThat(suppressor.getSize(), is(0));
+        assertThat(suppressor.claim("job-1"), is(true));
+    }
+
+    @Test
+    public void shouldNeverSuppressKeysWhichWereNotClaimed() {
+        suppressor = suppressor(8000, 100000);
+        for (int i = 0; i < 20000; i++) {
+            assertThat(suppressor.claim("job-" + i), is(true));
+        }
+        for (int i = 0; i < 20000; i++) {
+            assertThat(suppressor.claim("job-" + i), is(false));
+        }
+    }
+
+    @Test
+    public void shouldShortenWindowWhenMaxEntriesExceeded() {
+        suppressor = suppressor(8000, 2);
+        suppressor.claim("job-1");
+        now += 1000;
+        suppressor.claim("job-2");
+        now += 1000;
+        suppressor.claim("job-3");
+
+        assertThat(suppressor.getSize(), is(2));
+        assertThat(suppressor.claim("job-1"), is(true));
+    }
+
+    @Test
+    public void shouldDropEarliestKeysWhenMaxEntriesExceededWithinOneBucket() {
+        suppressor = suppressor(8000, 2);
+        suppressor.claim("job-1");
+        suppressor.claim("job-2");
+        suppressor.claim("job-3");
+
+        assertThat(suppressor.getSize(), is(2));
+        assertThat(suppressor.claim("job-3"), is(false));
+        assertThat(suppressor.claim("job-1"), is(true));
+    }
+
+    @Test
+    public void shouldFingerprintIdenticalMailsTheSame() {
+        assertThat(DuplicateSuppressor.fingerprint(mail("Body")), is(DuplicateSuppressor.fingerprint(mail("Body"))));
+        assertThat(DuplicateSuppressor.fingerprint(mail("Body")), is(not(DuplicateSuppressor.fingerprint(mail("Other body")))));
+    }
+
+    @Test
+    public void shouldFingerprintMailsTheSameWhateverTheirMapOrder() {
+        Mail first = mail("Body");
+        first.headers = new LinkedHashMap<>();
+        first.headers.put("X-First", "1");
+        first.headers.put("X-Second", "2");
+        Mail second = mail("Body");
+        second.headers = new LinkedHashMap<>();
+        second.headers.put("X-Second", "2");
+        second.headers.put("X-First", "1");
+
+        assertThat(DuplicateSuppressor.fingerprint(first), is(DuplicateSuppressor.fingerprint(second)));
+    }
+
+    @Test
+    public void shouldRejectWindowShorterThanBuckets() {
+        thrown.expect(IllegalArgumentException.class);
+        new DuplicateSuppressor(1, 10);
+    }
+
+    private Mail mail(String body) {
+        Mail mail = new Mail();
+        mail.setFrom(new Email("me@mail.com"));
+        mail.setSubject("Subject");
+        mail.addContent(new Content("text/plain", body));
+        Personalization personalization = new Personalization();
+        personalization.addTo(new Email("someone@mail.com"));
+        mail.addPersonalization(personalization);
+        return mail;
+    }
+
+    private DuplicateSuppressor suppressor(long windowMillis, int maxEntries) {
+        return new DuplicateSuppressor(windowMillis, maxEntries) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.dedupe;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class FingerprintSetTest {
+    private FingerprintSet set = new FingerprintSet();
+
+    @Test
+    public void shouldAddContainAndRemoveFingerprints() {
+        assertThat(set.add(42L), is(true));
+        assertThat(set.add(42L), is(false));
+        assertThat(set.contains(42L), is(true));
+        assertThat(set.contains(43L), is(false));
+        assertThat(set.size(), is(1));
+
+        assertThat(set.remove(42L), is(true));
+        assertThat(set.remove(42L), is(false));
+        assertThat(set.contains(42L), is(false));
+        assertThat(set.size(), is(0));
+    }
+
+    @Test
+    public void shouldHoldZeroFingerprint() {
+        assertThat(set.contains(0L), is(false));
+        assertThat(set.add(0L), is(true));
+        assertThat(set.add(0L), is(false));
+        assertThat(set.contains(0L), is(true));
+        assertThat(set.remove(0L), is(true));
+        assertThat(set.contains(0L), is(false));
+    }
+
+    @Test
+    public void shouldRemoveEarliestAddedFingerprints() {
+        set.add(3L);
+        set.add(1L);
+        set.add(2L);
+        set.remove(1L);
+
+        assertThat(set.removeEarliest(), is(true));
+        assertThat(set.contains(3L), is(false));
+        assertThat(set.removeEarliest(), is(true));
+        assertThat(set.contains(2L), is(false));
+        assertThat(set.removeEarliest(), is(false));
+    }
+
+    @Test
+    public void shouldKeepCollidingFingerprintsReachableAfterRemoval() {
+        // all share the same slot so they form a single probe run
+        long[] colliding = { 1L << 40 | 5, 2L << 40 | 5, 3L << 40 | 5, 4L << 40 | 5 };
+        for (long fingerprint : colliding) {
+            set.add(fingerprint);
+        }
+
+        set.remove(colliding[1]);
+
+        assertThat(set.contains(colliding[0]), is(true));
+        assertThat(set.contains(colliding[1]), is(false));
+        assertThat(set.contains(colliding[2]), is(true));
+        assertThat(set.contains(colliding[3]), is(true));
+    }
+
+    @Test
+    public void shouldBehaveAsASetWhileGrowing() {
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            long fingerprint = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertThat(set.remove(fingerprint), is(expected.remove(fingerprint)));
+            } else {
+                assertThat(set.add(fingerprint), is(expected.add(fingerprint)));
+            }
+        }
+        assertThat(set.size(), is(expected.size()));
+        for (long fingerprint = 0; fingerprint < 5000; fingerprint++) {
+            assertThat(set.contains(fingerprint), is(expected.contains(fingerprint)));
+        }
+
+        while (set.removeEarliest()) {
+        }
+        assertThat(set.size(), is(0));
+    }
+}
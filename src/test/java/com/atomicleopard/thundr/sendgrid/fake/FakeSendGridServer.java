@@ -0,0 +1,462 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.fake;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import com.atomicleopard.thundr.sendgrid.SendGridExecutor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded stand in for the SendGrid v3 mail/send endpoint, for load and fault testing without a SendGrid account
+ * or network access. Point a transport at {@link #getBaseUrl()}, or set <code>sendgridBaseUrl</code> for the
+ * SendGridModule.
+ *
+ * Requests are checked for the shape SendGrid requires and recorded when accepted. Latency, rate limiting, server
+ * errors and dropped connections can be injected:
+ *
+ * <pre>
+ * <code>
+ * try (FakeSendGridServer server = new FakeSendGridServer()) {
+ * 	server.latency(20, 50).rateLimit(600, 1000).errorRate(0.01, 503);
+ * 	mailer.setTransport(new PooledHttpTransport("apiKey", server.getBaseUrl(), new HttpPoolConfig()));
+ * 	...
+ * 	assertThat(server.getReceived().size(), is(1000));
+ * }
+ * </code>
+ * </pre>
+ */
+public class FakeSendGridServer implements AutoCloseable {
+    /**
+     * A planned response which closes the connection without responding
+     */
+    public static final int Drop = -1;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<ReceivedMail> received = Collections.synchronizedList(new ArrayList<ReceivedMail>());
+    private final Queue<Integer> planned = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private volatile boolean recording = true;
+    private volatile String apiKey;
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile double errorRate;
+    private volatile int errorStatus = 500;
+    private volatile double dropRate;
+    private volatile int rateLimit;
+    private volatile long rateLimitWindow;
+    private long windowStart;
+    private int windowRequests;
+
+    public FakeSendGridServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public FakeSendGridServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 256);
+        executor = Executors.newCachedThreadPool(new SendGridExecutor.DaemonThreadFactory("fake-sendgrid-"));
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + getPort() + "/v3/";
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Rejects requests which are not authorized with the given api key with a 401
+     */
+    public FakeSendGridServer apiKey(String apiKey) {
+        this.apiKey = apiKey;
+        return this;
+    }
+
+    public FakeSendGridServer latency(long millis) {
+        return latency(millis, millis);
+    }
+
+    /**
+     * Delays each response by a random time between the given bounds, in milliseconds
+     */
+    public FakeSendGridServer latency(long minMillis, long maxMillis) {
+        this.minLatency = minMillis;
+        this.maxLatency = maxMillis;
+        return this;
+    }
+
+    /**
+     * Accepts the given number of requests in each window, responding to the rest with a 429. Every response carries
+     * SendGrid's <code>X-RateLimit-*</code> headers.
+     */
+    public FakeSendGridServer rateLimit(int limit, long windowMillis) {
+        synchronized (this) {
+            this.rateLimit = limit;
+            this.rateLimitWindow = windowMillis;
+            this.windowStart = 0;
+            this.windowRequests = 0;
+        }
+        return this;
+    }
+
+    /**
+     * Responds to the given proportion of requests, chosen at random, with the given status
+     */
+    public FakeSendGridServer errorRate(double rate, int status) {
+        this.errorRate = rate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    /**
+     * Closes the connection without responding for the given proportion of requests, chosen at random
+     */
+    public FakeSendGridServer dropRate(double rate) {
+        this.dropRate = rate;
+        return this;
+    }
+
+    /**
+     * Responds to the next requests with the given status, or {@link #Drop}
+     */
+    public FakeSendGridServer failNext(int count, int status) {
+        for (int i = 0; i < count; i++) {
+            planned.add(status);
+        }
+        return this;
+    }
+
+    /**
+     * Closes the connection without responding for the next requests
+     */
+    public FakeSendGridServer dropNext(int count) {
+        return failNext(count, Drop);
+    }
+
+    /**
+     * Controls whether accepted mail is kept for {@link #getReceived()}. Turn recording off for long running load tests
+     * so received mail does not accumulate in memory; accepted mail is still counted.
+     */
+    public FakeSendGridServer recording(boolean recording) {
+        this.recording = recording;
+        return this;
+    }
+
+    /**
+     * Removes all injected faults and recorded mail
+     */
+    public FakeSendGridServer reset() {
+        apiKey = null;
+        latency(0);
+        errorRate(0, 500);
+        dropRate(0);
+        rateLimit(0, 0);
+        recording(true);
+        planned.clear();
+        clear();
+        return this;
+    }
+
+    /**
+     * @return the mail accepted so far, in the order it was received
+     */
+    public List<ReceivedMail> getReceived() {
+        synchronized (received) {
+            return new ArrayList<>(received);
+        }
+    }
+
+    /**
+     * @return the number of mails accepted, whether or not they were recorded
+     */
+    public int getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * @return the number of requests received, whether or not they were accepted
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public void clear() {
+        received.clear();
+        requests.set(0);
+        accepted.set(0);
+    }
+
+    /**
+     * Waits until at least the given number of mails have been accepted
+     *
+     * @return true if they were accepted in time
+     */
+    public boolean awaitReceived(int count, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (accepted.get() < count) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    protected void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        byte[] body = read(exchange.getRequestBody());
+        delay();
+        Integer status = planned.poll();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (status == null && dropRate > 0 && random.nextDouble() < dropRate) {
+            status = Drop;
+        }
+        if (status == null && errorRate > 0 && random.nextDouble() < errorRate) {
+            status = errorStatus;
+        }
+        if (status != null && status == Drop) {
+            exchange.close();
+            return;
+        }
+        if (status != null) {
+            respond(exchange, status, error("Injected failure", null));
+            return;
+        }
+        if (!"POST".equals(exchange.getRequestMethod()) || !exchange.getRequestURI().getPath().endsWith("/v3/mail/send")) {
+            respond(exchange, 404, error("Not found", null));
+            return;
+        }
+        if (apiKey != null && !("Bearer " + apiKey).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            respond(exchange, 401, error("The provided authorization grant is invalid, expired, or revoked", null));
+            return;
+        }
+        if (!rateLimit(exchange)) {
+            respond(exchange, 429, error("too many requests", null));
+            return;
+        }
+        JsonNode json;
+        try {
+            boolean gzip = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            json = gzip ? objectMapper.readTree(new GZIPInputStream(new ByteArrayInputStream(body))) : objectMapper.readTree(body);
+        } catch (IOException e) {
+            respond(exchange, 400, error("Bad Request", null));
+            return;
+        }
+        ObjectNode errors = validate(json);
+        if (errors != null) {
+            respond(exchange, 400, errors);
+            return;
+        }
+        if (recording) {
+            received.add(new ReceivedMail(headers(exchange), json, body.length));
+        }
+        accepted.incrementAndGet();
+        exchange.getResponseHeaders().add("X-Message-Id", UUID.randomUUID().toString());
+        exchange.sendResponseHeaders(202, -1);
+        exchange.close();
+    }
+
+    /**
+     * Checks the rules SendGrid applies to every mail/send request
+     *
+     * @return SendGrid's error response if the request is invalid, otherwise null
+     */
+    protected ObjectNode validate(JsonNode json) {
+        if (!json.isObject()) {
+            return error("Bad Request", null);
+        }
+        JsonNode personalizations = json.path("personalizations");
+        if (!personalizations.isArray() || personalizations.size() == 0 || personalizations.size() > 1000) {
+            return error("The personalizations field is required and must have at least one personalization, and at most 1000.", "personalizations");
+        }
+        boolean hasTemplate = json.hasNonNull("template_id");
+        boolean everyPersonalizationHasSubject = true;
+        for (JsonNode personalization : personalizations) {
+            JsonNode to = personalization.path("to");
+            if (!to.isArray() || to.size() == 0) {
+                return error("The to array is required for all personalization objects, and must have at least one email object with a valid email address.", "personalizations.to");
+            }
+            for (JsonNode email : to) {
+                if (!validEmail(email)) {
+                    return error("Does not contain a valid address.", "personalizations.to");
+                }
+            }
+            for (String field : new String[] { "cc", "bcc" }) {
+                for (JsonNode email : personalization.path(field)) {
+                    if (!validEmail(email)) {
+                        return error("Does not contain a valid address.", "personalizations." + field);
+                    }
+                }
+            }
+            everyPersonalizationHasSubject &= personalization.hasNonNull("subject");
+        }
+        if (!validEmail(json.path("from"))) {
+            return error("The from object must be provided for every email send. It is an object that requires the email parameter, but may also contain a name parameter.", "from");
+        }
+        if (!hasTemplate && !everyPersonalizationHasSubject && json.path("subject").asText("").isEmpty()) {
+            return error("The subject is required. You can get around this requirement if you use a template with a subject defined or if every personalization has a subject defined.", "subject");
+        }
+        JsonNode content = json.path("content");
+        if (!hasTemplate && (!content.isArray() || content.size() == 0)) {
+            return error("Unless a valid template_id is provided, the content parameter is required. There must be at least one defined content block.", "content");
+        }
+        for (JsonNode block : content) {
+            if (block.path("type").asText("").isEmpty() || block.path("value").asText("").isEmpty()) {
+                return error("The content value must be a string at least one character in length.", "content.value");
+            }
+        }
+        for (JsonNode attachment : json.path("attachments")) {
+            if (attachment.path("filename").asText("").isEmpty()) {
+                return error("The attachment filename parameter is required.", "attachments.filename");
+            }
+            try {
+                Base64.getDecoder().decode(attachment.path("content").asText(""));
+            } catch (IllegalArgumentException e) {
+                return error("The attachment content must be base64 encoded.", "attachments.content");
+            }
+        }
+        return null;
+    }
+
+    private boolean validEmail(JsonNode email) {
+        return email.path("email").asText("").contains("@");
+    }
+
+    /**
+     * Counts the request against the current fixed window and adds the rate limit headers
+     *
+     * @return true if the request is within the limit
+     */
+    private boolean rateLimit(HttpExchange exchange) {
+        if (rateLimit <= 0) {
+            return true;
+        }
+        long reset;
+        int remaining;
+        boolean allowed;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now >= windowStart + rateLimitWindow) {
+                windowStart = now;
+                windowRequests = 0;
+            }
+            allowed = windowRequests < rateLimit;
+            if (allowed) {
+                windowRequests++;
+            }
+            remaining = rateLimit - windowRequests;
+            reset = (windowStart + rateLimitWindow + 999) / 1000;
+        }
+        exchange.getResponseHeaders().add("X-RateLimit-Limit", String.valueOf(rateLimit));
+        exchange.getResponseHeaders().add("X-RateLimit-Remaining", String.valueOf(remaining));
+        exchange.getResponseHeaders().add("X-RateLimit-Reset", String.valueOf(reset));
+        return allowed;
+    }
+
+    private void delay() {
+        long latency = maxLatency > minLatency ? ThreadLocalRandom.current().nextLong(minLatency, maxLatency + 1) : minLatency;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ObjectNode error(String message, String field) {
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode errors = response.putArray("errors");
+        ObjectNode error = errors.addObject();
+        error.put("message", message);
+        error.put("field", field);
+        error.putNull("help");
+        return response;
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode json) throws IOException {
+        byte[] body = objectMapper.writeValueAsBytes(json);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private Map<String, String> headers(HttpExchange exchange) {
+        Map<String, String> headers = new TreeMap<>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+        }
+        return headers;
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        try (InputStream in = inputStream) {
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
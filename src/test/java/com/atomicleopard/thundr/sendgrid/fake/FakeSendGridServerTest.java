@@ -0,0 +1,218 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.fake;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimitHeaders;
+import com.atomicleopard.thundr.sendgrid.transport.SendGridApiTransport;
+import com.atomicleopard.thundr.sendgrid.transport.StreamingHttpTransport;
+import com.sendgrid.Attachments;
+import com.sendgrid.Content;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Personalization;
+import com.sendgrid.Response;
+
+public class FakeSendGridServerTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private FakeSendGridServer server;
+    private StreamingHttpTransport transport;
+
+    @Before
+    public void before() throws IOException {
+        server = new FakeSendGridServer().apiKey("apiKey");
+        transport = new StreamingHttpTransport("apiKey", server.getBaseUrl(), HttpClients.createDefault());
+    }
+
+    @After
+    public void after() throws IOException {
+        transport.close();
+        server.close();
+    }
+
+    @Test
+    public void shouldAcceptAndRecordValidMail() throws IOException {
+        Response response = transport.send(mail());
+
+        assertThat(response.statusCode, is(202));
+        assertThat(server.getAccepted(), is(1));
+        ReceivedMail received = server.getReceived().get(0);
+        assertThat(received.getFrom(), is("me@mail.com"));
+        assertThat(received.getSubject(), is("Subject"));
+        assertThat(received.getTo(), is(Arrays.asList("one@mail.com")));
+        assertThat(received.getHeaders().get("authorization"), is("Bearer apiKey"));
+        assertThat(received.getAttachments(), is(1));
+    }
+
+    @Test
+    public void shouldRejectMailMissingRequiredFields() throws IOException {
+        Mail mail = mail();
+        mail.setFrom(new Email(""));
+
+        Response response = transport.send(mail);
+
+        assertThat(response.statusCode, is(400));
+        assertThat(response.body, containsString("\"field\":\"from\""));
+        assertThat(server.getRequests(), is(1));
+        assertThat(server.getReceived().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldRejectInvalidAttachmentContent() throws IOException {
+        String payload = "{\"personalizations\":[{\"to\":[{\"email\":\"one@mail.com\"}]}],\"from\":{\"email\":\"me@mail.com\"},\"subject\":\"Subject\","
+                + "\"content\":[{\"type\":\"text/plain\",\"value\":\"Body\"}],\"attachments\":[{\"filename\":\"file.txt\",\"content\":\"not base64!\"}]}";
+
+        Response response = transport.send(payload.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(response.statusCode, is(400));
+        assertThat(response.body, containsString("attachments.content"));
+    }
+
+    @Test
+    public void shouldAcceptTemplateMailWithoutSubjectOrContent() throws IOException {
+        String payload = "{\"personalizations\":[{\"to\":[{\"email\":\"one@mail.com\"}]}],\"from\":{\"email\":\"me@mail.com\"},\"template_id\":\"d-123\"}";
+
+        assertThat(transport.send(payload.getBytes(StandardCharsets.UTF_8)).statusCode, is(202));
+    }
+
+    @Test
+    public void shouldRejectIncorrectApiKey() throws IOException {
+        try (StreamingHttpTransport other = new StreamingHttpTransport("other", server.getBaseUrl(), HttpClients.createDefault())) {
+            assertThat(other.send(mail()).statusCode, is(401));
+        }
+    }
+
+    @Test
+    public void shouldAcceptMailFromSendGridClient() throws IOException {
+        Response response = new SendGridApiTransport("apiKey", server.getBaseUrl()).send(mail());
+
+        assertThat(response.statusCode, is(202));
+        assertThat(server.getReceived().size(), is(1));
+    }
+
+    @Test
+    public void shouldRespondWithInjectedFailures() throws IOException {
+        server.failNext(2, 503);
+
+        assertThat(transport.send(mail()).statusCode, is(503));
+        assertThat(transport.send(mail()).statusCode, is(503));
+        assertThat(transport.send(mail()).statusCode, is(202));
+        assertThat(server.getRequests(), is(3));
+        assertThat(server.getReceived().size(), is(1));
+    }
+
+    @Test
+    public void shouldRespondWithErrorsAtConfiguredRate() throws IOException {
+        server.errorRate(1, 500);
+
+        assertThat(transport.send(mail()).statusCode, is(500));
+    }
+
+    @Test
+    public void shouldDropConnectionsWithoutResponding() throws IOException {
+        server.dropNext(1);
+
+        thrown.expect(IOException.class);
+        transport.send(mail());
+    }
+
+    @Test
+    public void shouldRateLimitAndReportRemainingRequests() throws IOException {
+        server.rateLimit(2, 60000);
+
+        Response first = transport.send(mail());
+        Response second = transport.send(mail());
+        Response third = transport.send(mail());
+
+        assertThat(first.statusCode, is(202));
+        assertThat(RateLimitHeaders.from(first).getLimit(), is(2L));
+        assertThat(RateLimitHeaders.from(first).getRemaining(), is(1L));
+        assertThat(second.statusCode, is(202));
+        assertThat(RateLimitHeaders.from(second).getRemaining(), is(0L));
+        assertThat(third.statusCode, is(429));
+        assertThat(RateLimitHeaders.from(third), is(notNullValue()));
+        assertThat(server.getReceived().size(), is(2));
+    }
+
+    @Test
+    public void shouldDelayResponses() throws IOException {
+        server.latency(100);
+
+        long start = System.nanoTime();
+        transport.send(mail());
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), is(greaterThanOrEqualTo(100L)));
+    }
+
+    @Test
+    public void shouldCountButNotRecordMailWhenRecordingDisabled() throws Exception {
+        server.recording(false);
+
+        transport.send(mail());
+
+        assertThat(server.awaitReceived(1, 1, TimeUnit.SECONDS), is(true));
+        assertThat(server.getReceived().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldClearFaultsAndMailOnReset() throws IOException {
+        server.failNext(1, 500).rateLimit(1, 60000);
+        transport.send(mail());
+
+        server.reset();
+
+        assertThat(server.getRequests(), is(0));
+        assertThat(transport.send(mail()).statusCode, is(202));
+        assertThat(transport.send(mail()).statusCode, is(202));
+    }
+
+    private Mail mail() {
+        Mail mail = new Mail();
+        mail.setFrom(new Email("me@mail.com"));
+        mail.setSubject("Subject");
+        mail.addContent(new Content("text/plain", "Body"));
+        Personalization personalization = new Personalization();
+        personalization.addTo(new Email("one@mail.com"));
+        mail.addPersonalization(personalization);
+        Attachments attachments = new Attachments();
+        attachments.setFilename("file.txt");
+        attachments.setType("text/plain");
+        attachments.setContent("Ym9keQ==");
+        mail.addAttachments(attachments);
+        return mail;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.fake;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * A mail/send request accepted by a {@link FakeSendGridServer}
+ */
+public class ReceivedMail {
+    private final Map<String, String> headers;
+    private final JsonNode json;
+    private final long size;
+
+    public ReceivedMail(Map<String, String> headers, JsonNode json, long size) {
+        this.headers = Collections.unmodifiableMap(headers);
+        this.json = json;
+        this.size = size;
+    }
+
+    /**
+     * @return the request headers, with names in lower case
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public JsonNode getJson() {
+        return json;
+    }
+
+    /**
+     * @return the size of the request body in bytes, as received, so compressed if the request was gzip compressed
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public String getSubject() {
+        return json.path("subject").asText(null);
+    }
+
+    public String getFrom() {
+        return json.path("from").path("email").asText(null);
+    }
+
+    /**
+     * @return the to addresses of every personalization, in order
+     */
+    public List<String> getTo() {
+        List<String> to = new ArrayList<>();
+        for (JsonNode personalization : json.path("personalizations")) {
+            for (JsonNode email : personalization.path("to")) {
+                to.add(email.path("email").asText());
+            }
+        }
+        return to;
+    }
+
+    public int getPersonalizations() {
+        return json.path("personalizations").size();
+    }
+
+    public int getAttachments() {
+        return json.path("attachments").size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s to %s", getSubject(), getTo());
+    }
+}
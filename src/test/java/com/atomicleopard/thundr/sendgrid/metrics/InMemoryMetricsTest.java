@@ -0,0 +1,89 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.metrics;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import com.atomicleopard.thundr.sendgrid.SendGridException;
+
+public class InMemoryMetricsTest {
+    private InMemoryMetrics metrics = new InMemoryMetrics();
+
+    @Test
+    public void shouldRecordLatencyPerStage() {
+        metrics.recordLatency(Stage.Render, 10);
+        metrics.recordLatency(Stage.Send, 20);
+        metrics.recordLatency(Stage.Send, 40);
+
+        assertThat(metrics.getLatency(Stage.Render).getCount(), is(1L));
+        assertThat(metrics.getLatency(Stage.Attachment).getCount(), is(0L));
+        assertThat(metrics.getLatency(Stage.Send).getMean(), is(30.0));
+    }
+
+    @Test
+    public void shouldCountStatusesIncludingRequestsWithNoResponse() {
+        metrics.recordStatus(202);
+        metrics.recordStatus(202);
+        metrics.recordStatus(429);
+        metrics.recordStatus(SendGridException.NoResponse);
+
+        assertThat(metrics.getStatusCount(202), is(2L));
+        assertThat(metrics.getStatusCount(429), is(1L));
+        assertThat(metrics.getStatusCount(500), is(0L));
+        assertThat(metrics.getStatusCount(SendGridException.NoResponse), is(1L));
+        assertThat(metrics.getStatusCounts().size(), is(2));
+    }
+
+    @Test
+    public void shouldTrackInFlightAndPeak() {
+        metrics.incrementInFlight();
+        metrics.incrementInFlight();
+        metrics.decrementInFlight();
+
+        assertThat(metrics.getInFlight(), is(1));
+        assertThat(metrics.getPeakInFlight(), is(2));
+    }
+
+    @Test
+    public void shouldReportCompressionRatio() {
+        assertThat(metrics.getCompressionRatio(), is(1.0));
+
+        metrics.recordCompression(1000, 200);
+        metrics.recordCompression(3000, 200);
+
+        assertThat(metrics.getCompressed(), is(2L));
+        assertThat(metrics.getUncompressedBytes(), is(4000L));
+        assertThat(metrics.getCompressedBytes(), is(400L));
+        assertThat(metrics.getCompressionRatio(), is(0.1));
+    }
+
+    @Test
+    public void shouldTotalPayloadAndAttachmentBytes() {
+        metrics.recordPayloadBytes(100);
+        metrics.recordPayloadBytes(50);
+        metrics.recordAttachmentBytes(40);
+
+        assertThat(metrics.getPayloads(), is(2L));
+        assertThat(metrics.getPayloadBytes(), is(150L));
+        assertThat(metrics.getAttachments(), is(1L));
+        assertThat(metrics.getAttachmentBytes(), is(40L));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.metrics;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    private LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void shouldReportZeroWhenEmpty() {
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMean(), is(0.0));
+        assertThat(histogram.getPercentile(99), is(0L));
+    }
+
+    @Test
+    public void shouldRecordCountMeanAndMax() {
+        histogram.record(100);
+        histogram.record(300);
+
+        assertThat(histogram.getCount(), is(2L));
+        assertThat(histogram.getMean(), is(200.0));
+        assertThat(histogram.getMax(), is(300L));
+    }
+
+    @Test
+    public void shouldEstimatePercentilesWithinBucketPrecision() {
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertThat(histogram.getPercentile(50), is(allOf(greaterThanOrEqualTo(500000L), lessThanOrEqualTo(562500L))));
+        assertThat(histogram.getPercentile(99), is(allOf(greaterThanOrEqualTo(990000L), lessThanOrEqualTo(1000000L))));
+        assertThat(histogram.getPercentile(100), is(1000000L));
+    }
+
+    @Test
+    public void shouldMapValuesToBucketsContainingThem() {
+        for (long value : new long[] { 0, 1, 7, 8, 9, 15, 16, 1000, 123456789, Long.MAX_VALUE }) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertThat(LatencyHistogram.lowerBound(bucket), is(lessThanOrEqualTo(value)));
+            if (value < Long.MAX_VALUE / 2) {
+                assertThat(LatencyHistogram.lowerBound(bucket + 1), is(greaterThanOrEqualTo(value + 1)));
+            }
+        }
+    }
+}
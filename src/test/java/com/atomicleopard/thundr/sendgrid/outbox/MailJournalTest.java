@@ -0,0 +1,180 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.outbox;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.atomicleopard.thundr.sendgrid.outbox.MailJournal.Record;
+
+public class MailJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private MailJournal journal;
+
+    @Before
+    public void before() throws IOException {
+        directory = folder.newFolder();
+        journal = new MailJournal(directory, 64, false);
+    }
+
+    @After
+    public void after() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void shouldReadRecordsInOrder() throws Exception {
+        journal.append(bytes("one"));
+        journal.append(bytes("two"));
+
+        assertThat(string(next()), is("one"));
+        assertThat(string(next()), is("two"));
+        assertThat(next(), is(nullValue()));
+        assertThat(journal.isDrained(), is(true));
+    }
+
+    @Test
+    public void shouldRollOntoNewSegmentWhenFull() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            journal.append(bytes("payload-" + i));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(string(next()), is("payload-" + i));
+        }
+        assertThat(segments(), is(4));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectPayloadLargerThanSegment() throws Exception {
+        journal.append(new byte[64]);
+    }
+
+    @Test
+    public void shouldReplayUnacknowledgedRecordsWhenReopened() throws Exception {
+        journal.append(bytes("one"));
+        journal.append(bytes("two"));
+        journal.append(bytes("three"));
+        Record one = next();
+        Record two = next();
+        journal.ack(two.getPosition());
+        assertThat(journal.getCheckpoint(), is(0L));
+        journal.close();
+
+        journal = new MailJournal(directory, 64, false);
+
+        assertThat(string(next()), is("one"));
+        assertThat(string(next()), is("two"));
+        assertThat(string(next()), is("three"));
+        assertThat(one.getPosition(), is(0L));
+    }
+
+    @Test
+    public void shouldNotReplayAcknowledgedRecords() throws Exception {
+        journal.append(bytes("one"));
+        journal.append(bytes("two"));
+        Record one = next();
+        journal.ack(one.getPosition());
+        journal.close();
+
+        journal = new MailJournal(directory, 64, false);
+        assertThat(string(next()), is("two"));
+        assertThat(next(), is(nullValue()));
+
+        journal.append(bytes("three"));
+        assertThat(string(next()), is("three"));
+    }
+
+    @Test
+    public void shouldDeleteAcknowledgedSegments() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            journal.append(bytes("payload-" + i));
+        }
+        for (int i = 0; i < 10; i++) {
+            journal.ack(next().getPosition());
+        }
+
+        assertThat(journal.getUnacknowledged(), is(0));
+        assertThat(segments(), is(1));
+    }
+
+    @Test
+    public void shouldIgnoreIncompleteRecordWhenReopened() throws Exception {
+        journal.append(bytes("one"));
+        journal.close();
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "journal-00000000000000000000.log"), "rw")) {
+            // a record whose length was written but whose content does not match its checksum
+            file.seek(11);
+            file.writeInt(5);
+            file.writeInt(0);
+        }
+
+        journal = new MailJournal(directory, 64, false);
+        journal.append(bytes("two"));
+
+        assertThat(string(next()), is("one"));
+        assertThat(string(next()), is("two"));
+        assertThat(next(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldWaitForRecordToBeAppended() throws Exception {
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                journal.append(bytes("late"));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).start();
+
+        assertThat(string(journal.next(5, TimeUnit.SECONDS)), is("late"));
+    }
+
+    private Record next() throws InterruptedException {
+        return journal.next(0, TimeUnit.MILLISECONDS);
+    }
+
+    private int segments() {
+        return directory.list((dir, name) -> name.endsWith(".log")).length;
+    }
+
+    private byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String string(Record record) {
+        return new String(record.getPayload(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.outbox;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.atomicleopard.thundr.sendgrid.SendGridException;
+
+public class MailOutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private MailOutbox outbox;
+    private List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+    private Consumer<byte[]> sender = payload -> delivered.add(new String(payload, StandardCharsets.UTF_8));
+
+    @Before
+    public void before() throws IOException {
+        directory = folder.newFolder();
+        outbox = new MailOutbox(directory, 2);
+    }
+
+    @After
+    public void after() throws IOException {
+        outbox.close();
+    }
+
+    @Test
+    public void shouldDeliverAppendedEmails() throws Exception {
+        outbox.start(sender);
+        outbox.append(bytes("one"));
+        outbox.append(bytes("two"));
+
+        awaitDelivered(2);
+        assertThat(delivered, containsInAnyOrder("one", "two"));
+    }
+
+    @Test
+    public void shouldDeliverEmailsStoredBeforeRestart() throws Exception {
+        outbox.append(bytes("one"));
+        outbox.append(bytes("two"));
+        outbox.close();
+
+        outbox = new MailOutbox(directory, 2);
+        outbox.start(sender);
+
+        awaitDelivered(2);
+        assertThat(delivered, containsInAnyOrder("one", "two"));
+    }
+
+    @Test
+    public void shouldRetryTransientFailures() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        outbox.start(payload -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new SendGridException(503, "Unavailable");
+            }
+            sender.accept(payload);
+        });
+        outbox.append(bytes("one"));
+
+        awaitDelivered(1);
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test
+    public void shouldDropRejectedEmails() throws Exception {
+        outbox.start(payload -> {
+            if ("bad".equals(new String(payload, StandardCharsets.UTF_8))) {
+                throw new SendGridException(400, "Bad request");
+            }
+            sender.accept(payload);
+        });
+        outbox.append(bytes("bad"));
+        outbox.append(bytes("good"));
+
+        awaitDelivered(1);
+        awaitAcknowledged();
+        outbox.close();
+
+        outbox = new MailOutbox(directory, 2);
+        assertThat(outbox.getJournal().isDrained(), is(true));
+    }
+
+    @Test
+    public void shouldRetryUnexpectedFailures() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        outbox.start(payload -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new NullPointerException("Unexpected");
+            }
+            sender.accept(payload);
+        });
+        outbox.append(bytes("one"));
+
+        awaitDelivered(1);
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test
+    public void shouldDropEmailsWhichKeepFailingUnexpectedly() throws Exception {
+        outbox.start(payload -> {
+            if ("bad".equals(new String(payload, StandardCharsets.UTF_8))) {
+                throw new IllegalStateException("Unexpected");
+            }
+            sender.accept(payload);
+        });
+        outbox.append(bytes("bad"));
+        outbox.append(bytes("good"));
+
+        awaitDelivered(1);
+        awaitAcknowledged();
+        assertThat(delivered, containsInAnyOrder("good"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldOnlyStartOnce() {
+        outbox.start(sender);
+        outbox.start(sender);
+    }
+
+    private void awaitDelivered(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && delivered.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(delivered.size(), is(count));
+    }
+
+    private void awaitAcknowledged() throws InterruptedException {
+        for (int i = 0; i < 500 && !(outbox.getJournal().isDrained() && outbox.getJournal().getUnacknowledged() == 0); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.ratelimit;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long Millis = 1000000;
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private long now = 1000 * Millis;
+
+    @Test
+    public void shouldGrowLimitWhileFullyUsedRequestsSucceed() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 10);
+
+        for (int round = 0; round < 20; round++) {
+            roundTrip(limiter, limiter.getLimit(), 10, false);
+        }
+
+        assertThat(limiter.getLimit(), is(10));
+    }
+
+    @Test
+    public void shouldNotGrowLimitWhichIsNotUsed() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 100);
+
+        for (int i = 0; i < 100; i++) {
+            roundTrip(limiter, 1, 10, false);
+        }
+
+        assertThat(limiter.getLimit(), is(10));
+    }
+
+    @Test
+    public void shouldCutLimitOnceForBurstOfFailures() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 100);
+
+        roundTrip(limiter, 20, 10, true);
+
+        assertThat(limiter.getLimit(), is(18));
+        assertThat(limiter.getInFlight(), is(0));
+
+        roundTrip(limiter, 1, 10, true);
+
+        assertThat(limiter.getLimit(), is(16));
+    }
+
+    @Test
+    public void shouldCutLimitWhenLatencyRisesAboveTolerance() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 100);
+        roundTrip(limiter, 1, 10, false);
+        assertThat(limiter.getBaselineMillis(), is(10.0));
+
+        roundTrip(limiter, 1, 25, false);
+
+        assertThat(limiter.getLimit(), is(18));
+    }
+
+    @Test
+    public void shouldScaleRoundTripOfLargeRequestsByTheirSize() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 100);
+        roundTrip(limiter, 1, 10, false);
+        long payloadBytes = 16 * AdaptiveConcurrencyLimiter.ReferencePayloadBytes;
+
+        roundTrip(limiter, 1, 100, false, payloadBytes);
+
+        assertThat(limiter.getLimit(), is(20));
+        assertThat(limiter.getBaselineMillis(), is(6.25));
+
+        roundTrip(limiter, 1, 400, false, payloadBytes);
+
+        assertThat(limiter.getLimit(), is(18));
+    }
+
+    @Test
+    public void shouldFollowSustainedLatencyChange() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 100);
+        roundTrip(limiter, 1, 10, false);
+
+        for (int i = 0; i < 500; i++) {
+            roundTrip(limiter, 1, 18, false);
+        }
+
+        assertThat(limiter.getBaselineMillis(), is(closeTo(18, 0.1)));
+        roundTrip(limiter, 1, 30, false);
+        assertThat(limiter.getLimit(), is(20));
+
+        roundTrip(limiter, 1, 5, false);
+        assertThat(limiter.getBaselineMillis(), is(5.0));
+    }
+
+    @Test
+    public void shouldNotCutLimitBelowOne() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 10);
+
+        for (int i = 0; i < 10; i++) {
+            roundTrip(limiter, 1, 10, true);
+        }
+
+        assertThat(limiter.getLimit(), is(1));
+    }
+
+    @Test
+    public void shouldQueueRequestsOverLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 0.5, 2);
+        long acquired = limiter.acquire();
+        CountDownLatch sent = new CountDownLatch(1);
+        Thread waiting = new Thread(() -> {
+            limiter.release(limiter.acquire(), false);
+            sent.countDown();
+        });
+        waiting.start();
+
+        for (int i = 0; i < 500 && limiter.getQueued() == 0; i++) {
+            Thread.sleep(5);
+        }
+        assertThat(limiter.getQueued(), is(1));
+        assertThat(sent.getCount(), is(1L));
+
+        limiter.release(acquired, false);
+
+        assertThat(sent.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(limiter.getQueued(), is(0));
+        assertThat(limiter.getInFlight(), is(0));
+    }
+
+    @Test
+    public void shouldRequireBackoffRatioBelowOne() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("backoffRatio must be greater than 0 and less than 1, was 1.0");
+
+        new AdaptiveConcurrencyLimiter(1, 10, 1, 2);
+    }
+
+    @Test
+    public void shouldRequireInitialLimitWithinMaxLimit() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("initialLimit must be at least 1 and at most maxLimit, was 20 with a maxLimit of 10");
+
+        new AdaptiveConcurrencyLimiter(20, 10);
+    }
+
+    /**
+     * Sends the given number of concurrent requests, each taking the given time
+     */
+    private void roundTrip(AdaptiveConcurrencyLimiter limiter, int requests, long millis, boolean failed) {
+        roundTrip(limiter, requests, millis, failed, 0);
+    }
+
+    private void roundTrip(AdaptiveConcurrencyLimiter limiter, int requests, long millis, boolean failed, long payloadBytes) {
+        long[] acquired = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            acquired[i] = limiter.acquire();
+        }
+        now += millis * Millis;
+        for (int i = 0; i < requests; i++) {
+            limiter.release(acquired[i], failed, payloadBytes);
+        }
+        now += Millis;
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(int initialLimit, int maxLimit) {
+        return new AdaptiveConcurrencyLimiter(initialLimit, maxLimit) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.ratelimit;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.sendgrid.Response;
+
+public class RateLimiterTest {
+    private long now = 1000000;
+    private long slept = 0;
+
+    @Test
+    public void shouldBeUnlimitedUntilLimitIsLearned() {
+        RateLimiter limiter = new RateLimiter() {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+        for (int i = 0; i < 10000; i++) {
+            assertThat(limiter.tryAcquire(), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldPaceRequestsAtConfiguredRate() {
+        RateLimiter limiter = limiter(10);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire(), is(0L));
+        }
+        assertThat(limiter.tryAcquire(), is(100L));
+
+        now += 100;
+        assertThat(limiter.tryAcquire(), is(0L));
+    }
+
+    @Test
+    public void shouldSpreadRemainingBudgetUntilReset() {
+        RateLimiter limiter = new RateLimiter() {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+
+        limiter.update(response(600, 100, (now + 10000) / 1000));
+
+        assertThat(limiter.getAvailable(), is(90.0));
+        assertThat(limiter.getRate(), is(closeTo(9, 0.001)));
+    }
+
+    @Test
+    public void shouldWaitForResetWhenBudgetIsExhausted() {
+        RateLimiter limiter = limiter(100);
+        limiter.update(response(600, 0, (now + 5000) / 1000));
+
+        assertThat(limiter.tryAcquire(), is(5000L));
+
+        now += 5000;
+        assertThat(limiter.tryAcquire(), is(0L));
+        assertThat(limiter.getAvailable(), is(539.0));
+    }
+
+    @Test
+    public void shouldIgnoreResponsesWithoutRateLimitHeaders() {
+        RateLimiter limiter = limiter(10);
+        limiter.update(new Response(202, "", new HashMap<String, String>()));
+
+        assertThat(limiter.getRate(), is(closeTo(10, 0.001)));
+    }
+
+    @Test
+    public void shouldSleepUntilPermitIsAvailable() {
+        RateLimiter limiter = limiter(1);
+
+        limiter.acquire();
+        limiter.acquire();
+
+        assertThat(slept, is(1000L));
+    }
+
+    @Test
+    public void shouldReadRateLimitHeadersIgnoringCase() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("x-ratelimit-limit", "600");
+        headers.put("x-ratelimit-remaining", "599");
+        headers.put("x-ratelimit-reset", "1500000000");
+
+        RateLimitHeaders rateLimit = RateLimitHeaders.from(new Response(202, "", headers));
+
+        assertThat(rateLimit.getLimit(), is(600L));
+        assertThat(rateLimit.getRemaining(), is(599L));
+        assertThat(rateLimit.getResetMillis(), is(1500000000000L));
+    }
+
+    private RateLimiter limiter(double permitsPerSecond) {
+        return new RateLimiter(permitsPerSecond) {
+            @Override
+            protected long now() {
+                return now;
+            }
+
+            @Override
+            protected void sleep(long millis) {
+                slept += millis;
+                now += millis;
+            }
+        };
+    }
+
+    static Response response(long limit, long remaining, long reset) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put(RateLimitHeaders.Limit, String.valueOf(limit));
+        headers.put(RateLimitHeaders.Remaining, String.valueOf(remaining));
+        headers.put(RateLimitHeaders.Reset, String.valueOf(reset));
+        return new Response(429, "", headers);
+    }
+}
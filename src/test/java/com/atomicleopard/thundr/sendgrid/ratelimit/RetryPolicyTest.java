@@ -0,0 +1,72 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.ratelimit;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.sendgrid.Response;
+
+public class RetryPolicyTest {
+    private RetryPolicy policy = new RetryPolicy(3, 100, 1000) {
+        @Override
+        protected long now() {
+            return 1000000;
+        }
+    };
+
+    @Test
+    public void shouldRetryRateLimitedAndServerErrors() {
+        assertThat(policy.shouldRetry(response(429), 0), is(true));
+        assertThat(policy.shouldRetry(response(500), 0), is(true));
+        assertThat(policy.shouldRetry(response(503), 2), is(true));
+        assertThat(policy.shouldRetry(response(400), 0), is(false));
+        assertThat(policy.shouldRetry(response(401), 0), is(false));
+        assertThat(policy.shouldRetry(response(503), 3), is(false));
+    }
+
+    @Test
+    public void shouldBackOffExponentiallyWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.delay(response(500), 0), is(allOf(greaterThanOrEqualTo(50L), lessThanOrEqualTo(100L))));
+            assertThat(policy.delay(response(500), 2), is(allOf(greaterThanOrEqualTo(200L), lessThanOrEqualTo(400L))));
+            assertThat(policy.delay(response(500), 10), is(allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1000L))));
+        }
+    }
+
+    @Test
+    public void shouldWaitForRateLimitReset() {
+        Response response = RateLimiterTest.response(600, 0, 1000);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.delay(response, 0), is(allOf(greaterThanOrEqualTo(50L), lessThanOrEqualTo(100L))));
+        }
+        assertThat(policy.delay(RateLimiterTest.response(600, 0, 1000 + 5), 0), is(1000L));
+    }
+
+    private Response response(int status) {
+        return new Response(status, "", Collections.<String, String> emptyMap());
+    }
+}
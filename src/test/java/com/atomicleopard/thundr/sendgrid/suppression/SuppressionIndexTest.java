@@ -0,0 +1,227 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.suppression;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SuppressionIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SuppressionIndex index = new SuppressionIndex(4);
+
+    @Test
+    public void shouldContainAddedAddressIgnoringCaseAndWhitespace() {
+        assertThat(index.add("Someone@Mail.com"), is(true));
+        assertThat(index.add(" someone@mail.com "), is(false));
+
+        assertThat(index.contains("someone@mail.com"), is(true));
+        assertThat(index.contains("SOMEONE@MAIL.COM"), is(true));
+        assertThat(index.contains("someone.else@mail.com"), is(false));
+        assertThat(index.contains((String) null), is(false));
+        assertThat(index.size(), is(1));
+    }
+
+    @Test
+    public void shouldGrowAsAddressesAreAdded() {
+        for (int i = 0; i < 10000; i++) {
+            index.add("user" + i + "@mail.com");
+        }
+
+        assertThat(index.size(), is(10000));
+        for (int i = 0; i < 10000; i++) {
+            assertThat(index.contains("user" + i + "@mail.com"), is(true));
+        }
+        assertThat(index.contains("user10000@mail.com"), is(false));
+    }
+
+    @Test
+    public void shouldFindRemainingAddressesAfterRemoval() {
+        for (int i = 0; i < 1000; i++) {
+            index.add("user" + i + "@mail.com");
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertThat(index.remove("user" + i + "@mail.com"), is(true));
+        }
+
+        assertThat(index.size(), is(500));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(index.contains("user" + i + "@mail.com"), is(i % 2 == 1));
+        }
+        assertThat(index.remove("user0@mail.com"), is(false));
+    }
+
+    @Test
+    public void shouldClear() {
+        index.add("someone@mail.com");
+
+        index.clear();
+
+        assertThat(index.size(), is(0));
+        assertThat(index.contains("someone@mail.com"), is(false));
+    }
+
+    @Test
+    public void shouldNeverProduceEmptyFingerprint() {
+        assertThat(SuppressionIndex.fingerprint("someone@mail.com"), is(not(0L)));
+        assertThat(SuppressionIndex.fingerprint("someone@mail.com"), is(SuppressionIndex.fingerprint("SOMEONE@mail.com")));
+    }
+
+    @Test
+    public void shouldSaveAndLoadSnapshot() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            index.add("user" + i + "@mail.com");
+        }
+        File snapshot = folder.newFile("suppressions.bin");
+
+        index.save(snapshot);
+        SuppressionIndex loaded = SuppressionIndex.load(snapshot);
+
+        assertThat(loaded.size(), is(100));
+        assertThat(loaded.contains("user42@mail.com"), is(true));
+        assertThat(loaded.contains("user100@mail.com"), is(false));
+        assertThat(new File(snapshot.getPath() + ".tmp").exists(), is(false));
+    }
+
+    @Test
+    public void shouldLoadCsvExportSkippingHeader() throws IOException {
+        File export = write("suppressions.csv", "email,created\n\"one@mail.com\",1500000000\ntwo@mail.com,1500000001\n\n");
+
+        SuppressionIndex loaded = SuppressionIndex.load(export);
+
+        assertThat(loaded.size(), is(2));
+        assertThat(loaded.contains("one@mail.com"), is(true));
+        assertThat(loaded.contains("two@mail.com"), is(true));
+    }
+
+    @Test
+    public void shouldApplyOnlyNewCompleteLinesOfChanges() throws IOException {
+        index.add("removed@mail.com");
+        File changes = write("changes.txt", "+one@mail.com\n-removed@mail.com\ntwo@mail.com\nthr");
+
+        assertThat(index.refresh(changes), is(3));
+        assertThat(index.contains("one@mail.com"), is(true));
+        assertThat(index.contains("two@mail.com"), is(true));
+        assertThat(index.contains("removed@mail.com"), is(false));
+        assertThat(index.refresh(changes), is(0));
+
+        Files.write(changes.toPath(), "ee@mail.com\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertThat(index.refresh(changes), is(1));
+        assertThat(index.contains("three@mail.com"), is(true));
+        assertThat(index.size(), is(3));
+    }
+
+    @Test
+    public void shouldApplyChangesFromStartWhenFileIsTruncated() throws IOException {
+        File changes = write("changes.txt", "one@mail.com\ntwo@mail.com\n");
+        index.refresh(changes);
+
+        write("changes.txt", "-one@mail.com\n");
+
+        assertThat(index.refresh(changes), is(1));
+        assertThat(index.contains("one@mail.com"), is(false));
+        assertThat(index.contains("two@mail.com"), is(true));
+    }
+
+    @Test
+    public void shouldResumeChangesFromOffsetSavedInSnapshot() throws IOException {
+        File changes = write("changes.txt", "one@mail.com\n-one@mail.com\n");
+        index.refresh(changes);
+        File snapshot = folder.newFile("suppressions.bin");
+        index.save(snapshot);
+        Files.write(changes.toPath(), "two@mail.com\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        SuppressionIndex loaded = SuppressionIndex.load(snapshot);
+
+        assertThat(loaded.getChangesOffset(), is(index.getChangesOffset()));
+        assertThat(loaded.refresh(changes), is(1));
+        assertThat(loaded.contains("one@mail.com"), is(false));
+        assertThat(loaded.contains("two@mail.com"), is(true));
+    }
+
+    @Test
+    public void shouldLoadVersionOneSnapshotWithoutChangesOffset() throws IOException {
+        File snapshot = new File(folder.getRoot(), "suppressions.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(snapshot))) {
+            out.writeInt(0x53474958);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeLong(SuppressionIndex.fingerprint("one@mail.com"));
+        }
+
+        SuppressionIndex loaded = SuppressionIndex.load(snapshot);
+
+        assertThat(loaded.size(), is(1));
+        assertThat(loaded.contains("one@mail.com"), is(true));
+        assertThat(loaded.getChangesOffset(), is(0L));
+    }
+
+    @Test
+    public void shouldApplyChangesLongerThanLineBuffer() throws IOException {
+        StringBuilder local = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            local.append('a');
+        }
+        String email = local + "@mail.com";
+        File changes = write("changes.txt", "one@mail.com\n" + email + "\n");
+
+        assertThat(index.refresh(changes), is(2));
+        assertThat(index.contains(email), is(true));
+        assertThat(index.getChangesOffset(), is(changes.length()));
+    }
+
+    @Test
+    public void shouldIgnoreMissingChangesFile() throws IOException {
+        assertThat(index.refresh(new File(folder.getRoot(), "missing.txt")), is(0));
+    }
+
+    @Test
+    public void shouldApplyChangesOnRefresherSchedule() throws Exception {
+        File changes = write("changes.txt", "one@mail.com\n");
+        try (SuppressionRefresher refresher = new SuppressionRefresher(index, changes, 10)) {
+            refresher.start();
+            assertThat(refresher.isRunning(), is(true));
+
+            for (int i = 0; i < 500 && !index.contains("one@mail.com"); i++) {
+                Thread.sleep(10);
+            }
+            assertThat(index.contains("one@mail.com"), is(true));
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
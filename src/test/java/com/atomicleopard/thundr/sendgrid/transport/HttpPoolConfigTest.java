@@ -0,0 +1,49 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.Test;
+
+public class HttpPoolConfigTest {
+    private HttpPoolConfig config = new HttpPoolConfig().maxConnections(7).connectTimeout(100).readTimeout(200).connectionRequestTimeout(300).validateAfterInactivity(400);
+
+    @Test
+    public void shouldSizeConnectionManagerFromConfig() {
+        PoolingHttpClientConnectionManager connectionManager = config.connectionManager(ManagedHttpClientConnectionFactory.INSTANCE);
+
+        assertThat(connectionManager.getMaxTotal(), is(7));
+        assertThat(connectionManager.getDefaultMaxPerRoute(), is(7));
+        assertThat(connectionManager.getValidateAfterInactivity(), is(400));
+        connectionManager.shutdown();
+    }
+
+    @Test
+    public void shouldApplyTimeoutsFromConfig() {
+        RequestConfig requestConfig = config.requestConfig();
+
+        assertThat(requestConfig.getConnectTimeout(), is(100));
+        assertThat(requestConfig.getSocketTimeout(), is(200));
+        assertThat(requestConfig.getConnectionRequestTimeout(), is(300));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sendgrid.Content;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Personalization;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledHttpTransportTest {
+    private HttpServer server;
+    private PooledHttpTransport transport;
+    private volatile long delay = 0;
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        transport = new PooledHttpTransport("apiKey", baseUrl(), new HttpPoolConfig().maxConnections(4).readTimeout(500));
+    }
+
+    @After
+    public void after() throws IOException {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldReuseConnectionsBetweenRequests() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            assertThat(transport.send(mail()).statusCode, is(202));
+        }
+
+        HttpPoolStats stats = transport.getPoolStats();
+        assertThat(stats.getRequests(), is(5L));
+        assertThat(stats.getConnectionsOpened(), is(1L));
+        assertThat(stats.getReuseRate(), is(0.8));
+        assertThat(stats.getLeased(), is(0));
+        assertThat(stats.getAvailable(), is(1));
+        assertThat(stats.getMax(), is(4));
+    }
+
+    @Test
+    public void shouldOpenConnectionsOnWarmUpForRequestsToReuse() throws IOException {
+        transport.warmUp(mail(), 3);
+
+        assertThat(transport.getPoolStats().getAvailable(), is(3));
+        assertThat(transport.getPoolStats().getConnectionsOpened(), is(3L));
+        assertThat(transport.getPoolStats().getRequests(), is(0L));
+
+        assertThat(transport.send(mail()).statusCode, is(202));
+        assertThat(transport.getPoolStats().getConnectionsOpened(), is(3L));
+    }
+
+    @Test
+    public void shouldOpenNoMoreThanMaxConnectionsOnWarmUp() throws IOException {
+        transport.warmUp(mail(), 10);
+
+        assertThat(transport.getPoolStats().getAvailable(), is(4));
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void shouldTimeOutSlowResponses() throws IOException {
+        delay = 2000;
+        transport.send(mail());
+    }
+
+    @Test
+    public void shouldEvictIdleConnections() throws Exception {
+        transport.close();
+        transport = new PooledHttpTransport("apiKey", baseUrl(), new HttpPoolConfig().idleTimeout(50));
+        transport.send(mail());
+        assertThat(transport.getPoolStats().getAvailable(), is(1));
+
+        for (int i = 0; i < 50 && transport.getPoolStats().getAvailable() > 0; i++) {
+            Thread.sleep(100);
+        }
+
+        assertThat(transport.getPoolStats().getAvailable(), is(0));
+        transport.send(mail());
+        assertThat(transport.getPoolStats().getConnectionsOpened(), is(2L));
+        assertThat(transport.getPoolStats().getRequests(), is(greaterThan(1L)));
+    }
+
+    private String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v3/";
+    }
+
+    private Mail mail() {
+        Mail mail = new Mail();
+        mail.setFrom(new Email("me@mail.com"));
+        mail.setSubject("Subject");
+        mail.addContent(new Content("text/plain", "Body"));
+        Personalization personalization = new Personalization();
+        personalization.addTo(new Email("someone@mail.com"));
+        mail.addPersonalization(personalization);
+        return mail;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() != -1) {
+                // drain the request so the connection can be reused
+            }
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.sendResponseHeaders(202, -1);
+        // no body, closing the stream completes the exchange
+        exchange.getResponseBody().close();
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimitHeaders;
+import com.atomicleopard.thundr.sendgrid.ratelimit.RateLimiter;
+import com.atomicleopard.thundr.sendgrid.transport.ShardedTransport.Routing;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Response;
+
+public class ShardedTransportTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    private FixedTransport a = new FixedTransport("a");
+    private FixedTransport b = new FixedTransport("b");
+    private Shard shardA = new Shard("a", a, 3);
+    private Shard shardB = new Shard("b", b, 1);
+
+    @Test
+    public void shouldInterleaveShardsInProportionToWeight() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB));
+
+        for (int i = 0; i < 8; i++) {
+            transport.send(mail("me@mail.com"));
+        }
+
+        assertThat(sent, is(Arrays.asList("a", "a", "b", "a", "a", "a", "b", "a")));
+        assertThat(shardA.getRequests(), is(6L));
+        assertThat(shardB.getRequests(), is(2L));
+    }
+
+    @Test
+    public void shouldRouteToShardWithLeastInFlightRelativeToWeight() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB), Routing.LeastInFlight, 1000);
+        shardA.inFlight.set(3);
+        assertThat(transport.choose(null), is(sameInstance(shardB)));
+
+        shardB.inFlight.set(2);
+        assertThat(transport.choose(null), is(sameInstance(shardA)));
+    }
+
+    @Test
+    public void shouldRouteEachShardKeyToTheSameShard() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB), Routing.ShardKey, 1000);
+        Map<String, Shard> first = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            first.put("tenant" + i, transport.choose("tenant" + i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(transport.choose("tenant" + i), is(sameInstance(first.get("tenant" + i))));
+        }
+        assertThat(new HashSet<>(first.values()).size(), is(2));
+    }
+
+    @Test
+    public void shouldMoveOnlyKeysOfUnavailableShard() throws IOException {
+        Shard shardC = new Shard("c", new FixedTransport("c"), 1);
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB, shardC), Routing.ShardKey, 1000);
+        Map<String, Shard> before = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            before.put("tenant" + i, transport.choose("tenant" + i));
+        }
+
+        shardC.unavailableUntil = Long.MAX_VALUE;
+
+        for (int i = 0; i < 100; i++) {
+            Shard shard = transport.choose("tenant" + i);
+            assertThat(shard, is(not(sameInstance(shardC))));
+            if (before.get("tenant" + i) != shardC) {
+                assertThat(shard, is(sameInstance(before.get("tenant" + i))));
+            }
+        }
+    }
+
+    @Test
+    public void shouldRouteByShardKeyFunction() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB), Routing.ShardKey, 1000);
+        transport.setShardKey(mail -> "tenant");
+        Shard shard = transport.choose("tenant");
+
+        for (int i = 0; i < 10; i++) {
+            transport.send(mail("user" + i + "@mail.com"));
+        }
+
+        assertThat(shard.getRequests(), is(10L));
+    }
+
+    @Test
+    public void shouldTakeRateLimitedShardOutOfRotationUntilReset() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB));
+        long reset = System.currentTimeMillis() / 1000 + 60;
+        a.response = response(429, new RateLimitHeaders(10, 0, reset));
+
+        assertThat(transport.send(mail("me@mail.com")).statusCode, is(429));
+        for (int i = 0; i < 4; i++) {
+            assertThat(transport.send(mail("me@mail.com")).statusCode, is(202));
+        }
+
+        assertThat(sent, is(Arrays.asList("a", "b", "b", "b", "b")));
+        assertThat(shardA.getUnavailableUntil(), is(reset * 1000));
+        assertThat(shardA.getFailures(), is(1L));
+    }
+
+    @Test
+    public void shouldTakeShardWithNoRemainingRequestsOutOfRotation() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB));
+        a.response = response(202, new RateLimitHeaders(10, 0, System.currentTimeMillis() / 1000 + 60));
+
+        transport.send(mail("me@mail.com"));
+        transport.send(mail("me@mail.com"));
+
+        assertThat(sent, is(Arrays.asList("a", "b")));
+        assertThat(shardA.getFailures(), is(0L));
+    }
+
+    @Test
+    public void shouldLearnRateLimitOfEachShardFromItsOwnResponses() throws IOException {
+        Shard limitedA = new Shard("a", a, 1, new RateLimiter());
+        Shard limitedB = new Shard("b", b, 1, new RateLimiter());
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(limitedA, limitedB));
+        a.response = response(202, new RateLimitHeaders(600, 100, System.currentTimeMillis() / 1000 + 60));
+
+        transport.send(mail("me@mail.com"));
+        transport.send(mail("me@mail.com"));
+
+        assertThat(sent, is(Arrays.asList("a", "b")));
+        assertThat(limitedA.getRateLimiter().getRate(), is(lessThan(2.0)));
+        assertThat(limitedB.getRateLimiter().getRate(), is(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void shouldPassOverShardWithNoRateLimitPermits() throws IOException {
+        Shard limitedA = new Shard("a", a, 1, new RateLimiter(1));
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(limitedA, new Shard("b", b, 1)));
+
+        transport.send(mail("me@mail.com"));
+        transport.send(mail("me@mail.com"));
+        transport.send(mail("me@mail.com"));
+
+        assertThat(sent, is(Arrays.asList("a", "b", "b")));
+    }
+
+    @Test
+    public void shouldCoolDownShardAfterServerError() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB), Routing.RoundRobin, 60000);
+        a.response = response(503, null);
+
+        transport.send(mail("me@mail.com"));
+
+        assertThat(shardA.getUnavailableUntil(), is(greaterThan(System.currentTimeMillis() + 50000)));
+        assertThat(transport.choose(null), is(sameInstance(shardB)));
+    }
+
+    @Test
+    public void shouldCoolDownShardAndRethrowWhenRequestFails() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB));
+        a.failure = new IOException("Connection reset");
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Connection reset");
+        try {
+            transport.send(mail("me@mail.com"));
+        } finally {
+            assertThat(shardA.getInFlight(), is(0));
+            assertThat(transport.choose(null), is(sameInstance(shardB)));
+        }
+    }
+
+    @Test
+    public void shouldUseShardAvailableSoonestWhenAllAreOutOfRotation() {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(shardA, shardB));
+        shardA.unavailableUntil = Long.MAX_VALUE;
+        shardB.unavailableUntil = Long.MAX_VALUE - 1;
+
+        assertThat(transport.choose(null), is(sameInstance(shardB)));
+    }
+
+    @Test
+    public void shouldRouteRawPayloadsRoundRobin() throws IOException {
+        ShardedTransport transport = new ShardedTransport(Arrays.asList(new Shard("a", a, 1), new Shard("b", b, 1)), Routing.ShardKey, 1000);
+
+        transport.send(new byte[0]);
+        transport.send(new byte[0]);
+
+        assertThat(sent, is(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void shouldRejectNoShards() {
+        thrown.expect(IllegalArgumentException.class);
+        new ShardedTransport(Collections.<Shard> emptyList());
+    }
+
+    @Test
+    public void shouldBuildSmoothWeightedSchedule() {
+        int[] schedule = ShardedTransport.schedule(Arrays.asList(new Shard("a", a, 5), new Shard("b", b, 1), new Shard("c", b, 1)));
+
+        assertThat(schedule.length, is(7));
+        Set<Integer> window = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            window.add(schedule[i]);
+        }
+        assertThat(window.size(), is(3));
+        assertThat(Arrays.toString(schedule), is("[0, 0, 1, 0, 2, 0, 0]"));
+    }
+
+    private Mail mail(String from) {
+        Mail mail = new Mail();
+        mail.setFrom(new Email(from));
+        return mail;
+    }
+
+    private static Response response(int status, RateLimitHeaders headers) {
+        Map<String, String> responseHeaders = new HashMap<>();
+        if (headers != null) {
+            responseHeaders.put(RateLimitHeaders.Limit, String.valueOf(headers.getLimit()));
+            responseHeaders.put(RateLimitHeaders.Remaining, String.valueOf(headers.getRemaining()));
+            responseHeaders.put(RateLimitHeaders.Reset, String.valueOf(headers.getReset()));
+        }
+        return new Response(status, "", responseHeaders);
+    }
+
+    private class FixedTransport implements MailTransport {
+        private final String name;
+        private volatile Response response = response(202, null);
+        private volatile IOException failure;
+
+        FixedTransport(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Response send(Mail mail) throws IOException {
+            return send(new byte[0]);
+        }
+
+        @Override
+        public Response send(byte[] payload) throws IOException {
+            sent.add(name);
+            if (failure != null) {
+                throw failure;
+            }
+            return response;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
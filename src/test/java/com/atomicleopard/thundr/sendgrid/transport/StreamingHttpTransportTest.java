@@ -0,0 +1,272 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.transport;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomicleopard.thundr.sendgrid.buffer.BufferPool;
+import com.atomicleopard.thundr.sendgrid.metrics.InMemoryMetrics;
+import com.atomicleopard.thundr.sendgrid.metrics.Stage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sendgrid.Attachments;
+import com.sendgrid.Content;
+import com.sendgrid.Email;
+import com.sendgrid.Mail;
+import com.sendgrid.Personalization;
+import com.sendgrid.Response;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class StreamingHttpTransportTest {
+    private HttpServer server;
+    private StreamingHttpTransport transport;
+    private volatile String requestBody;
+    private volatile String authorization;
+    private volatile String transferEncoding;
+    private volatile String contentEncoding;
+    private volatile int requestBytes;
+    private volatile String path;
+    private volatile int status = 202;
+    private volatile long delay;
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        transport = new StreamingHttpTransport("apiKey", "http://localhost:" + server.getAddress().getPort() + "/v3", HttpClients.createDefault());
+    }
+
+    @After
+    public void after() throws IOException {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldStreamMailAsJsonToMailSendEndpoint() throws IOException {
+        Response response = transport.send(mail(new StreamingAttachments(new byte[] { 0, 1, 2 })));
+
+        assertThat(response.statusCode, is(202));
+        assertThat(response.body, is("accepted"));
+        assertThat(response.headers.get("X-Message-Id"), is("message-id"));
+        assertThat(path, is("/v3/mail/send"));
+        assertThat(authorization, is("Bearer apiKey"));
+        assertThat(transferEncoding, is("chunked"));
+
+        JsonNode json = new ObjectMapper().readTree(requestBody);
+        assertThat(json.get("subject").asText(), is("Subject"));
+        assertThat(json.get("attachments").get(0).get("content").asText(), is("AAEC"));
+        assertThat(json.get("attachments").get(0).get("filename").asText(), is("file.bin"));
+    }
+
+    @Test
+    public void shouldWriteSameJsonAsMailBuild() throws IOException {
+        Attachments encoded = new Attachments();
+        encoded.setContent("AAEC");
+
+        transport.send(mail(new StreamingAttachments(new byte[] { 0, 1, 2 })));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        assertThat(objectMapper.readTree(requestBody), is(objectMapper.readTree(mail(encoded).build())));
+    }
+
+    @Test
+    public void shouldSendSerializedPayload() throws IOException {
+        String payload = mail(new StreamingAttachments(new byte[] { 0, 1, 2 })).build();
+
+        Response response = transport.send(payload.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(response.statusCode, is(202));
+        assertThat(path, is("/v3/mail/send"));
+        assertThat(requestBody, is(payload));
+    }
+
+    @Test
+    public void shouldRecordStreamedPayloadSize() throws IOException {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        transport.setMetrics(metrics);
+
+        transport.send(mail(new StreamingAttachments(new byte[] { 0, 1, 2 })));
+
+        assertThat(metrics.getPayloads(), is(1L));
+        assertThat(metrics.getPayloadBytes(), is((long) requestBody.getBytes(StandardCharsets.UTF_8).length));
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void shouldApplyReadTimeoutFromPoolConfig() throws IOException {
+        transport.close();
+        transport = new StreamingHttpTransport("apiKey", "http://localhost:" + server.getAddress().getPort() + "/v3", new HttpPoolConfig().readTimeout(500));
+        delay = 2000;
+
+        transport.send(mail(new StreamingAttachments(new byte[] { 0, 1, 2 })));
+    }
+
+    @Test
+    public void shouldReturnErrorResponses() throws IOException {
+        status = 400;
+
+        Response response = transport.send(mail(new StreamingAttachments(new byte[0])));
+
+        assertThat(response.statusCode, is(400));
+    }
+
+    @Test
+    public void shouldStreamAttachmentFromPooledDirectBuffer() throws IOException {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        ByteBuffer buffer = pool.acquire(3);
+        buffer.put(new byte[] { 0, 1, 2 }).flip();
+        StreamingAttachments attachments = new StreamingAttachments(buffer, pool);
+
+        transport.send(mail(attachments));
+        transport.send(mail(attachments));
+
+        assertThat(new ObjectMapper().readTree(requestBody).get("attachments").get(0).get("content").asText(), is("AAEC"));
+        assertThat(attachments.getData(), is(new byte[] { 0, 1, 2 }));
+        attachments.retain().release();
+        assertThat(pool.getPooledBytes(), is(0L));
+        attachments.release();
+        assertThat(pool.getPooledBytes(), is((long) BufferPool.MinBufferSize));
+    }
+
+    @Test
+    public void shouldGzipBodiesAboveCompressionThreshold() throws IOException {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        transport.setMetrics(metrics);
+        transport.setCompressionThreshold(1024);
+        Mail mail = mail(new StreamingAttachments(new byte[4096]));
+
+        Response response = transport.send(mail);
+
+        assertThat(response.statusCode, is(202));
+        assertThat(contentEncoding, is("gzip"));
+        assertThat(requestBody, is(mail.build()));
+        assertThat(metrics.getCompressed(), is(1L));
+        assertThat(metrics.getUncompressedBytes(), is((long) requestBody.getBytes(StandardCharsets.UTF_8).length));
+        assertThat(metrics.getCompressedBytes(), is((long) requestBytes));
+        assertThat(metrics.getCompressionRatio(), is(lessThan(0.2)));
+        assertThat(metrics.getLatency(Stage.Compress).getCount(), is(1L));
+    }
+
+    @Test
+    public void shouldGzipSerializedPayloadsAboveCompressionThreshold() throws IOException {
+        transport.setCompressionThreshold(1024);
+        String payload = mail(new StreamingAttachments(new byte[4096])).build();
+
+        transport.send(payload.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(contentEncoding, is("gzip"));
+        assertThat(requestBody, is(payload));
+    }
+
+    @Test
+    public void shouldReadGzipEntityAsCompressedContent() throws IOException {
+        byte[] body = "{\"subject\":\"Subject\"}".getBytes(StandardCharsets.UTF_8);
+        GzipEntity entity = new GzipEntity(new ByteArrayEntity(body), new InMemoryMetrics());
+
+        assertThat(read(new GZIPInputStream(entity.getContent())), is(body));
+        assertThat(read(new GZIPInputStream(entity.getContent())), is(body));
+    }
+
+    @Test
+    public void shouldNotGzipBodiesBelowCompressionThreshold() throws IOException {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        transport.setMetrics(metrics);
+        transport.setCompressionThreshold(1024 * 1024);
+
+        transport.send(mail(new StreamingAttachments(new byte[4096])));
+
+        assertThat(contentEncoding, is(nullValue()));
+        assertThat(metrics.getCompressed(), is(0L));
+        assertThat(metrics.getCompressionRatio(), is(1.0));
+    }
+
+    @Test
+    public void shouldEncodeStreamingAttachmentContentOnDemand() {
+        assertThat(new StreamingAttachments(new byte[] { 0, 1, 2 }).getContent(), is("AAEC"));
+    }
+
+    private Mail mail(Attachments attachments) {
+        Mail mail = new Mail();
+        mail.setFrom(new Email("me@mail.com"));
+        mail.setSubject("Subject");
+        mail.addContent(new Content("text/plain", "Body"));
+        Personalization personalization = new Personalization();
+        personalization.addTo(new Email("someone@mail.com"));
+        mail.addPersonalization(personalization);
+        attachments.setFilename("file.bin");
+        attachments.setType("application/octet-stream");
+        attachments.setDisposition("attachment");
+        mail.addAttachments(attachments);
+        return mail;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        path = exchange.getRequestURI().getPath();
+        authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+        contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        byte[] body = read(exchange.getRequestBody());
+        requestBytes = body.length;
+        requestBody = new String("gzip".equals(contentEncoding) ? read(new GZIPInputStream(new ByteArrayInputStream(body))) : body, StandardCharsets.UTF_8);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] response = "accepted".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("X-Message-Id", "message-id");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private byte[] read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SendGridEventDispatcherTest {
+    private SendGridEventDispatcher dispatcher = new SendGridEventDispatcher(100, 10, 10);
+    private List<List<SendGridEvent>> batches = Collections.synchronizedList(new ArrayList<List<SendGridEvent>>());
+
+    @After
+    public void after() {
+        dispatcher.close();
+    }
+
+    @Test
+    public void shouldDispatchQueuedEventsInBatches() throws Exception {
+        dispatcher.addListener(events -> batches.add(new ArrayList<>(events)));
+        for (int i = 0; i < 25; i++) {
+            assertThat(dispatcher.offer(event("user" + i + "@mail.com")), is(true));
+        }
+
+        dispatcher.start();
+        dispatcher.close();
+
+        int total = 0;
+        for (List<SendGridEvent> batch : batches) {
+            assertThat(batch.size(), is(lessThanOrEqualTo(10)));
+            total += batch.size();
+        }
+        assertThat(total, is(25));
+        assertThat(batches.get(0).get(0).getEmail(), is("user0@mail.com"));
+        assertThat(dispatcher.getDispatched(), is(25L));
+        assertThat(dispatcher.getQueued(), is(0));
+    }
+
+    @Test
+    public void shouldRejectEventsOnceQueueIsFull() throws Exception {
+        dispatcher = new SendGridEventDispatcher(2, 10, 10);
+
+        assertThat(dispatcher.offer(event("one@mail.com")), is(true));
+        assertThat(dispatcher.offer(event("two@mail.com")), is(true));
+        assertThat(dispatcher.offer(event("three@mail.com")), is(false));
+    }
+
+    @Test
+    public void shouldKeepDispatchingToOtherListenersWhenOneFails() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        dispatcher.addListener(events -> {
+            throw new IllegalStateException("Expected");
+        });
+        dispatcher.addListener(events -> received.countDown());
+        dispatcher.start();
+
+        dispatcher.offer(event("one@mail.com"));
+
+        assertThat(received.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(dispatcher.isRunning(), is(true));
+    }
+
+    @Test
+    public void shouldStopOnClose() {
+        dispatcher.start();
+        dispatcher.close();
+
+        assertThat(dispatcher.isRunning(), is(false));
+    }
+
+    static SendGridEvent event(String email) {
+        SendGridEvent event = new SendGridEvent();
+        event.email = email;
+        event.event = "open";
+        event.type = EventType.Open;
+        return event;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+public class SendGridEventParserTest {
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void shouldParseTypedEvents() throws IOException {
+        // @formatter:off
+		List<SendGridEvent> events = parse("["
+				+ "{\"email\":\"one@mail.com\",\"timestamp\":1513299569,\"event\":\"delivered\",\"sg_event_id\":\"e1\",\"sg_message_id\":\"m1\",\"response\":\"250 OK\",\"category\":\"news\"},"
+				+ "{\"email\":\"two@mail.com\",\"timestamp\":1513299570,\"event\":\"bounce\",\"type\":\"bounce\",\"reason\":\"550 No such user\",\"status\":\"5.1.1\",\"category\":[\"news\",\"weekly\"]},"
+				+ "{\"email\":\"three@mail.com\",\"event\":\"click\",\"url\":\"https://mail.com\",\"user_id\":42,\"pool\":{\"name\":\"shared\",\"id\":1}},"
+				+ "{\"email\":\"four@mail.com\",\"event\":\"something_new\"}"
+				+ "]");
+		// @formatter:on
+
+        assertThat(events.size(), is(4));
+        SendGridEvent delivered = events.get(0);
+        assertThat(delivered.getType(), is(EventType.Delivered));
+        assertThat(delivered.getEmail(), is("one@mail.com"));
+        assertThat(delivered.getTimestamp(), is(1513299569L));
+        assertThat(delivered.getEventId(), is("e1"));
+        assertThat(delivered.getMessageId(), is("m1"));
+        assertThat(delivered.getProperty("response"), is("250 OK"));
+        assertThat(delivered.getCategories(), contains("news"));
+
+        SendGridEvent bounce = events.get(1);
+        assertThat(bounce.getType(), is(EventType.Bounce));
+        assertThat(bounce.getBounceType(), is("bounce"));
+        assertThat(bounce.getReason(), is("550 No such user"));
+        assertThat(bounce.getStatus(), is("5.1.1"));
+        assertThat(bounce.getCategories(), contains("news", "weekly"));
+
+        SendGridEvent click = events.get(2);
+        assertThat(click.getType(), is(EventType.Click));
+        assertThat(click.getUrl(), is("https://mail.com"));
+        assertThat(click.getProperty("user_id"), is("42"));
+        assertThat(click.getProperty("pool"), is(nullValue()));
+
+        assertThat(events.get(3).getType(), is(EventType.Unknown));
+        assertThat(events.get(3).getEvent(), is("something_new"));
+    }
+
+    @Test
+    public void shouldParseEmptyBatch() throws IOException {
+        assertThat(parse("[]").size(), is(0));
+    }
+
+    @Test
+    public void shouldParseLargeBatchIncrementally() throws IOException {
+        byte[] event = "{\"email\":\"someone@mail.com\",\"event\":\"open\"},".getBytes(StandardCharsets.UTF_8);
+        List<InputStream> parts = new ArrayList<>();
+        parts.add(stream("["));
+        for (int i = 0; i < 100000; i++) {
+            parts.add(new ByteArrayInputStream(event));
+        }
+        parts.add(stream("{\"email\":\"last@mail.com\",\"event\":\"open\"}]"));
+
+        int count = 0;
+        String last = null;
+        try (SendGridEventParser parser = new SendGridEventParser(new SequenceInputStream(Collections.enumeration(parts)))) {
+            for (SendGridEvent parsed = parser.next(); parsed != null; parsed = parser.next()) {
+                count++;
+                last = parsed.getEmail();
+            }
+        }
+
+        assertThat(count, is(100001));
+        assertThat(last, is("last@mail.com"));
+    }
+
+    @Test
+    public void shouldRejectBodyWhichIsNotAnArray() throws IOException {
+        thrown.expect(JsonParseException.class);
+        thrown.expectMessage("Expected an array of events but found START_OBJECT");
+
+        parse("{\"email\":\"someone@mail.com\"}");
+    }
+
+    @Test
+    public void shouldRejectArrayOfNonEvents() throws IOException {
+        thrown.expect(JsonParseException.class);
+        thrown.expectMessage("Expected an event but found VALUE_STRING");
+
+        parse("[\"someone@mail.com\"]");
+    }
+
+    @Test
+    public void shouldRejectTruncatedBatch() throws IOException {
+        thrown.expect(JsonParseException.class);
+
+        parse("[{\"email\":\"someone@mail.com\",\"event\":\"open\"},{\"email\":\"some");
+    }
+
+    private List<SendGridEvent> parse(String body) throws IOException {
+        List<SendGridEvent> events = new ArrayList<>();
+        try (SendGridEventParser parser = new SendGridEventParser(stream(body))) {
+            for (SendGridEvent event = parser.next(); event != null; event = parser.next()) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
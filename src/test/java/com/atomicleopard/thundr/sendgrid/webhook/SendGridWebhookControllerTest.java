@@ -0,0 +1,75 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import com.threewks.thundr.http.StatusCode;
+import com.threewks.thundr.request.mock.MockRequest;
+import com.threewks.thundr.route.HttpMethod;
+import com.threewks.thundr.view.string.StringView;
+
+public class SendGridWebhookControllerTest {
+    private static final String Batch = "[{\"email\":\"one@mail.com\",\"event\":\"delivered\"},{\"email\":\"two@mail.com\",\"event\":\"open\"}]";
+
+    private SendGridEventDispatcher dispatcher = new SendGridEventDispatcher(10, 10, 10);
+    private SendGridWebhookController controller = new SendGridWebhookController(dispatcher, null);
+
+    @Test
+    public void shouldQueueEveryEventOfBatch() {
+        StringView response = controller.events(request(Batch));
+
+        assertThat(response.getStatusCode(), is(StatusCode.OK));
+        assertThat(dispatcher.getQueued(), is(2));
+    }
+
+    @Test
+    public void shouldRejectMalformedBatch() {
+        StringView response = controller.events(request("{\"email\":\"one@mail.com\"}"));
+
+        assertThat(response.getStatusCode(), is(StatusCode.BadRequest));
+        assertThat(dispatcher.getQueued(), is(0));
+    }
+
+    @Test
+    public void shouldAskSendGridToRetryWhenQueueIsFull() {
+        dispatcher = new SendGridEventDispatcher(1, 10, 10);
+        controller = new SendGridWebhookController(dispatcher, null);
+
+        StringView response = controller.events(request(Batch));
+
+        assertThat(response.getStatusCode(), is(StatusCode.ServiceUnavailable));
+    }
+
+    @Test
+    public void shouldRequireTokenWhenSet() {
+        controller = new SendGridWebhookController(dispatcher, "secret");
+
+        assertThat(controller.events(request(Batch)).getStatusCode(), is(StatusCode.Unauthorized));
+        assertThat(controller.events(request(Batch).withParameter("token", "wrong")).getStatusCode(), is(StatusCode.Unauthorized));
+        assertThat(controller.events(request(Batch).withParameter("token", "secret")).getStatusCode(), is(StatusCode.OK));
+        assertThat(dispatcher.getQueued(), is(2));
+    }
+
+    private MockRequest request(String body) {
+        return new MockRequest(HttpMethod.POST, "/sendgrid/events").withBody(body);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is a part of thundr-contrib-sendgrid, a software library from Atomic Leopard.
+ *
+ * Copyright (C) 2015 Atomic Leopard, <nick@atomicleopard.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomicleopard.thundr.sendgrid.webhook;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.atomicleopard.thundr.sendgrid.suppression.SuppressionIndex;
+
+public class SuppressionListenerTest {
+    private SuppressionIndex index = new SuppressionIndex();
+    private SuppressionListener listener = new SuppressionListener(index);
+
+    @Test
+    public void shouldSuppressBouncesSpamReportsAndUnsubscribes() {
+        listener.onEvents(Arrays.asList(event("bounced@mail.com", EventType.Bounce, "bounce"), event("spam@mail.com", EventType.SpamReport, null),
+                event("unsubscribed@mail.com", EventType.Unsubscribe, null)));
+
+        assertThat(index.contains("bounced@mail.com"), is(true));
+        assertThat(index.contains("spam@mail.com"), is(true));
+        assertThat(index.contains("unsubscribed@mail.com"), is(true));
+    }
+
+    @Test
+    public void shouldNotSuppressTemporaryBlocksOrOtherEvents() {
+        listener.onEvents(Arrays.asList(event("blocked@mail.com", EventType.Bounce, "blocked"), event("delivered@mail.com", EventType.Delivered, null),
+                event("group@mail.com", EventType.GroupUnsubscribe, null)));
+
+        assertThat(index.size(), is(0));
+    }
+
+    private SendGridEvent event(String email, EventType type, String bounceType) {
+        SendGridEvent event = new SendGridEvent();
+        event.email = email;
+        event.type = type;
+        event.event = type.getName();
+        event.bounceType = bounceType;
+        return event;
+    }
+}